@@ -4,6 +4,7 @@ import android.os.Bundle;
 import com.getcapacitor.BridgeActivity;
 import com.cobrify.app.plugins.TcpPrinterPlugin;
 import com.cobrify.app.plugins.IminPrinterPlugin;
+import com.cobrify.app.plugins.PrintRouterPlugin;
 import com.cobrify.app.plugins.NotificationListenerPlugin;
 import com.cobrify.app.plugins.BusinessStoragePlugin;
 import com.cobrify.app.plugins.CustomerDisplayPlugin;
@@ -14,6 +15,7 @@ public class MainActivity extends BridgeActivity {
         // Registrar plugins personalizados
         registerPlugin(TcpPrinterPlugin.class);
         registerPlugin(IminPrinterPlugin.class);
+        registerPlugin(PrintRouterPlugin.class);
         registerPlugin(NotificationListenerPlugin.class);
         registerPlugin(BusinessStoragePlugin.class);
         registerPlugin(CustomerDisplayPlugin.class);
@@ -0,0 +1,78 @@
+package com.cobrify.app.plugins;
+
+/**
+ * Comandos ESC/POS compartidos. Los arreglos se crean una sola vez y solo se
+ * escriben tal cual a la impresora o a un EscPosBuffer: no modificarlos.
+ */
+final class EscPos {
+
+    static final byte ESC = 0x1B;
+    static final byte GS = 0x1D;
+    static final byte LF = 0x0A;
+
+    static final byte[] INIT = {ESC, 0x40};                  // ESC @
+    static final byte[] ALIGN_LEFT = {ESC, 0x61, 0x00};      // ESC a 0
+    static final byte[] ALIGN_CENTER = {ESC, 0x61, 0x01};    // ESC a 1
+    static final byte[] ALIGN_RIGHT = {ESC, 0x61, 0x02};     // ESC a 2
+    static final byte[] BOLD_ON = {ESC, 0x45, 0x01};         // ESC E 1
+    static final byte[] BOLD_OFF = {ESC, 0x45, 0x00};        // ESC E 0
+    static final byte[] UNDERLINE_ON = {ESC, 0x2D, 0x01};    // ESC - 1
+    static final byte[] UNDERLINE_OFF = {ESC, 0x2D, 0x00};   // ESC - 0
+    static final byte[] MODE_NORMAL = {ESC, 0x21, 0x00};     // ESC ! 0
+    static final byte[] MODE_DOUBLE_HEIGHT = {ESC, 0x21, 0x10}; // ESC ! 16
+    static final byte[] MODE_DOUBLE_WIDTH = {ESC, 0x21, 0x20};  // ESC ! 32
+    static final byte[] MODE_DOUBLE = {ESC, 0x21, 0x30};     // ESC ! 48
+    static final byte[] CUT = {GS, 0x56, 0x00};              // GS V 0
+    static final byte[] CUT_PARTIAL = {GS, 0x56, 0x01};      // GS V 1
+    static final byte[] FEED_LINE = {LF};
+    static final byte[] FEED_3_LINES = {ESC, 0x64, 0x03};    // ESC d 3
+
+    // QR nativo (GS ( k), modelo 2
+    static final byte[] QR_MODEL_2 = {GS, 0x28, 0x6B, 0x04, 0x00, 0x31, 0x41, 0x32, 0x00};
+    static final byte[] QR_PRINT = {GS, 0x28, 0x6B, 0x03, 0x00, 0x31, 0x51, 0x30};
+
+    private EscPos() {}
+
+    /**
+     * Comando por nombre (sendCommand de los plugins)
+     */
+    static byte[] command(String name) {
+        switch (name) {
+            case "INIT":
+            case "RESET":
+                return INIT;
+            case "CUT":
+            case "CUT_PAPER":
+                return CUT;
+            case "CUT_PARTIAL":
+                return CUT_PARTIAL;
+            case "ALIGN_LEFT":
+                return ALIGN_LEFT;
+            case "ALIGN_CENTER":
+                return ALIGN_CENTER;
+            case "ALIGN_RIGHT":
+                return ALIGN_RIGHT;
+            case "BOLD_ON":
+                return BOLD_ON;
+            case "BOLD_OFF":
+                return BOLD_OFF;
+            case "UNDERLINE_ON":
+                return UNDERLINE_ON;
+            case "UNDERLINE_OFF":
+                return UNDERLINE_OFF;
+            case "DOUBLE_WIDTH_ON":
+                return MODE_DOUBLE_WIDTH;
+            case "DOUBLE_HEIGHT_ON":
+                return MODE_DOUBLE_HEIGHT;
+            case "DOUBLE_WIDTH_OFF":
+            case "DOUBLE_HEIGHT_OFF":
+                return MODE_NORMAL;
+            case "FEED_LINE":
+                return FEED_LINE;
+            case "FEED_3_LINES":
+                return FEED_3_LINES;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.cobrify.app.plugins;
+
+import java.util.Arrays;
+
+/**
+ * Buffer de salida ESC/POS. Se crea con una capacidad estimada para el ticket
+ * completo y solo crece si la estimación se quedó corta.
+ */
+final class EscPosBuffer {
+
+    private byte[] buffer;
+    private int size;
+
+    EscPosBuffer(int capacity) {
+        buffer = new byte[Math.max(64, capacity)];
+    }
+
+    EscPosBuffer write(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+        return this;
+    }
+
+    EscPosBuffer write(byte[] bytes) {
+        return write(bytes, 0, bytes.length);
+    }
+
+    EscPosBuffer write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Escribir el mismo byte n veces (separadores, relleno de columnas)
+     */
+    EscPosBuffer repeat(int b, int count) {
+        if (count <= 0) {
+            return this;
+        }
+        ensureCapacity(count);
+        Arrays.fill(buffer, size, size + count, (byte) b);
+        size += count;
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Arreglo interno (válido hasta size()); evita copiar cuando el consumidor
+     * acepta offset/longitud.
+     */
+    byte[] array() {
+        return buffer;
+    }
+
+    byte[] toByteArray() {
+        return buffer.length == size ? buffer : Arrays.copyOf(buffer, size);
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = size + extra;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.cobrify.app.plugins;
+
+import java.text.Normalizer;
+
+/**
+ * Codificación de texto para ESC/POS con tabla de caracteres (ESC t n). Las
+ * impresoras térmicas no entienden UTF-8: con PC850/PC858/WPC1252 las tildes, la
+ * ñ y los signos ¿ ¡ salen tal cual en vez de pasarlos a ASCII.
+ *
+ * Cada página tiene una tabla char → byte de 64K entradas, armada una sola vez
+ * (la primera vez que se usa). Lo que no existe en la página se translitera al
+ * armarla (tilde que no existe → letra base, comillas tipográficas → comillas
+ * rectas, etc.), así que codificar es un acceso a arreglo por carácter, sin
+ * Charset ni asignaciones.
+ */
+final class EscPosCodepage {
+
+    private static final byte SKIP = 0; // marcas combinantes y surrogates bajos: no se imprimen
+    private static final int NORMALIZE_LIMIT = 0x2000; // latín, griego, cirílico: la letra base existe
+
+    // Mitad alta (0x80–0xFF) de cada página, \uFFFD = sin carácter
+    private static final String CP437_HIGH =
+        "\u00C7\u00FC\u00E9\u00E2\u00E4\u00E0\u00E5\u00E7\u00EA\u00EB\u00E8\u00EF\u00EE\u00EC\u00C4\u00C5"
+        + "\u00C9\u00E6\u00C6\u00F4\u00F6\u00F2\u00FB\u00F9\u00FF\u00D6\u00DC\u00A2\u00A3\u00A5\u20A7\u0192"
+        + "\u00E1\u00ED\u00F3\u00FA\u00F1\u00D1\u00AA\u00BA\u00BF\u2310\u00AC\u00BD\u00BC\u00A1\u00AB\u00BB"
+        + "\u2591\u2592\u2593\u2502\u2524\u2561\u2562\u2556\u2555\u2563\u2551\u2557\u255D\u255C\u255B\u2510"
+        + "\u2514\u2534\u252C\u251C\u2500\u253C\u255E\u255F\u255A\u2554\u2569\u2566\u2560\u2550\u256C\u2567"
+        + "\u2568\u2564\u2565\u2559\u2558\u2552\u2553\u256B\u256A\u2518\u250C\u2588\u2584\u258C\u2590\u2580"
+        + "\u03B1\u00DF\u0393\u03C0\u03A3\u03C3\u00B5\u03C4\u03A6\u0398\u03A9\u03B4\u221E\u03C6\u03B5\u2229"
+        + "\u2261\u00B1\u2265\u2264\u2320\u2321\u00F7\u2248\u00B0\u2219\u00B7\u221A\u207F\u00B2\u25A0\u00A0";
+
+    private static final String CP850_HIGH =
+        "\u00C7\u00FC\u00E9\u00E2\u00E4\u00E0\u00E5\u00E7\u00EA\u00EB\u00E8\u00EF\u00EE\u00EC\u00C4\u00C5"
+        + "\u00C9\u00E6\u00C6\u00F4\u00F6\u00F2\u00FB\u00F9\u00FF\u00D6\u00DC\u00F8\u00A3\u00D8\u00D7\u0192"
+        + "\u00E1\u00ED\u00F3\u00FA\u00F1\u00D1\u00AA\u00BA\u00BF\u00AE\u00AC\u00BD\u00BC\u00A1\u00AB\u00BB"
+        + "\u2591\u2592\u2593\u2502\u2524\u00C1\u00C2\u00C0\u00A9\u2563\u2551\u2557\u255D\u00A2\u00A5\u2510"
+        + "\u2514\u2534\u252C\u251C\u2500\u253C\u00E3\u00C3\u255A\u2554\u2569\u2566\u2560\u2550\u256C\u00A4"
+        + "\u00F0\u00D0\u00CA\u00CB\u00C8\u0131\u00CD\u00CE\u00CF\u2518\u250C\u2588\u2584\u00A6\u00CC\u2580"
+        + "\u00D3\u00DF\u00D4\u00D2\u00F5\u00D5\u00B5\u00FE\u00DE\u00DA\u00DB\u00D9\u00FD\u00DD\u00AF\u00B4"
+        + "\u00AD\u00B1\u2017\u00BE\u00B6\u00A7\u00F7\u00B8\u00B0\u00A8\u00B7\u00B9\u00B3\u00B2\u25A0\u00A0";
+
+    private static final String CP858_HIGH =
+        "\u00C7\u00FC\u00E9\u00E2\u00E4\u00E0\u00E5\u00E7\u00EA\u00EB\u00E8\u00EF\u00EE\u00EC\u00C4\u00C5"
+        + "\u00C9\u00E6\u00C6\u00F4\u00F6\u00F2\u00FB\u00F9\u00FF\u00D6\u00DC\u00F8\u00A3\u00D8\u00D7\u0192"
+        + "\u00E1\u00ED\u00F3\u00FA\u00F1\u00D1\u00AA\u00BA\u00BF\u00AE\u00AC\u00BD\u00BC\u00A1\u00AB\u00BB"
+        + "\u2591\u2592\u2593\u2502\u2524\u00C1\u00C2\u00C0\u00A9\u2563\u2551\u2557\u255D\u00A2\u00A5\u2510"
+        + "\u2514\u2534\u252C\u251C\u2500\u253C\u00E3\u00C3\u255A\u2554\u2569\u2566\u2560\u2550\u256C\u00A4"
+        + "\u00F0\u00D0\u00CA\u00CB\u00C8\u20AC\u00CD\u00CE\u00CF\u2518\u250C\u2588\u2584\u00A6\u00CC\u2580"
+        + "\u00D3\u00DF\u00D4\u00D2\u00F5\u00D5\u00B5\u00FE\u00DE\u00DA\u00DB\u00D9\u00FD\u00DD\u00AF\u00B4"
+        + "\u00AD\u00B1\u2017\u00BE\u00B6\u00A7\u00F7\u00B8\u00B0\u00A8\u00B7\u00B9\u00B3\u00B2\u25A0\u00A0";
+
+    private static final String WPC1252_HIGH =
+        "\u20AC\uFFFD\u201A\u0192\u201E\u2026\u2020\u2021\u02C6\u2030\u0160\u2039\u0152\uFFFD\u017D\uFFFD"
+        + "\uFFFD\u2018\u2019\u201C\u201D\u2022\u2013\u2014\u02DC\u2122\u0161\u203A\u0153\uFFFD\u017E\u0178"
+        + "\u00A0\u00A1\u00A2\u00A3\u00A4\u00A5\u00A6\u00A7\u00A8\u00A9\u00AA\u00AB\u00AC\u00AD\u00AE\u00AF"
+        + "\u00B0\u00B1\u00B2\u00B3\u00B4\u00B5\u00B6\u00B7\u00B8\u00B9\u00BA\u00BB\u00BC\u00BD\u00BE\u00BF"
+        + "\u00C0\u00C1\u00C2\u00C3\u00C4\u00C5\u00C6\u00C7\u00C8\u00C9\u00CA\u00CB\u00CC\u00CD\u00CE\u00CF"
+        + "\u00D0\u00D1\u00D2\u00D3\u00D4\u00D5\u00D6\u00D7\u00D8\u00D9\u00DA\u00DB\u00DC\u00DD\u00DE\u00DF"
+        + "\u00E0\u00E1\u00E2\u00E3\u00E4\u00E5\u00E6\u00E7\u00E8\u00E9\u00EA\u00EB\u00EC\u00ED\u00EE\u00EF"
+        + "\u00F0\u00F1\u00F2\u00F3\u00F4\u00F5\u00F6\u00F7\u00F8\u00F9\u00FA\u00FB\u00FC\u00FD\u00FE\u00FF";
+
+    /** Solo ASCII (sin ESC t): el comportamiento de antes, tildes → letra base */
+    static final EscPosCodepage ASCII = new EscPosCodepage("ASCII", -1, null);
+    static final EscPosCodepage CP437 = new EscPosCodepage("CP437", 0, CP437_HIGH);
+    static final EscPosCodepage PC850 = new EscPosCodepage("PC850", 2, CP850_HIGH);
+    static final EscPosCodepage WPC1252 = new EscPosCodepage("WPC1252", 16, WPC1252_HIGH);
+    static final EscPosCodepage PC858 = new EscPosCodepage("PC858", 19, CP858_HIGH);
+
+    final String name;
+    private final int number;
+    private final String high;
+    private final byte[] select;
+    private volatile byte[] table;
+
+    private EscPosCodepage(String name, int number, String high) {
+        this.name = name;
+        this.number = number;
+        this.high = high;
+        this.select = number < 0 ? new byte[0] : new byte[]{EscPos.ESC, 0x74, (byte) number};
+    }
+
+    /**
+     * Página por nombre ("PC850", "CP850", "IBM850", "850", "WPC1252", "windows-1252"...).
+     * null si no es una página soportada (p.ej. "UTF-8").
+     */
+    static EscPosCodepage forName(String value) {
+        if (value == null) {
+            return null;
+        }
+        String name = value.trim().toUpperCase().replace("-", "").replace("_", "");
+        switch (name) {
+            case "ASCII":
+            case "USASCII":
+                return ASCII;
+            case "437":
+            case "CP437":
+            case "PC437":
+            case "IBM437":
+                return CP437;
+            case "850":
+            case "CP850":
+            case "PC850":
+            case "IBM850":
+                return PC850;
+            case "858":
+            case "CP858":
+            case "PC858":
+            case "IBM858":
+            case "IBM00858":
+                return PC858;
+            case "1252":
+            case "CP1252":
+            case "WPC1252":
+            case "WINDOWS1252":
+                return WPC1252;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Comando ESC t n para seleccionar la página (vacío para ASCII). Se emite una vez por trabajo.
+     */
+    byte[] selectCommand() {
+        return select;
+    }
+
+    /**
+     * Escribir el texto codificado en el buffer
+     */
+    void encode(CharSequence text, EscPosBuffer out) {
+        byte[] map = table();
+        for (int i = 0, length = text.length(); i < length; i++) {
+            byte value = map[text.charAt(i)];
+            if (value != SKIP) {
+                out.write(value);
+            }
+        }
+    }
+
+    /**
+     * Texto codificado en un arreglo del tamaño justo
+     */
+    byte[] encode(CharSequence text) {
+        byte[] map = table();
+        int length = text.length();
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (map[text.charAt(i)] != SKIP) {
+                count++;
+            }
+        }
+        byte[] encoded = new byte[count];
+        for (int i = 0, j = 0; i < length; i++) {
+            byte value = map[text.charAt(i)];
+            if (value != SKIP) {
+                encoded[j++] = value;
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Byte de un carácter ('?' si no se imprime nada para él)
+     */
+    int encode(char c) {
+        byte value = table()[c];
+        return value == SKIP ? '?' : value & 0xFF;
+    }
+
+    /**
+     * Índice del primer carácter que la página no tiene ni por transliteración
+     * (saldría como '?'), o -1. Es el camino rápido: una pasada por la tabla.
+     */
+    int firstUnencodable(CharSequence text, int from) {
+        byte[] map = table();
+        for (int i = from, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (map[c] == '?' && c != '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fin del tramo sin codificar que empieza en from (incluye la mitad baja de los surrogates)
+     */
+    int nextEncodable(CharSequence text, int from) {
+        byte[] map = table();
+        int i = from;
+        for (int length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (!Character.isLowSurrogate(c) && (map[c] != '?' || c == '?')) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private byte[] table() {
+        byte[] map = table;
+        if (map == null) {
+            synchronized (this) {
+                map = table;
+                if (map == null) {
+                    map = build();
+                    table = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    private byte[] build() {
+        byte[] map = new byte[65536];
+        for (int c = 1; c < 0x80; c++) {
+            map[c] = (byte) c;
+        }
+        if (high != null) {
+            for (int i = 0; i < high.length(); i++) {
+                char c = high.charAt(i);
+                if (c != '\uFFFD' && map[c] == SKIP) {
+                    map[c] = (byte) (0x80 + i);
+                }
+            }
+        }
+        for (int c = 0x80; c < map.length; c++) {
+            if (map[c] == SKIP) {
+                map[c] = fallback(map, (char) c);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Transliteración de un carácter que no existe en la página
+     */
+    private static byte fallback(byte[] map, char c) {
+        int type = Character.getType(c);
+        if (Character.isLowSurrogate(c) || type == Character.NON_SPACING_MARK || type == Character.FORMAT) {
+            return SKIP;
+        }
+        switch (c) {
+            case '\u00BF': return '?';                  // ¿
+            case '\u00A1': return '!';                  // ¡
+            case '\u00B0': case '\u00BA': return 'o';   // ° º
+            case '\u00AA': return 'a';                  // ª
+            case '\u00A0': return ' ';
+            case '\u2018': case '\u2019': case '\u201A': case '\u00B4': return '\'';
+            case '\u201C': case '\u201D': case '\u201E': case '\u00AB': case '\u00BB': return '"';
+            case '\u2010': case '\u2011': case '\u2012': case '\u2013': case '\u2014': case '\u2212': return '-';
+            case '\u2022': case '\u00B7': case '\u2026': return '.';
+            case '\u20AC': return 'E';                  // € sin PC858/WPC1252
+            case '\u00D7': return 'x';
+            default:
+                break;
+        }
+        if (c < NORMALIZE_LIMIT) {
+            // Letra con tilde que la página no tiene (ã en PC437, etc.) → letra base
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            byte base = map[decomposed.charAt(0)];
+            if (decomposed.charAt(0) != c && base != SKIP) {
+                return base;
+            }
+        }
+        return '?';
+    }
+}
@@ -0,0 +1,133 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import java.nio.charset.Charset;
+
+/**
+ * Un trabajo impreso varias veces (cliente + tienda) con un solo decode y una
+ * sola conexión: las copias se escriben seguidas desde el mismo buffer.
+ *
+ * - Si el trabajo no termina en corte se le agrega avance + corte una vez, así
+ *   cada copia sale separada.
+ * - Con marker, el texto de la copia original (p. ej. "ORIGINAL" o espacios
+ *   reservados en la cabecera) se reemplaza por label ("COPIA") a partir de la
+ *   segunda copia. El reemplazo es del mismo largo, así que todas las copias
+ *   miden lo mismo y los escritores recorren la copia i en el offset i × length.
+ */
+final class EscPosCopies {
+
+    private static final String TAG = "EscPosCopies";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    static final String DEFAULT_LABEL = "COPIA";
+    private static final int CUT_SEARCH = 16; // bytes al final donde buscar GS V
+    private static final byte[] FEED_AND_CUT = {EscPos.ESC, 0x64, 0x05, EscPos.GS, 0x56, 0x01};
+
+    final byte[] first;
+    final byte[] rest;  // copias 2..count (el mismo arreglo que first si no hay marcador)
+    final int count;
+    final int length;
+
+    private EscPosCopies(byte[] first, byte[] rest, int count) {
+        this.first = first;
+        this.rest = rest;
+        this.count = count;
+        this.length = first.length;
+    }
+
+    static EscPosCopies single(byte[] data) {
+        return new EscPosCopies(data, data, 1);
+    }
+
+    /**
+     * @param count copias (ya acotadas por el llamador)
+     * @param marker texto ASCII de la copia original que se reemplaza (null = sin reemplazo)
+     * @param label texto de las demás copias (null = DEFAULT_LABEL)
+     */
+    static EscPosCopies of(byte[] data, int count, String marker, String label) {
+        if (count <= 1) {
+            return single(data);
+        }
+        byte[] first = endsWithCut(data) ? data : append(data, FEED_AND_CUT);
+        byte[] rest = first;
+        if (marker != null && !marker.isEmpty()) {
+            rest = patch(first, marker.getBytes(ASCII), (label != null ? label : DEFAULT_LABEL).getBytes(ASCII));
+        }
+        return new EscPosCopies(first, rest, count);
+    }
+
+    byte[] copy(int index) {
+        return index == 0 ? first : rest;
+    }
+
+    long totalLength() {
+        return (long) length * count;
+    }
+
+    boolean uniform() {
+        return rest == first;
+    }
+
+    /**
+     * Todas las copias en un solo arreglo (para el spool, que guarda un trabajo por archivo)
+     */
+    byte[] flatten() {
+        byte[] out = new byte[(int) totalLength()];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(copy(i), 0, out, i * length, length);
+        }
+        return out;
+    }
+
+    /**
+     * El trabajo ya corta al final (GS V, quizás seguido de avances o ESC @)
+     */
+    static boolean endsWithCut(byte[] data) {
+        for (int i = data.length - 2; i >= 0 && i >= data.length - CUT_SEARCH; i--) {
+            if (data[i] == EscPos.GS && data[i + 1] == 0x56) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copia de data con la primera aparición de marker reemplazada por label,
+     * centrado y rellenado con espacios al largo del marcador (o recortado)
+     */
+    private static byte[] patch(byte[] data, byte[] marker, byte[] label) {
+        int at = indexOf(data, marker);
+        if (at < 0) {
+            Log.w(TAG, "Copy marker not found, copies will be identical");
+            return data;
+        }
+        byte[] patched = data.clone();
+        int shown = Math.min(label.length, marker.length);
+        int left = (marker.length - shown) / 2;
+        for (int i = 0; i < marker.length; i++) {
+            patched[at + i] = ' ';
+        }
+        System.arraycopy(label, 0, patched, at + left, shown);
+        return patched;
+    }
+
+    private static int indexOf(byte[] data, byte[] needle) {
+        outer:
+        for (int i = 0; i <= data.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] append(byte[] data, byte[] tail) {
+        byte[] out = new byte[data.length + tail.length];
+        System.arraycopy(data, 0, out, 0, data.length);
+        System.arraycopy(tail, 0, out, data.length, tail.length);
+        return out;
+    }
+}
@@ -0,0 +1,395 @@
+package com.cobrify.app.plugins;
+
+/**
+ * Optimizador "de mirilla" para streams ESC/POS armados en JS (EscPosBuilder):
+ * recorre los comandos llevando el estado de la impresora y
+ * - descarta ESC E / ESC - / ESC a / ESC ! / GS ! / ESC t que no cambian nada,
+ * - de varios ESC ! (o GS !) seguidos sin texto en medio deja solo el último,
+ * - junta corridas de LF y ESC d en un solo ESC d n (o LFs si sale más corto),
+ * - descarta un ESC @ repetido.
+ *
+ * Los cambios de estado se difieren hasta el siguiente texto o comando, así que el
+ * orden relativo a lo impreso no cambia. Los datos de imágenes, QR y códigos de
+ * barras se copian tal cual (se saltan por su longitud). Ante un comando que no
+ * conoce, copia el resto del stream sin tocar: nunca cambia lo que se imprime.
+ *
+ * ESC ! también toca negrita y subrayado en muchas impresoras (no en todas): tras
+ * emitir un ESC ! esos estados pasan a desconocidos y el siguiente ESC E / ESC - se
+ * respeta siempre. Al revés igual: ESC E / ESC - cambian los bits 3 y 7 de ESC !,
+ * así que tras emitirlos el siguiente ESC ! también se respeta.
+ */
+final class EscPosOptimizer {
+
+    private static final byte ESC = 0x1B;
+    private static final byte GS = 0x1D;
+    private static final byte FS = 0x1C;
+    private static final byte DLE = 0x10;
+    private static final byte LF = 0x0A;
+
+    private static final int UNKNOWN = -1;
+    private static final int NONE = -2;   // sin cambio pendiente
+    private static final int MAX_FEED = 255;
+    private static final int MIN_FEED_COMMAND = 4; // hasta 3 LF ocupan lo mismo o menos que ESC d n
+
+    // Estados que se siguen: índice → comando que lo fija
+    private static final int MODE = 0;      // ESC ! n
+    private static final int SIZE = 1;      // GS ! n
+    private static final int BOLD = 2;      // ESC E n
+    private static final int UNDERLINE = 3; // ESC - n
+    private static final int ALIGN = 4;     // ESC a n
+    private static final int CODEPAGE = 5;  // ESC t n
+    private static final byte[][] SETTERS = {
+        {ESC, 0x21}, {GS, 0x21}, {ESC, 0x45}, {ESC, 0x2D}, {ESC, 0x61}, {ESC, 0x74}
+    };
+
+    private final byte[] in;
+    private final EscPosBuffer out;
+    private final int[] actual = new int[SETTERS.length];
+    private final int[] wanted = new int[SETTERS.length];
+    private int pendingFeed;
+    private boolean lineStarted;   // hay texto en el renglón (ESC a solo vale al inicio)
+    private boolean lastWasInit;
+
+    private EscPosOptimizer(byte[] in) {
+        this.in = in;
+        this.out = new EscPosBuffer(in.length);
+        for (int i = 0; i < SETTERS.length; i++) {
+            actual[i] = UNKNOWN;
+            wanted[i] = NONE;
+        }
+    }
+
+    /**
+     * Stream optimizado (el mismo arreglo si no hubo nada que ahorrar)
+     */
+    static byte[] optimize(byte[] data) {
+        if (data == null || data.length == 0) {
+            return data;
+        }
+        byte[] optimized = new EscPosOptimizer(data).run();
+        return optimized.length < data.length ? optimized : data;
+    }
+
+    private byte[] run() {
+        int pos = 0;
+        while (pos < in.length) {
+            int b = in[pos] & 0xFF;
+            if (b == LF) {
+                flushState();
+                addFeed(1);
+                pos++;
+                continue;
+            }
+            if (b == ESC || b == GS || b == FS || b == DLE) {
+                int length = commandLength(pos);
+                if (length < 0 || pos + length > in.length) {
+                    // Comando desconocido o cortado: el resto va tal cual
+                    passThrough(pos, in.length - pos);
+                    break;
+                }
+                command(pos, length);
+                pos += length;
+                continue;
+            }
+
+            // Texto: copiar la corrida completa de una vez
+            int end = pos + 1;
+            while (end < in.length) {
+                int next = in[end] & 0xFF;
+                if (next == LF || next == ESC || next == GS || next == FS || next == DLE) {
+                    break;
+                }
+                end++;
+            }
+            passThrough(pos, end - pos);
+            lineStarted = true;
+            pos = end;
+        }
+        flushState();
+        flushFeed();
+        return out.toByteArray();
+    }
+
+    private void command(int pos, int length) {
+        int first = in[pos] & 0xFF;
+        int second = length > 1 ? in[pos + 1] & 0xFF : -1;
+
+        if (first == ESC && second == 0x40) {
+            // ESC @: todo vuelve al estado inicial, los cambios pendientes ya no importan
+            flushFeed();
+            for (int i = 0; i < SETTERS.length; i++) {
+                wanted[i] = NONE;
+            }
+            if (!lastWasInit) {
+                out.write(in, pos, length);
+                lastWasInit = true;
+            }
+            for (int i = 0; i < SETTERS.length; i++) {
+                actual[i] = 0;
+            }
+            // La tabla vuelve a la configurada en la impresora, no necesariamente la 0
+            actual[CODEPAGE] = UNKNOWN;
+            lineStarted = false;
+            return;
+        }
+
+        if (first == ESC && second == 0x64) {
+            int lines = in[pos + 2] & 0xFF;
+            if (lines == 0 && lineStarted) {
+                // ESC d 0 imprime el renglón sin avanzar: no se puede juntar
+                passThrough(pos, length);
+                lineStarted = false;
+                return;
+            }
+            flushState();
+            addFeed(lines);
+            return;
+        }
+
+        int state = setterIndex(first, second);
+        if (state >= 0 && length == 3) {
+            int value = in[pos + 2] & 0xFF;
+            if (state == BOLD || state == UNDERLINE) {
+                value = normalizeToggle(state, value);
+            }
+            if (state == ALIGN && lineStarted) {
+                // A mitad de renglón la impresora lo ignora (o no): respetarlo tal cual
+                flushState();
+                passThrough(pos, length);
+                actual[ALIGN] = UNKNOWN;
+                return;
+            }
+            if (state == MODE || state == SIZE) {
+                // ESC ! pisa negrita/subrayado/tamaño: lo pendiente de antes va primero
+                emitPending(BOLD);
+                emitPending(UNDERLINE);
+                emitPending(state == MODE ? SIZE : MODE);
+            }
+            wanted[state] = value;
+            return;
+        }
+
+        passThrough(pos, length);
+        if (first == GS && second == 0x56) {
+            lineStarted = false; // el corte imprime lo que quedaba en el renglón
+        } else if (first == ESC && second == 0x2A) {
+            lineStarted = true;  // ESC * va al renglón como el texto
+        }
+    }
+
+    /**
+     * Copiar bytes tal cual, emitiendo antes los cambios de estado y avances pendientes
+     */
+    private void passThrough(int pos, int length) {
+        flushState();
+        flushFeed();
+        out.write(in, pos, length);
+        lastWasInit = false;
+    }
+
+    private void addFeed(int lines) {
+        pendingFeed += lines;
+        lineStarted = false;
+    }
+
+    private void flushFeed() {
+        while (pendingFeed > 0) {
+            int lines = Math.min(pendingFeed, MAX_FEED);
+            if (lines < MIN_FEED_COMMAND) {
+                out.repeat(LF, lines);
+            } else {
+                out.write(ESC).write(0x64).write(lines);
+            }
+            pendingFeed -= lines;
+            lastWasInit = false;
+        }
+    }
+
+    private void flushState() {
+        emitPending(MODE);
+        emitPending(SIZE);
+        for (int i = BOLD; i < SETTERS.length; i++) {
+            emitPending(i);
+        }
+    }
+
+    private void emitPending(int state) {
+        int value = wanted[state];
+        if (value == NONE) {
+            return;
+        }
+        wanted[state] = NONE;
+        if (actual[state] == value) {
+            return;
+        }
+        flushFeed();
+        out.write(SETTERS[state]).write(value);
+        actual[state] = value;
+        lastWasInit = false;
+        if (state == MODE) {
+            actual[BOLD] = UNKNOWN;
+            actual[UNDERLINE] = UNKNOWN;
+            actual[SIZE] = UNKNOWN;
+        } else if (state == SIZE || state == BOLD || state == UNDERLINE) {
+            actual[MODE] = UNKNOWN;
+        }
+    }
+
+    private static int setterIndex(int first, int second) {
+        for (int i = 0; i < SETTERS.length; i++) {
+            if ((SETTERS[i][0] & 0xFF) == first && SETTERS[i][1] == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * ESC E / ESC - solo miran el bit bajo ('1' y 0x01 son lo mismo); ESC - 2 es subrayado grueso
+     */
+    private static int normalizeToggle(int state, int value) {
+        if (state == UNDERLINE) {
+            int thickness = value >= 0x30 ? value - 0x30 : value;
+            return thickness >= 0 && thickness <= 2 ? thickness : value;
+        }
+        return value & 0x01;
+    }
+
+    /**
+     * Longitud del comando que empieza en pos, o -1 si no se conoce
+     */
+    private int commandLength(int pos) {
+        if (pos + 1 >= in.length) {
+            return -1;
+        }
+        int first = in[pos] & 0xFF;
+        int second = in[pos + 1] & 0xFF;
+        switch (first) {
+            case ESC:
+                return escLength(pos, second);
+            case GS:
+                return gsLength(pos, second);
+            case FS:
+                switch (second) {
+                    case 0x2E: case 0x26:           // FS . / FS &
+                        return 2;
+                    case 0x21: case 0x2D: case 0x43: // FS ! / FS - / FS C
+                        return 3;
+                    case 0x70:                      // FS p n m
+                        return 4;
+                    default:
+                        return -1;
+                }
+            case DLE:
+                switch (second) {
+                    case 0x04: case 0x05:           // DLE EOT / DLE ENQ
+                        return 3;
+                    case 0x14:                      // DLE DC4 1 m t (pulso)
+                        return pos + 2 < in.length && in[pos + 2] == 0x01 ? 5 : -1;
+                    default:
+                        return -1;
+                }
+            default:
+                return -1;
+        }
+    }
+
+    private int escLength(int pos, int second) {
+        switch (second) {
+            case 0x40: case 0x32: case 0x3C: case 0x69: case 0x6D: case 0x53: case 0x4C: case 0x0C:
+                return 2;
+            case 0x21: case 0x2D: case 0x45: case 0x47: case 0x4D: case 0x52: case 0x54: case 0x56:
+            case 0x61: case 0x64: case 0x4A: case 0x74: case 0x7B: case 0x33: case 0x20: case 0x72:
+            case 0x55: case 0x65: case 0x25: case 0x3D: case 0x3F:
+                return 3;
+            case 0x24: case 0x5C: case 0x63:        // ESC $ / ESC \ / ESC c x n
+                return 4;
+            case 0x70:                              // ESC p m t1 t2
+                return 5;
+            case 0x57:                              // ESC W (área en modo página)
+                return 10;
+            case 0x2A: {                            // ESC * m nL nH d1…dk
+                if (pos + 4 >= in.length) {
+                    return -1;
+                }
+                int m = in[pos + 2] & 0xFF;
+                int columns = (in[pos + 3] & 0xFF) | (in[pos + 4] & 0xFF) << 8;
+                return 5 + columns * (m >= 32 ? 3 : 1);
+            }
+            case 0x44: {                            // ESC D n1…nk NUL
+                for (int i = pos + 2; i < in.length && i < pos + 35; i++) {
+                    if (in[i] == 0) {
+                        return i - pos + 1;
+                    }
+                }
+                return -1;
+            }
+            default:
+                return -1;
+        }
+    }
+
+    private int gsLength(int pos, int second) {
+        switch (second) {
+            case 0x21: case 0x42: case 0x48: case 0x66: case 0x68: case 0x77: case 0x72:
+            case 0x49: case 0x61: case 0x62: case 0x2F:
+                return 3;
+            case 0x3A:                              // GS : (macro)
+                return 2;
+            case 0x4C: case 0x57: case 0x24: case 0x5C: case 0x50:
+                return 4;
+            case 0x56: {                            // GS V m [n]
+                if (pos + 2 >= in.length) {
+                    return -1;
+                }
+                int m = in[pos + 2] & 0xFF;
+                return m == 0 || m == 1 || m == 0x30 || m == 0x31 ? 3 : 4;
+            }
+            case 0x76: {                            // GS v 0 m xL xH yL yH d1…dk
+                if (pos + 7 >= in.length) {
+                    return -1;
+                }
+                int widthBytes = (in[pos + 4] & 0xFF) | (in[pos + 5] & 0xFF) << 8;
+                int height = (in[pos + 6] & 0xFF) | (in[pos + 7] & 0xFF) << 8;
+                return 8 + widthBytes * height;
+            }
+            case 0x28: {                            // GS ( X pL pH …
+                if (pos + 4 >= in.length) {
+                    return -1;
+                }
+                return 5 + ((in[pos + 3] & 0xFF) | (in[pos + 4] & 0xFF) << 8);
+            }
+            case 0x38: {                            // GS 8 L p1 p2 p3 p4 …
+                if (pos + 6 >= in.length) {
+                    return -1;
+                }
+                long length = (in[pos + 3] & 0xFFL) | (in[pos + 4] & 0xFFL) << 8
+                    | (in[pos + 5] & 0xFFL) << 16 | (in[pos + 6] & 0xFFL) << 24;
+                return length > in.length ? -1 : 7 + (int) length;
+            }
+            case 0x2A: {                            // GS * x y d1…d(x*y*8)
+                if (pos + 3 >= in.length) {
+                    return -1;
+                }
+                return 4 + (in[pos + 2] & 0xFF) * (in[pos + 3] & 0xFF) * 8;
+            }
+            case 0x6B: {                            // GS k m …
+                if (pos + 2 >= in.length) {
+                    return -1;
+                }
+                int m = in[pos + 2] & 0xFF;
+                if (m <= 6) {
+                    for (int i = pos + 3; i < in.length; i++) {
+                        if (in[i] == 0) {
+                            return i - pos + 1;
+                        }
+                    }
+                    return -1;
+                }
+                return pos + 3 < in.length ? 4 + (in[pos + 3] & 0xFF) : -1;
+            }
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.cobrify.app.plugins;
+
+import android.util.LruCache;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Códigos QR del ticket (hash SUNAT, QR de Yape/Plin). Si la impresora tiene QR
+ * nativo se mandan los comandos GS ( k (~100 bytes: la impresora dibuja el código);
+ * si no, se genera el raster del QR en nativo (zxing) y se guarda en caché.
+ *
+ * Un QR subido como imagen (ticketQrMode = 'image') se decodifica para volver a
+ * emitirlo como QR nativo: varios KB de raster pasan a ser unos pocos bytes.
+ */
+final class EscPosQr {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int QUIET_ZONE = 2; // módulos de margen a cada lado del raster
+
+    // Raster de QR ya generados (mismo contenido/tamaño en cada ticket)
+    private static final LruCache<String, byte[]> RASTERS = new LruCache<String, byte[]>(512 * 1024) {
+        @Override
+        protected int sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+    };
+
+    private EscPosQr() {}
+
+    /**
+     * Bytes ESC/POS del QR: nativo o raster según la impresora
+     * @param size tamaño del módulo en puntos (1–16)
+     * @param ec nivel de corrección: L, M, Q, H
+     */
+    static byte[] render(String data, int size, String ec, boolean nativeQr) throws WriterException {
+        int moduleSize = Math.max(1, Math.min(size, 16));
+        if (nativeQr) {
+            return command(data, moduleSize, ec);
+        }
+        String key = moduleSize + ec + ":" + data;
+        byte[] cached = RASTERS.get(key);
+        if (cached == null) {
+            cached = raster(data, moduleSize, ec).toEscPos();
+            RASTERS.put(key, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Secuencia GS ( k: modelo 2, tamaño de módulo, corrección, guardar datos, imprimir
+     */
+    static byte[] command(String data, int size, String ec) {
+        byte[] content = data.getBytes(UTF8);
+        int storeLength = content.length + 3;
+        EscPosBuffer out = new EscPosBuffer(content.length + 40);
+
+        out.write(EscPos.QR_MODEL_2);
+        out.write(EscPos.GS).write(0x28).write(0x6B).write(0x03).write(0x00).write(0x31).write(0x43)
+            .write(Math.max(1, Math.min(size, 16)));
+        out.write(EscPos.GS).write(0x28).write(0x6B).write(0x03).write(0x00).write(0x31).write(0x45)
+            .write(errorCorrectionByte(ec));
+        out.write(EscPos.GS).write(0x28).write(0x6B).write(storeLength & 0xFF).write((storeLength >> 8) & 0xFF)
+            .write(0x31).write(0x50).write(0x30);
+        out.write(content);
+        out.write(EscPos.QR_PRINT);
+        out.write(EscPos.LF);
+        return out.toByteArray();
+    }
+
+    /**
+     * QR como imagen monocromática, con moduleSize puntos por módulo
+     */
+    static EscPosRaster raster(String data, int moduleSize, String ec) throws WriterException {
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+        ByteMatrix matrix = Encoder.encode(data, errorCorrectionLevel(ec), hints).getMatrix();
+
+        int modules = matrix.getWidth() + QUIET_ZONE * 2;
+        int width = modules * moduleSize;
+        int widthBytes = (width + 7) / 8;
+        byte[] bits = new byte[widthBytes * width];
+        for (int my = 0; my < matrix.getHeight(); my++) {
+            for (int mx = 0; mx < matrix.getWidth(); mx++) {
+                if (matrix.get(mx, my) != 1) {
+                    continue;
+                }
+                int x0 = (mx + QUIET_ZONE) * moduleSize;
+                int y0 = (my + QUIET_ZONE) * moduleSize;
+                for (int y = y0; y < y0 + moduleSize; y++) {
+                    int row = y * widthBytes;
+                    for (int x = x0; x < x0 + moduleSize; x++) {
+                        bits[row + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                    }
+                }
+            }
+        }
+        return new EscPosRaster(width, width, bits);
+    }
+
+    /**
+     * Leer el contenido de un QR a partir de su raster. null si no se encontró.
+     */
+    static String decode(EscPosRaster raster) {
+        int[] pixels = new int[raster.width * raster.height];
+        for (int y = 0; y < raster.height; y++) {
+            int row = y * raster.widthBytes;
+            for (int x = 0; x < raster.width; x++) {
+                boolean black = (raster.bits[row + (x >> 3)] & (0x80 >> (x & 7))) != 0;
+                pixels[y * raster.width + x] = black ? 0xFF000000 : 0xFFFFFFFF;
+            }
+        }
+
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        try {
+            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(new RGBLuminanceSource(raster.width, raster.height, pixels)));
+            Result result = new QRCodeReader().decode(bitmap, hints);
+            return result.getText();
+        } catch (ReaderException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sondear QR nativo: guardar un símbolo mínimo y pedir su información de tamaño
+     * (GS ( k fn 82). Las impresoras con QR responden "7" (0x37) ... NUL.
+     * @return true si respondió, false si no (se imprime como raster: ver
+     *         TcpPrinterPlugin.resolveQrSupport)
+     */
+    static boolean probe(Socket socket, int timeoutMs, int restoreTimeout) throws IOException {
+        InputStream input = socket.getInputStream();
+        OutputStream output = socket.getOutputStream();
+        while (input.available() > 0) {
+            input.read();
+        }
+
+        output.write(EscPos.QR_MODEL_2);
+        output.write(new byte[]{EscPos.GS, 0x28, 0x6B, 0x04, 0x00, 0x31, 0x50, 0x30, 0x30}); // guardar "0"
+        output.write(new byte[]{EscPos.GS, 0x28, 0x6B, 0x03, 0x00, 0x31, 0x52, 0x30});       // fn 82
+        output.flush();
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                socket.setSoTimeout((int) remaining);
+                int value = input.read();
+                if (value < 0) {
+                    throw new IOException("Printer closed the connection");
+                }
+                if (value == 0x37) {
+                    // Descartar el resto de la respuesta hasta NUL (ya respondió: un timeout acá no cambia nada)
+                    try {
+                        while (value > 0) {
+                            value = input.read();
+                        }
+                    } catch (SocketTimeoutException e) {
+                        // Respuesta sin NUL final
+                    }
+                    return true;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(restoreTimeout);
+        }
+    }
+
+    private static ErrorCorrectionLevel errorCorrectionLevel(String ec) {
+        switch (ec) {
+            case "L":
+                return ErrorCorrectionLevel.L;
+            case "Q":
+                return ErrorCorrectionLevel.Q;
+            case "H":
+                return ErrorCorrectionLevel.H;
+            default:
+                return ErrorCorrectionLevel.M;
+        }
+    }
+
+    private static int errorCorrectionByte(String ec) {
+        switch (ec) {
+            case "L":
+                return 48;
+            case "Q":
+                return 50;
+            case "H":
+                return 51;
+            default:
+                return 49; // M
+        }
+    }
+}
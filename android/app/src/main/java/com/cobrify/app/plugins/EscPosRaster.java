@@ -0,0 +1,259 @@
+package com.cobrify.app.plugins;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imagen monocromática lista para ESC/POS (GS v 0): 1 bit por punto, bit 1 = negro,
+ * filas de widthBytes bytes. Reemplaza al canvas + dithering + empaquetado que se
+ * hacía en JS en cada ticket (prepareLogoRasterForEscPos).
+ *
+ * La conversión a grises y el empaquetado por umbral se reparten en franjas de
+ * filas entre varios hilos. Floyd–Steinberg es secuencial (el error baja a la fila
+ * siguiente) pero trabaja sobre arreglos primitivos en una sola pasada.
+ */
+final class EscPosRaster {
+
+    static final String DITHER_FLOYD = "floyd";
+    static final String DITHER_THRESHOLD = "threshold";
+
+    private static final int MAX_HEIGHT = 800;   // igual que en JS: un logo más alto atasca el ticket
+    private static final int BAND_LINES = 128;   // filas por comando GS v 0 (buffers chicos)
+    private static final int PARALLEL_MIN_PIXELS = 64 * 1024;
+    private static final int THRESHOLD = 128;
+
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+        Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), runnable -> {
+            Thread thread = new Thread(runnable, "escpos-raster");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    final int width;
+    final int height;
+    final int widthBytes;
+    final byte[] bits;
+
+    EscPosRaster(int width, int height, byte[] bits) {
+        this.width = width;
+        this.height = height;
+        this.widthBytes = (width + 7) / 8;
+        this.bits = bits;
+    }
+
+    /**
+     * Modo de dithering pedido por JS (cualquier otro valor = Floyd–Steinberg)
+     */
+    static String ditherMode(String value) {
+        return DITHER_THRESHOLD.equals(value) ? DITHER_THRESHOLD : DITHER_FLOYD;
+    }
+
+    /**
+     * Ancho en puntos para un logo, igual que LOGO_SPECS en imageProcessingService.js
+     * @param scale porcentaje (30–150)
+     */
+    static int logoWidth(int paperWidth, int scale) {
+        int maxWidth = paperWidth >= 80 ? 576 : 192;
+        int paperDots = paperWidth >= 80 ? 576 : 384;
+        double pct = Math.max(30, Math.min(150, scale)) / 100.0;
+        return Math.max(32, Math.min(paperDots, (int) Math.round(maxWidth * pct)));
+    }
+
+    /**
+     * Decodificar una imagen (PNG/JPEG/WebP) y convertirla, sin agrandarla
+     * @param maxWidth ancho máximo en puntos
+     * @throws IllegalArgumentException si la imagen no se puede decodificar o es demasiado alta
+     */
+    static EscPosRaster decode(byte[] encoded, int maxWidth, String dither) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(encoded, 0, encoded.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IllegalArgumentException("Unsupported image");
+        }
+
+        // Submuestreo al decodificar: no tener en memoria un logo de 4000 px para dejarlo en 192
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = 1;
+        while (bounds.outWidth / (options.inSampleSize * 2) >= maxWidth) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap decoded = BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        if (decoded == null) {
+            throw new IllegalArgumentException("Unsupported image");
+        }
+
+        int width = Math.min(maxWidth, decoded.getWidth());
+        int height = Math.max(1, (int) ((long) decoded.getHeight() * width / decoded.getWidth()));
+        if (height > MAX_HEIGHT) {
+            decoded.recycle();
+            throw new IllegalArgumentException("Image is too tall");
+        }
+
+        Bitmap scaled = width == decoded.getWidth() ? decoded : Bitmap.createScaledBitmap(decoded, width, height, true);
+        try {
+            return fromBitmap(scaled, dither);
+        } finally {
+            if (scaled != decoded) {
+                scaled.recycle();
+            }
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * Convertir un Bitmap ya escalado
+     */
+    static EscPosRaster fromBitmap(Bitmap bitmap, String dither) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return fromPixels(pixels, width, height, dither);
+    }
+
+    static EscPosRaster fromPixels(int[] pixels, int width, int height, String dither) {
+        int widthBytes = (width + 7) / 8;
+        byte[] bits = new byte[widthBytes * height];
+
+        // ARGB -> gris (transparente = blanco), en el mismo arreglo
+        inBands(width, height, (from, to) -> {
+            for (int i = from * width; i < to * width; i++) {
+                int argb = pixels[i];
+                int alpha = argb >>> 24;
+                int gray = (((argb >> 16) & 0xFF) * 299 + ((argb >> 8) & 0xFF) * 587 + (argb & 0xFF) * 114) / 1000;
+                pixels[i] = (gray * alpha + 255 * (255 - alpha)) / 255;
+            }
+        });
+
+        if (DITHER_THRESHOLD.equals(dither)) {
+            inBands(width, height, (from, to) -> {
+                for (int y = from; y < to; y++) {
+                    int row = y * width;
+                    int rowBytes = y * widthBytes;
+                    for (int x = 0; x < width; x++) {
+                        if (pixels[row + x] < THRESHOLD) {
+                            bits[rowBytes + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                        }
+                    }
+                }
+            });
+        } else {
+            floydSteinberg(pixels, width, height, bits, widthBytes);
+        }
+        return new EscPosRaster(width, height, bits);
+    }
+
+    private static void floydSteinberg(int[] gray, int width, int height, byte[] bits, int widthBytes) {
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            boolean hasNext = y + 1 < height;
+            for (int x = 0; x < width; x++) {
+                int index = row + x;
+                int old = gray[index];
+                int value = old < THRESHOLD ? 0 : 255;
+                int error = old - value;
+                if (value == 0) {
+                    bits[y * widthBytes + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                }
+                if (x + 1 < width) {
+                    gray[index + 1] += error * 7 / 16;
+                }
+                if (hasNext) {
+                    if (x > 0) {
+                        gray[index + width - 1] += error * 3 / 16;
+                    }
+                    gray[index + width] += error * 5 / 16;
+                    if (x + 1 < width) {
+                        gray[index + width + 1] += error / 16;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bytes ESC/POS: un GS v 0 por cada franja de BAND_LINES filas
+     */
+    byte[] toEscPos() {
+        int bands = (height + BAND_LINES - 1) / BAND_LINES;
+        EscPosBuffer out = new EscPosBuffer(bits.length + bands * 8);
+        for (int y = 0; y < height; y += BAND_LINES) {
+            int lines = Math.min(BAND_LINES, height - y);
+            out.write(EscPos.GS).write(0x76).write(0x30).write(0x00)
+                .write(widthBytes & 0xFF).write((widthBytes >> 8) & 0xFF)
+                .write(lines & 0xFF).write((lines >> 8) & 0xFF);
+            out.write(bits, y * widthBytes, lines * widthBytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Formato del caché en disco: ancho (int), alto (int), bits
+     */
+    byte[] serialize() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + bits.length);
+        buffer.putInt(width).putInt(height).put(bits);
+        return buffer.array();
+    }
+
+    static EscPosRaster deserialize(byte[] data) {
+        if (data.length < 8) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        if (width <= 0 || height <= 0 || data.length != 8 + ((width + 7) / 8) * height) {
+            return null;
+        }
+        byte[] bits = new byte[data.length - 8];
+        buffer.get(bits);
+        return new EscPosRaster(width, height, bits);
+    }
+
+    private interface Band {
+        void run(int fromRow, int toRow);
+    }
+
+    /**
+     * Repartir filas en franjas entre los hilos (en línea si la imagen es chica)
+     */
+    private static void inBands(int width, int height, Band band) {
+        if ((long) width * height < PARALLEL_MIN_PIXELS) {
+            band.run(0, height);
+            return;
+        }
+        int parts = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        int rows = (height + parts - 1) / parts;
+        List<Callable<Void>> tasks = new ArrayList<>(parts);
+        for (int from = 0; from < height; from += rows) {
+            final int start = from;
+            final int end = Math.min(height, from + rows);
+            tasks.add(() -> {
+                band.run(start, end);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : WORKERS.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Raster conversion interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Raster conversion failed: " + e.getCause());
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import com.google.zxing.WriterException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Motor de plantillas de ticket: convierte una descripción compacta (JSON) en el
+ * buffer ESC/POS final, en nativo y fuera del hilo JS del WebView.
+ *
+ * Formato:
+ * <pre>
+ * {
+ *   "paperWidth": 58 | 80,          // 32 o 48 caracteres por línea (Font A)
+ *   "charsPerLine": 42,              // opcional, reemplaza al anterior
+ *   "cut": true, "feed": 3,          // corte final y líneas antes del corte
+ *   "codepage": "PC850",             // ASCII (default, tildes → letra base) | PC850 | PC858 | CP437 | WPC1252
+ *   "glyphs": true,                  // emoji/símbolos fuera de la página como imagen (GlyphAtlas)
+ *   "glyphFont": "sans",             // sans | serif | monospace
+ *   "lines": [
+ *     { "type": "text", "text": "...", "align": "left|center|right", "bold": true,
+ *       "underline": false, "size": "normal|wide|tall|double" },
+ *     { "type": "separator", "char": "-" },
+ *     { "type": "columns", "cols": [ { "text": "Item", "width": 20, "align": "left" },
+ *                                    { "text": "10.00", "align": "right" } ] },
+ *     { "type": "total", "label": "TOTAL", "value": "S/ 10.00", "bold": true, "size": "tall" },
+ *     { "type": "qr", "data": "..." | "url"/"image": QR como imagen, "size": 6, "ec": "M", "align": "center" },
+ *     { "type": "image", "url": "https://..." | "image": "base64", "scale": 100,
+ *       "width": 192, "dither": "floyd|threshold", "align": "center" },
+ *     { "type": "feed", "lines": 2 },
+ *     { "type": "raw", "data": "base64" },
+ *     { "type": "cut", "partial": false }
+ *   ]
+ * }
+ * </pre>
+ */
+final class EscPosTemplate {
+
+    private static final String TAG = "EscPosTemplate";
+
+    private static final int ALIGN_LEFT = 0;
+    private static final int ALIGN_CENTER = 1;
+    private static final int ALIGN_RIGHT = 2;
+
+    private final EscPosBuffer out;
+    private final int charsPerLine;
+    private final int paperWidth;
+    private final RasterCache images;
+    private final boolean nativeQr;
+    private final EscPosCodepage codepage;
+    private final GlyphAtlas glyphs;   // null = lo que no está en la página sale como '?'
+    private final String glyphFont;
+
+    // Estado actual de la impresora, para no repetir comandos
+    private int align = ALIGN_LEFT;
+    private boolean bold;
+    private boolean underline;
+    private byte[] mode = EscPos.MODE_NORMAL;
+
+    private EscPosTemplate(EscPosBuffer out, int charsPerLine, int paperWidth, RasterCache images, boolean nativeQr,
+                           EscPosCodepage codepage, GlyphAtlas glyphs, String glyphFont) {
+        this.out = out;
+        this.codepage = codepage;
+        this.glyphs = glyphs;
+        this.glyphFont = glyphFont;
+        this.charsPerLine = charsPerLine;
+        this.paperWidth = paperWidth;
+        this.images = images;
+        this.nativeQr = nativeQr;
+    }
+
+    /**
+     * Renderizar una plantilla completa a bytes ESC/POS
+     */
+    static byte[] render(JSONObject template) {
+        return render(template, null, true);
+    }
+
+    /**
+     * @param images caché de imágenes para las líneas "image" (null = convertir sin caché)
+     * @param nativeQr la impresora soporta GS ( k; si no, los QR van como raster
+     */
+    static byte[] render(JSONObject template, RasterCache images, boolean nativeQr) {
+        int paperWidth = template.optInt("paperWidth", 58);
+        int charsPerLine = template.optInt("charsPerLine", paperWidth >= 80 ? 48 : 32);
+        JSONArray lines = template.optJSONArray("lines");
+        EscPosCodepage codepage = EscPosCodepage.forName(template.optString("codepage", "ASCII"));
+        if (codepage == null) {
+            throw new IllegalArgumentException("Unsupported codepage: " + template.optString("codepage"));
+        }
+
+        EscPosTemplate renderer = new EscPosTemplate(new EscPosBuffer(estimateSize(lines, charsPerLine)), charsPerLine,
+            paperWidth, images, nativeQr, codepage,
+            template.optBoolean("glyphs", true) ? GlyphAtlas.get() : null,
+            GlyphAtlas.fontName(template.optString("glyphFont", GlyphAtlas.FONT_SANS)));
+        renderer.renderAll(template, lines);
+        return renderer.out.toByteArray();
+    }
+
+    /**
+     * Estimar el tamaño final para reservar el buffer una sola vez
+     */
+    private static int estimateSize(JSONArray lines, int charsPerLine) {
+        int estimate = 32;
+        if (lines == null) {
+            return estimate;
+        }
+        for (int i = 0; i < lines.length(); i++) {
+            JSONObject line = lines.optJSONObject(i);
+            if (line == null) {
+                continue;
+            }
+            estimate += charsPerLine + 16;
+            String type = line.optString("type", "text");
+            if ("qr".equals(type)) {
+                estimate += line.optString("data", "").length() + 32;
+            } else if ("raw".equals(type)) {
+                estimate += line.optString("data", "").length() * 3 / 4;
+            } else if ("text".equals(type)) {
+                estimate += line.optString("text", "").length();
+            }
+        }
+        return estimate;
+    }
+
+    private void renderAll(JSONObject template, JSONArray lines) {
+        if (template.optBoolean("init", true)) {
+            out.write(EscPos.INIT);
+        }
+        // ESC @ vuelve a la tabla configurada en la impresora: la del ticket se elige después, una vez
+        out.write(codepage.selectCommand());
+
+        if (lines != null) {
+            for (int i = 0; i < lines.length(); i++) {
+                JSONObject line = lines.optJSONObject(i);
+                if (line != null) {
+                    renderLine(line);
+                }
+            }
+        }
+
+        resetStyle();
+        if (template.optBoolean("cut", true)) {
+            feed(template.optInt("feed", 3));
+            out.write(EscPos.CUT);
+        }
+    }
+
+    private void renderLine(JSONObject line) {
+        String type = line.optString("type", "text");
+        switch (type) {
+            case "text":
+                applyStyle(line);
+                setAlign(parseAlign(line.optString("align", "left")));
+                for (String part : wrap(line.optString("text", ""), charsPerLine / widthFactor(line))) {
+                    writeText(part);
+                    out.write(EscPos.LF);
+                }
+                break;
+            case "separator":
+                resetStyle();
+                setAlign(ALIGN_LEFT);
+                String fill = line.optString("char", "-");
+                out.repeat(fill.isEmpty() ? '-' : codepage.encode(fill.charAt(0)), charsPerLine);
+                out.write(EscPos.LF);
+                break;
+            case "columns":
+                applyStyle(line);
+                setAlign(ALIGN_LEFT);
+                writeColumns(line.optJSONArray("cols"), charsPerLine / widthFactor(line));
+                break;
+            case "total":
+                applyStyle(line);
+                setAlign(ALIGN_LEFT);
+                writeTotal(line.optString("label", ""), line.optString("value", ""), charsPerLine / widthFactor(line));
+                break;
+            case "qr":
+                resetStyle();
+                setAlign(parseAlign(line.optString("align", "center")));
+                writeQr(line);
+                break;
+            case "image":
+                resetStyle();
+                setAlign(parseAlign(line.optString("align", "center")));
+                writeImage(line);
+                break;
+            case "feed":
+                feed(line.optInt("lines", 1));
+                break;
+            case "raw":
+                String data = line.optString("data", "");
+                if (!data.isEmpty()) {
+                    out.write(android.util.Base64.decode(data, android.util.Base64.DEFAULT));
+                }
+                break;
+            case "cut":
+                resetStyle();
+                out.write(line.optBoolean("partial", false) ? EscPos.CUT_PARTIAL : EscPos.CUT);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ==================== Estilos ====================
+
+    private void applyStyle(JSONObject line) {
+        setMode(modeFor(line.optString("size", "normal")));
+        setBold(line.optBoolean("bold", false));
+        setUnderline(line.optBoolean("underline", false));
+    }
+
+    private void resetStyle() {
+        setMode(EscPos.MODE_NORMAL);
+        setBold(false);
+        setUnderline(false);
+    }
+
+    private void setAlign(int value) {
+        if (align == value) {
+            return;
+        }
+        align = value;
+        out.write(value == ALIGN_CENTER ? EscPos.ALIGN_CENTER : value == ALIGN_RIGHT ? EscPos.ALIGN_RIGHT : EscPos.ALIGN_LEFT);
+    }
+
+    private void setBold(boolean value) {
+        if (bold == value) {
+            return;
+        }
+        bold = value;
+        out.write(value ? EscPos.BOLD_ON : EscPos.BOLD_OFF);
+    }
+
+    private void setUnderline(boolean value) {
+        if (underline == value) {
+            return;
+        }
+        underline = value;
+        out.write(value ? EscPos.UNDERLINE_ON : EscPos.UNDERLINE_OFF);
+    }
+
+    /**
+     * ESC ! también apaga negrita/subrayado en muchas impresoras, así que tras
+     * cambiar el modo se vuelven a aplicar si estaban activos.
+     */
+    private void setMode(byte[] value) {
+        if (mode == value) {
+            return;
+        }
+        mode = value;
+        out.write(value);
+        if (bold) {
+            out.write(EscPos.BOLD_ON);
+        }
+        if (underline) {
+            out.write(EscPos.UNDERLINE_ON);
+        }
+    }
+
+    private static byte[] modeFor(String size) {
+        switch (size) {
+            case "wide":
+                return EscPos.MODE_DOUBLE_WIDTH;
+            case "tall":
+                return EscPos.MODE_DOUBLE_HEIGHT;
+            case "double":
+                return EscPos.MODE_DOUBLE;
+            default:
+                return EscPos.MODE_NORMAL;
+        }
+    }
+
+    private static int widthFactor(JSONObject line) {
+        String size = line.optString("size", "normal");
+        return "wide".equals(size) || "double".equals(size) ? 2 : 1;
+    }
+
+    private static int parseAlign(String value) {
+        if ("center".equals(value)) {
+            return ALIGN_CENTER;
+        }
+        if ("right".equals(value)) {
+            return ALIGN_RIGHT;
+        }
+        return ALIGN_LEFT;
+    }
+
+    // ==================== Contenido ====================
+
+    private void writeColumns(JSONArray cols, int width) {
+        if (cols == null || cols.length() == 0) {
+            return;
+        }
+        int count = cols.length();
+        int[] widths = new int[count];
+        int fixed = 0;
+        int flexible = 0;
+        for (int i = 0; i < count; i++) {
+            JSONObject col = cols.optJSONObject(i);
+            widths[i] = col != null ? col.optInt("width", 0) : 0;
+            if (widths[i] > 0) {
+                fixed += widths[i];
+            } else {
+                flexible++;
+            }
+        }
+        if (flexible > 0) {
+            int remaining = Math.max(0, width - fixed);
+            for (int i = 0; i < count; i++) {
+                if (widths[i] <= 0) {
+                    widths[i] = Math.max(1, remaining / flexible);
+                    remaining -= widths[i];
+                    flexible--;
+                }
+            }
+        }
+
+        // Cada columna se parte en renglones; la fila ocupa tantos como la más alta
+        List<List<String>> cells = new ArrayList<>(count);
+        int rows = 1;
+        for (int i = 0; i < count; i++) {
+            JSONObject col = cols.optJSONObject(i);
+            List<String> wrapped = wrap(col != null ? col.optString("text", "") : "", widths[i]);
+            cells.add(wrapped);
+            rows = Math.max(rows, wrapped.size());
+        }
+
+        for (int row = 0; row < rows; row++) {
+            for (int i = 0; i < count; i++) {
+                JSONObject col = cols.optJSONObject(i);
+                List<String> wrapped = cells.get(i);
+                String text = row < wrapped.size() ? wrapped.get(row) : "";
+                writePadded(text, widths[i], parseAlign(col != null ? col.optString("align", "left") : "left"));
+            }
+            out.write(EscPos.LF);
+        }
+    }
+
+    private void writeTotal(String label, String value, int width) {
+        int gap = width - label.length() - value.length();
+        if (gap < 1) {
+            // No entra en una línea: etiqueta arriba, monto alineado a la derecha abajo
+            writeText(label);
+            out.write(EscPos.LF);
+            writePadded(value, width, ALIGN_RIGHT);
+        } else {
+            writeText(label);
+            out.repeat(' ', gap);
+            writeText(value);
+        }
+        out.write(EscPos.LF);
+    }
+
+    /**
+     * QR nativo (GS ( k) o raster si la impresora no lo soporta. Con image/url en vez
+     * de data, se decodifica el QR de la imagen y se vuelve a emitir como QR; si no
+     * se puede leer, se imprime la imagen tal cual.
+     */
+    private void writeQr(JSONObject line) {
+        String data = line.optString("data", "");
+        int size = line.optInt("size", 6);
+        String ec = line.optString("ec", "M");
+        try {
+            if (data.isEmpty()) {
+                EscPosRaster image = loadImage(line, EscPosRaster.DITHER_THRESHOLD);
+                if (image == null) {
+                    return;
+                }
+                data = EscPosQr.decode(image);
+                if (data == null) {
+                    out.write(image.toEscPos());
+                    return;
+                }
+            }
+            out.write(EscPosQr.render(data, size, ec, nativeQr));
+        } catch (IOException | IllegalArgumentException | WriterException e) {
+            Log.w(TAG, "Skipping QR: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Logo o imagen en GS v 0. Si la imagen falla se sigue sin ella: el ticket
+     * nunca se cae por la imagen (igual que en JS).
+     */
+    private void writeImage(JSONObject line) {
+        try {
+            EscPosRaster raster = loadImage(line, EscPosRaster.ditherMode(line.optString("dither", EscPosRaster.DITHER_FLOYD)));
+            if (raster != null) {
+                out.write(raster.toEscPos());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Skipping image: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Raster de la imagen de la línea (url o image en base64), null si no trae ninguna
+     */
+    private EscPosRaster loadImage(JSONObject line, String dither) throws IOException {
+        int width = line.optInt("width", EscPosRaster.logoWidth(paperWidth, line.optInt("scale", 100)));
+        String url = line.optString("url", "");
+        String image = line.optString("image", "");
+        if (!url.isEmpty() && images != null) {
+            return images.loadUrl(url, width, dither).raster;
+        }
+        if (image.isEmpty()) {
+            return null;
+        }
+        byte[] encoded = android.util.Base64.decode(stripDataUrl(image), android.util.Base64.DEFAULT);
+        return images != null ? images.load(encoded, width, dither).raster : EscPosRaster.decode(encoded, width, dither);
+    }
+
+    static String stripDataUrl(String image) {
+        int comma = image.startsWith("data:") ? image.indexOf(',') : -1;
+        return comma >= 0 ? image.substring(comma + 1) : image;
+    }
+
+    private void feed(int lines) {
+        if (lines <= 0) {
+            return;
+        }
+        out.write(EscPos.ESC).write(0x64).write(Math.min(lines, 255)); // ESC d n
+    }
+
+    private void writePadded(String text, int width, int alignment) {
+        String value = text.length() > width ? cut(text, width) : text;
+        int padding = width - value.length();
+        int left = alignment == ALIGN_RIGHT ? padding : alignment == ALIGN_CENTER ? padding / 2 : 0;
+        out.repeat(' ', left);
+        writeText(value);
+        out.repeat(' ', padding - left);
+    }
+
+    /**
+     * Primeros width chars sin partir un emoji (par de surrogates) a la mitad
+     */
+    private static String cut(String text, int width) {
+        int end = width > 1 && Character.isHighSurrogate(text.charAt(width - 1)) ? width - 1 : width;
+        return text.substring(0, end);
+    }
+
+    /**
+     * Partir texto en renglones de ancho fijo, cortando por palabras
+     */
+    static List<String> wrap(String text, int width) {
+        List<String> lines = new ArrayList<>();
+        if (width <= 0) {
+            lines.add(text);
+            return lines;
+        }
+        for (String paragraph : text.split("\n", -1)) {
+            StringBuilder current = new StringBuilder(width);
+            for (String word : paragraph.split(" ")) {
+                while (word.length() > width) {
+                    if (current.length() > 0) {
+                        lines.add(current.toString());
+                        current.setLength(0);
+                    }
+                    String head = cut(word, width);
+                    lines.add(head);
+                    word = word.substring(head.length());
+                }
+                if (current.length() > 0 && current.length() + 1 + word.length() > width) {
+                    lines.add(current.toString());
+                    current.setLength(0);
+                }
+                if (current.length() > 0) {
+                    current.append(' ');
+                }
+                current.append(word);
+            }
+            lines.add(current.toString());
+        }
+        return lines;
+    }
+
+    // ==================== Codificación ====================
+
+    private void writeText(String text) {
+        if (glyphs != null) {
+            glyphs.encode(text, codepage, glyphFont, out);
+        } else {
+            codepage.encode(text, out);
+        }
+    }
+}
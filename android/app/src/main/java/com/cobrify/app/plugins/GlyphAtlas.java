@@ -0,0 +1,184 @@
+package com.cobrify.app.plugins;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+/**
+ * Caracteres que ninguna página de la impresora tiene (emoji, símbolos, texto no
+ * latino) dibujados como imagen de 1 bit e intercalados en la misma línea con
+ * ESC * (modo 33: 24 puntos de alto, como la Font A). Sin esto salen como '?'.
+ *
+ * Cada glifo ocupa tantas celdas de 12 puntos como chars de Java (1 en el BMP, 2
+ * para emoji), así el ajuste de columnas y renglones por length() sigue cuadrando;
+ * un glifo más ancho se comprime horizontalmente para entrar en su celda.
+ *
+ * Los glifos se guardan ya en columnas de ESC * en un LRU acotado, con clave
+ * fuente + tamaño + code point. Una línea solo con caracteres de la página no
+ * pasa por acá: se codifica directo por tabla (EscPosCodepage).
+ */
+final class GlyphAtlas {
+
+    static final String FONT_SANS = "sans";
+    static final String FONT_SERIF = "serif";
+    static final String FONT_MONO = "monospace";
+
+    static final int CELL_WIDTH = 12;  // Font A
+    static final int HEIGHT = 24;      // una pasada de ESC * modo 33
+    private static final int MAX_BYTES = 256 * 1024;
+    private static final int THRESHOLD = 128;
+
+    private static GlyphAtlas instance;
+
+    private final LruCache<Long, byte[]> glyphs = new LruCache<Long, byte[]>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(Long key, byte[] value) {
+            return value.length + 32;
+        }
+    };
+
+    // Lienzo reutilizado para dibujar los glifos que faltan (se usa bajo el lock)
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private Bitmap canvasBitmap;
+    private Canvas canvas;
+    private int[] pixels;
+
+    private GlyphAtlas() {
+        paint.setColor(Color.BLACK);
+    }
+
+    static synchronized GlyphAtlas get() {
+        if (instance == null) {
+            instance = new GlyphAtlas();
+        }
+        return instance;
+    }
+
+    static String fontName(String value) {
+        return FONT_SERIF.equals(value) || FONT_MONO.equals(value) ? value : FONT_SANS;
+    }
+
+    /**
+     * Codificar el texto con la página; los tramos que la página no tiene van
+     * como imagen ESC * en la misma línea.
+     */
+    void encode(CharSequence text, EscPosCodepage codepage, String font, EscPosBuffer out) {
+        int start = codepage.firstUnencodable(text, 0);
+        if (start < 0) {
+            codepage.encode(text, out);
+            return;
+        }
+
+        int length = text.length();
+        int from = 0;
+        while (start >= 0) {
+            if (start > from) {
+                codepage.encode(text.subSequence(from, start), out);
+            }
+            int end = codepage.nextEncodable(text, start);
+            writeRun(text, start, end, font, out);
+            from = end;
+            start = from < length ? codepage.firstUnencodable(text, from) : -1;
+        }
+        if (from < length) {
+            codepage.encode(text.subSequence(from, length), out);
+        }
+    }
+
+    /**
+     * Un tramo de glifos como un solo comando ESC * 33 nL nH + columnas
+     */
+    private void writeRun(CharSequence text, int start, int end, String font, EscPosBuffer out) {
+        byte[][] run = new byte[end - start][];
+        int columns = 0;
+        int count = 0;
+        for (int i = start; i < end; ) {
+            int codePoint = Character.codePointAt(text, i);
+            int chars = Character.charCount(codePoint);
+            byte[] glyph = glyph(font, HEIGHT, codePoint, chars);
+            run[count++] = glyph;
+            columns += glyph.length / 3;
+            i += chars;
+        }
+        out.write(EscPos.ESC).write(0x2A).write(33).write(columns & 0xFF).write((columns >> 8) & 0xFF);
+        for (int i = 0; i < count; i++) {
+            out.write(run[i]);
+        }
+    }
+
+    private byte[] glyph(String font, int size, int codePoint, int cells) {
+        long key = ((long) font.hashCode() << 32) ^ ((long) size << 24) ^ codePoint;
+        byte[] glyph = glyphs.get(key);
+        if (glyph == null) {
+            synchronized (this) {
+                glyph = glyphs.get(key);
+                if (glyph == null) {
+                    glyph = draw(font, size, codePoint, cells * CELL_WIDTH);
+                    glyphs.put(key, glyph);
+                }
+            }
+        }
+        return glyph;
+    }
+
+    /**
+     * Dibujar el glifo en una celda width × HEIGHT y pasarlo a columnas de ESC *
+     * (3 bytes por columna, bit alto = punto de arriba)
+     */
+    private byte[] draw(String font, int size, int codePoint, int width) {
+        if (canvasBitmap == null || canvasBitmap.getWidth() < width) {
+            if (canvasBitmap != null) {
+                canvasBitmap.recycle();
+            }
+            canvasBitmap = Bitmap.createBitmap(Math.max(width, CELL_WIDTH * 2), HEIGHT, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(canvasBitmap);
+            pixels = new int[canvasBitmap.getWidth() * HEIGHT];
+        }
+
+        String glyph = new String(Character.toChars(codePoint));
+        paint.setTypeface(typeface(font));
+        paint.setTextSize(size * 0.85f);
+        paint.setTextScaleX(1f);
+        float measured = paint.measureText(glyph);
+        if (measured > width) {
+            paint.setTextScaleX(width / measured);
+            measured = width;
+        }
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        float baseline = (HEIGHT - (metrics.descent - metrics.ascent)) / 2f - metrics.ascent;
+
+        canvas.drawColor(Color.WHITE);
+        canvas.drawText(glyph, (width - measured) / 2f, baseline, paint);
+        int stride = canvasBitmap.getWidth();
+        canvasBitmap.getPixels(pixels, 0, stride, 0, 0, stride, HEIGHT);
+
+        byte[] columns = new byte[width * 3];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                int argb = pixels[y * stride + x];
+                int gray = (((argb >> 16) & 0xFF) * 299 + ((argb >> 8) & 0xFF) * 587 + (argb & 0xFF) * 114) / 1000;
+                if (gray < THRESHOLD) {
+                    columns[x * 3 + (y >> 3)] |= (byte) (0x80 >> (y & 7));
+                }
+            }
+        }
+        return columns;
+    }
+
+    private static Typeface typeface(String font) {
+        if (FONT_SERIF.equals(font)) {
+            return Typeface.SERIF;
+        }
+        if (FONT_MONO.equals(font)) {
+            return Typeface.MONOSPACE;
+        }
+        return Typeface.SANS_SERIF;
+    }
+
+    void clear() {
+        glyphs.evictAll();
+    }
+}
@@ -0,0 +1,520 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ciclo de vida de los trabajos de la impresora interna iMin.
+ *
+ * sendRAWData vuelve apenas el servicio encola los bytes, no cuando sale el
+ * papel. Cada trabajo recibe un ID y pasa por queued → printing → done | error
+ * (eventos printJob):
+ *
+ * - V2: cada transacción AIDL lleva un INeoPrinterCallback; cuando respondieron
+ *   todas se consulta getPrinterStatus una vez (papel, tapa) y el trabajo termina.
+ *   Si los callbacks no llegan (servicios viejos) se cae al sondeo de V1.
+ * - V1 (sin callbacks): se estima la duración por líneas y bytes y, vencida la
+ *   estimación, se sondea el estado cada POLL_INTERVAL_MS hasta que esté normal.
+ *   La estimación se corrige con lo medido en V2 (speedFactor, EWMA).
+ * - A lo sumo maxInFlight trabajos entre enviados e impresos: el siguiente
+ *   espera su lugar en la cola del tracker (acquire) en vez de llenar la cola
+ *   del servicio, y recién con lugar pasa al executor del plugin, que sigue
+ *   libre para connect, getStatus o el spool. Con 2 hay uno imprimiendo y el
+ *   siguiente ya transferido.
+ *
+ * Códigos de estado del SDK: 0 normal, 8 poco papel (imprime igual), 3 tapa
+ * abierta, 7 sin papel, -1 / 1 sin conexión, otro = error.
+ */
+final class IminJobTracker {
+
+    private static final String TAG = "IminJobTracker";
+    static final String STATE_QUEUED = "queued";
+    static final String STATE_PRINTING = "printing";
+    static final String STATE_DONE = "done";
+    static final String STATE_ERROR = "error";
+    static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    private static final long SLOT_TIMEOUT_MS = 30000;
+    private static final long POLL_INTERVAL_MS = 250;
+    private static final long CALLBACK_GRACE_MS = 1000;
+    private static final long GIVE_UP_MS = 10000; // sobre la estimación, sin estado normal
+    private static final long MIN_ESTIMATE_MS = 200;
+    private static final long MS_PER_LINE = 40;    // ~3,75 mm por línea de texto a ~90 mm/s
+    private static final long BYTES_PER_MS = 30;   // raster de 58 mm: 48 bytes por fila
+    private static final double ALPHA = 0.2;
+
+    private static final int STATUS_NORMAL = 0;
+    private static final int STATUS_NOT_CONNECTED = 1;
+    private static final int STATUS_COVER_OPEN = 3;
+    private static final int STATUS_PAPER_OUT = 7;
+    private static final int STATUS_PAPER_LOW = 8;
+    private static final int STATUS_UNKNOWN = -1;
+
+    interface Listener {
+        void onJobEvent(JSObject event);
+    }
+
+    interface StatusSource {
+        /** Estado del SDK; -1 si no se pudo consultar */
+        int status();
+    }
+
+    interface Completion {
+        void onFinished(Job job);
+    }
+
+    static final class Job {
+        final long id;
+        final String documentId;
+        final long createdAt;
+        private final Completion completion;
+        // Bajo el lock del trabajo
+        private String state = STATE_QUEUED;
+        private long bytes;
+        private long lines;
+        private long startedAt;
+        private long sentAt;
+        private long estimateMs;
+        private int pendingCallbacks;
+        private boolean callbacks;
+        private boolean sent;
+        private boolean transmitted;
+        private String code;
+        private String error;
+        private boolean paperLow;
+
+        private Job(long id, String documentId, Completion completion) {
+            this.id = id;
+            this.documentId = documentId;
+            this.completion = completion;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        synchronized boolean isDone() {
+            return STATE_DONE.equals(state);
+        }
+
+        synchronized String code() {
+            return code;
+        }
+
+        synchronized String error() {
+            return error;
+        }
+
+        /**
+         * ¿Empezó a escribirse? Desde ahí un error puede dejar el ticket impreso
+         */
+        synchronized boolean started() {
+            return startedAt > 0;
+        }
+
+        /**
+         * ¿Alguna transacción del trabajo llegó al SDK? Desde ahí pudo salir papel
+         */
+        synchronized boolean transmitted() {
+            return transmitted;
+        }
+    }
+
+    private final StatusSource statusSource;
+    private final Listener listener;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong ids = new AtomicLong();
+    private final Object slots = new Object();
+    private int inFlight; // bajo slots
+    private final ArrayDeque<Runnable> waiting = new ArrayDeque<>(); // bajo slots, esperando lugar
+    private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private volatile Job current; // trabajo que el executor está escribiendo
+    private volatile double speedFactor = 1.0;
+
+    IminJobTracker(StatusSource statusSource, Listener listener) {
+        this.statusSource = statusSource;
+        this.listener = listener;
+    }
+
+    void configure(Integer maxInFlight) {
+        if (maxInFlight != null) {
+            this.maxInFlight = Math.max(1, maxInFlight);
+            runAll(grantWaiting());
+        }
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    int getInFlight() {
+        synchronized (slots) {
+            return inFlight;
+        }
+    }
+
+    int getWaiting() {
+        synchronized (slots) {
+            return waiting.size();
+        }
+    }
+
+    double getSpeedFactor() {
+        return speedFactor;
+    }
+
+    /**
+     * Registrar un trabajo nuevo (evento queued)
+     * @param completion se llama al terminar (done o error); puede ser null
+     */
+    Job create(String documentId, Completion completion) {
+        Job job = new Job(ids.incrementAndGet(), documentId, completion);
+        emit(job);
+        return job;
+    }
+
+    /**
+     * Reservar lugar en la impresora sin bloquear: task corre apenas hay lugar (ya
+     * mismo, o desde el hilo que libera uno) y debe usarlo con start(job, true) o
+     * devolverlo con release(). Pasado SLOT_TIMEOUT_MS corre igual.
+     */
+    void acquire(Runnable task) {
+        boolean granted;
+        synchronized (slots) {
+            granted = inFlight < maxInFlight && waiting.isEmpty();
+            if (granted) {
+                inFlight++;
+            } else {
+                waiting.add(task);
+            }
+        }
+        if (granted) {
+            task.run();
+            return;
+        }
+        try {
+            poller.schedule(() -> expire(task), SLOT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Tracker apagado (plugin destruido)
+        }
+    }
+
+    /**
+     * Devolver un lugar reservado que no se usó (el trabajo falló antes de start)
+     */
+    void release() {
+        List<Runnable> ready;
+        synchronized (slots) {
+            inFlight--;
+            ready = grantWaiting();
+        }
+        runAll(ready);
+    }
+
+    /**
+     * Marcar el trabajo como printing. Se llama desde el executor, antes de escribir los bytes.
+     * @param reserved el lugar ya se reservó con acquire; si no, se ocupa uno igual (sin esperar)
+     */
+    void start(Job job, boolean reserved) {
+        if (!reserved) {
+            synchronized (slots) {
+                inFlight++;
+            }
+        }
+        synchronized (job) {
+            job.state = STATE_PRINTING;
+            job.startedAt = System.currentTimeMillis();
+        }
+        current = job;
+        emit(job);
+    }
+
+    Job current() {
+        return current;
+    }
+
+    /**
+     * Bytes escritos para el trabajo en curso (para estimar cuánto tarda)
+     */
+    void account(byte[] data) {
+        Job job = current;
+        if (job == null) {
+            return;
+        }
+        long lines = 0;
+        for (byte b : data) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        synchronized (job) {
+            job.bytes += data.length;
+            job.lines += lines;
+        }
+    }
+
+    /**
+     * Una transacción (V1 o V2) del trabajo está por llegar al SDK
+     */
+    void transmitting(Job job) {
+        synchronized (job) {
+            job.transmitted = true;
+        }
+    }
+
+    /**
+     * Una transacción V2 salió con callback
+     */
+    void transactionSent(Job job) {
+        synchronized (job) {
+            job.callbacks = true;
+            job.pendingCallbacks++;
+        }
+    }
+
+    /**
+     * Respuesta del servicio V2 a una transacción (hilo binder)
+     */
+    void transactionDone(Job job, boolean ok, String error) {
+        boolean confirm;
+        synchronized (job) {
+            if (isFinished(job)) {
+                return;
+            }
+            job.pendingCallbacks--;
+            confirm = ok && job.sent && job.pendingCallbacks == 0;
+        }
+        if (!ok) {
+            fail(job, "PRINTER_ERROR", error != null ? error : "Printer service reported a failure");
+        } else if (confirm) {
+            schedulePoll(job, 0);
+        }
+    }
+
+    /**
+     * Todos los bytes del trabajo salieron (después del flush)
+     */
+    void sent(Job job) {
+        long estimate;
+        boolean confirm;
+        boolean callbacks;
+        synchronized (job) {
+            if (current == job) {
+                current = null;
+            }
+            if (isFinished(job)) {
+                return;
+            }
+            job.sent = true;
+            job.sentAt = System.currentTimeMillis();
+            job.estimateMs = estimate = estimate(job.bytes, job.lines);
+            callbacks = job.callbacks;
+            confirm = callbacks && job.pendingCallbacks == 0;
+        }
+        if (confirm) {
+            schedulePoll(job, 0);
+        } else if (callbacks) {
+            // Respaldo por si el servicio no llama a los callbacks
+            schedulePoll(job, estimate + CALLBACK_GRACE_MS);
+        } else {
+            schedulePoll(job, estimate);
+        }
+    }
+
+    /**
+     * El trabajo falló (al escribir, por el callback o por el estado)
+     */
+    void fail(Job job, String code, String error) {
+        synchronized (job) {
+            if (current == job) {
+                current = null;
+            }
+            if (isFinished(job)) {
+                return;
+            }
+            job.code = code;
+            job.error = error;
+        }
+        finish(job, STATE_ERROR);
+    }
+
+    void shutdown() {
+        poller.shutdownNow();
+    }
+
+    private void schedulePoll(Job job, long delayMs) {
+        try {
+            poller.schedule(() -> poll(job), delayMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Tracker apagado (plugin destruido)
+        }
+    }
+
+    /**
+     * Consultar el estado: normal = impreso, tapa / papel = error, sin respuesta = volver a sondear
+     */
+    private void poll(Job job) {
+        long deadline;
+        synchronized (job) {
+            if (isFinished(job)) {
+                return;
+            }
+            deadline = job.sentAt + job.estimateMs + GIVE_UP_MS;
+        }
+        int status = statusSource.status();
+        switch (status) {
+            case STATUS_NORMAL:
+            case STATUS_PAPER_LOW:
+                synchronized (job) {
+                    job.paperLow = status == STATUS_PAPER_LOW;
+                }
+                finish(job, STATE_DONE);
+                return;
+            case STATUS_COVER_OPEN:
+                fail(job, "COVER_OPEN", "Printer cover is open");
+                return;
+            case STATUS_PAPER_OUT:
+                fail(job, "PAPER_OUT", "Printer is out of paper");
+                return;
+            default:
+                if (System.currentTimeMillis() >= deadline) {
+                    boolean offline = status == STATUS_UNKNOWN || status == STATUS_NOT_CONNECTED;
+                    fail(job, offline ? "PRINTER_OFFLINE" : "PRINTER_ERROR",
+                        "Printer did not report ready (status " + status + ")");
+                } else {
+                    schedulePoll(job, POLL_INTERVAL_MS);
+                }
+        }
+    }
+
+    private void finish(Job job, String state) {
+        boolean started;
+        boolean measured;
+        long elapsed;
+        long estimate;
+        synchronized (job) {
+            if (isFinished(job)) {
+                return;
+            }
+            started = job.startedAt > 0;
+            job.state = state;
+            elapsed = started ? System.currentTimeMillis() - job.startedAt : 0;
+            estimate = job.estimateMs;
+            // Solo lo confirmado por callbacks mide la velocidad real (el sondeo termina en la estimación)
+            measured = STATE_DONE.equals(state) && job.callbacks && job.pendingCallbacks == 0 && estimate > 0;
+        }
+        if (measured) {
+            double ratio = Math.max(0.25, Math.min(4.0, (double) elapsed / estimate * speedFactor));
+            speedFactor = (1 - ALPHA) * speedFactor + ALPHA * ratio;
+        }
+        if (started) {
+            release();
+        }
+        emit(job);
+        if (job.completion != null) {
+            try {
+                job.completion.onFinished(job);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Completion for job " + job.id + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void expire(Runnable task) {
+        synchronized (slots) {
+            if (!waiting.remove(task)) {
+                return;
+            }
+            inFlight++;
+        }
+        // Un trabajo que nunca terminó no debe trabar la impresora para siempre
+        Log.w(TAG, "No printer slot after " + SLOT_TIMEOUT_MS + " ms, sending job anyway");
+        run(task);
+    }
+
+    /**
+     * Sacar de la cola los que entran ahora (bajo slots); se corren fuera del lock
+     */
+    private List<Runnable> grantWaiting() {
+        synchronized (slots) {
+            List<Runnable> ready = null;
+            while (inFlight < maxInFlight && !waiting.isEmpty()) {
+                if (ready == null) {
+                    ready = new ArrayList<>();
+                }
+                inFlight++;
+                ready.add(waiting.poll());
+            }
+            return ready;
+        }
+    }
+
+    private void runAll(List<Runnable> ready) {
+        if (ready != null) {
+            for (Runnable task : ready) {
+                run(task);
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // p. ej. el executor del plugin ya se apagó
+            Log.e(TAG, "Could not start job: " + e.getMessage());
+        }
+    }
+
+    private long estimate(long bytes, long lines) {
+        long raw = lines * MS_PER_LINE + bytes / BYTES_PER_MS;
+        return Math.max(MIN_ESTIMATE_MS, Math.round(raw * speedFactor));
+    }
+
+    private static boolean isFinished(Job job) {
+        return STATE_DONE.equals(job.state) || STATE_ERROR.equals(job.state);
+    }
+
+    private void emit(Job job) {
+        JSObject event = describe(job);
+        try {
+            listener.onJobEvent(event);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Job listener failed: " + e.getMessage());
+        }
+    }
+
+    static JSObject describe(Job job) {
+        JSObject event = new JSObject();
+        synchronized (job) {
+            event.put("printJobId", job.id);
+            if (job.documentId != null) {
+                event.put("documentId", job.documentId);
+            }
+            event.put("state", job.state);
+            event.put("bytes", job.bytes);
+            if (job.startedAt > 0) {
+                event.put("waitMs", job.startedAt - job.createdAt);
+            }
+            if (job.estimateMs > 0) {
+                event.put("estimateMs", job.estimateMs);
+            }
+            if (isFinished(job) && job.startedAt > 0) {
+                event.put("elapsedMs", System.currentTimeMillis() - job.startedAt);
+            }
+            if (job.paperLow) {
+                event.put("paperLow", true);
+            }
+            if (job.error != null) {
+                event.put("code", job.code);
+                event.put("error", job.error);
+            }
+        }
+        return event;
+    }
+}
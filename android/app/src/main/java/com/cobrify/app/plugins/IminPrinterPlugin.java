@@ -14,8 +14,15 @@ import com.imin.printerlib.IminPrintUtils;
 import com.imin.printerlib.IminPrintUtils.PrintConnectType;
 
 // V2 SDK (Swan 2, Falcon 2, etc. - Android 13+)
+import com.imin.printer.INeoPrinterCallback;
 import com.imin.printer.PrinterHelper;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -28,19 +35,142 @@ public class IminPrinterPlugin extends Plugin {
 
     private static final String TAG = "IminPrinterPlugin";
     private static final int V2_MIN_API = 32; // Android 12L / 13+
+    private static final String SPOOL_TARGET = "internal";
+    private static final int MAX_COPIES = 10;
+    // Vinculación del servicio V2: sondeo con backoff hasta el deadline
+    private static final long BIND_DEADLINE_MS = 8000;
+    private static final long BIND_POLL_MIN_MS = 25;
+    private static final long BIND_POLL_MAX_MS = 250;
+    private static final int STATUS_SERVICE_UNBOUND = -1;
 
     // V1
     private IminPrintUtils printUtilsV1;
     // V2 usa PrinterHelper.getInstance() (singleton)
 
-    private boolean isConnected = false;
+    private volatile boolean isConnected = false;
     private boolean useV2 = false;
     private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile PrintSpool spool;
+    // idempotencyKey → resultado del trabajo original (reintentos de JS no reimprimen)
+    private final PrintIdempotency idempotency = new PrintIdempotency();
+    // Junta los bytes de cada trabajo en pocas transacciones AIDL (solo desde el executor)
+    private final IminWriteBuffer output = new IminWriteBuffer(this::sendTransaction);
+    // La tarea en curso del executor trae un lugar reservado en jobs (ver executeTracked)
+    private boolean slotReserved;
+    // Ciclo de vida de cada trabajo hasta que sale el papel (eventos printJob)
+    private final IminJobTracker jobs = new IminJobTracker(this::printerStatus,
+        event -> notifyListeners("printJob", event));
+    // Trabajos recuperados del spool que esperan a que la impresora se conecte
+    private final List<PrintSpool.Job> recoveredJobs = new ArrayList<>();
+    // Latencia medida de la última vinculación del servicio V2 (-1 = sin medir)
+    private volatile long bindMs = -1;
+    // true si la impresora quedó lista desde load(), antes del primer connect
+    private volatile boolean prewarmed = false;
+    // Impresora interna como backend de PrintRouter (respaldo de las de red)
+    private final PrintBackend routerBackend = new RouterBackend();
+
+    @Override
+    public void load() {
+        super.load();
+        PrintRouter.get().register(routerBackend);
+        spool = new PrintSpool(new File(getContext().getFilesDir(), TcpPrinterPlugin.SPOOL_DIR), "imin",
+            PrintSpool.DEFAULT_MAX_ATTEMPTS, job -> executeTracked(() -> attemptSpooled(job, true)));
+
+        // Vincular el servicio V2 en segundo plano para que esté listo antes de la primera venta.
+        // Va antes de la recuperación del spool (mismo executor): si vincula, lo pendiente sale al instante.
+        if (shouldUseV2() && isIminHardware()) {
+            executor.execute(this::prewarm);
+        }
+
+        executor.execute(() -> {
+            List<PrintSpool.Job> jobs = spool.recover();
+            if (isConnected) {
+                for (PrintSpool.Job job : jobs) {
+                    executeTracked(() -> attemptSpooled(job, true));
+                }
+            } else {
+                recoveredJobs.addAll(jobs);
+            }
+        });
+    }
 
     private boolean shouldUseV2() {
         return Build.VERSION.SDK_INT >= V2_MIN_API;
     }
 
+    private static boolean isIminHardware() {
+        String manufacturer = Build.MANUFACTURER != null ? Build.MANUFACTURER.toLowerCase() : "";
+        String brand = Build.BRAND != null ? Build.BRAND.toLowerCase() : "";
+        String model = Build.MODEL != null ? Build.MODEL.toLowerCase() : "";
+        return manufacturer.contains("imin") || brand.contains("imin") || model.contains("imin");
+    }
+
+    /**
+     * Vincular el servicio de impresión V2 y esperar a que responda.
+     *
+     * initPrinterService solo pide el bind del servicio AIDL; hasta que se conecta,
+     * getPrinterStatus devuelve -1 (o lanza). En vez de esperar un tiempo fijo se
+     * sondea con backoff (25 ms → 250 ms) hasta que responda o venza el deadline:
+     * un servicio listo cuesta decenas de ms y un Swan 2 recién encendido tiene hasta 8 s.
+     */
+    private void bindV2() throws InterruptedException {
+        PrinterHelper helper = PrinterHelper.getInstance();
+        long start = System.nanoTime();
+        long deadline = start + BIND_DEADLINE_MS * 1000000L;
+
+        helper.initPrinterService(getContext());
+        Log.d(TAG, "initPrinterService OK, waiting for service...");
+
+        long pollMs = BIND_POLL_MIN_MS;
+        String lastError = null;
+        while (true) {
+            try {
+                int status = helper.getPrinterStatus(null);
+                if (status != STATUS_SERVICE_UNBOUND) {
+                    break;
+                }
+            } catch (RuntimeException e) {
+                lastError = e.getMessage();
+            }
+            if (System.nanoTime() + pollMs * 1000000L > deadline) {
+                throw new IllegalStateException("iMin printer service did not bind within "
+                    + BIND_DEADLINE_MS + " ms" + (lastError != null ? ": " + lastError : ""));
+            }
+            Thread.sleep(pollMs);
+            pollMs = Math.min(BIND_POLL_MAX_MS, pollMs * 2);
+        }
+
+        helper.initPrinter(getContext().getPackageName(), null);
+        bindMs = (System.nanoTime() - start) / 1000000L;
+        Log.d(TAG, "V2 printer service bound in " + bindMs + " ms");
+    }
+
+    /**
+     * Vinculación anticipada desde load(); si falla, connect() lo vuelve a intentar
+     */
+    private void prewarm() {
+        if (isConnected) {
+            return;
+        }
+        try {
+            useV2 = true;
+            bindV2();
+            isConnected = true;
+            prewarmed = true;
+
+            JSObject event = new JSObject();
+            event.put("sdkVersion", "v2");
+            event.put("bindMs", bindMs);
+            event.put("prewarmed", true);
+            notifyListeners("printerReady", event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // NoClassDefFoundError / UnsatisfiedLinkError incluidos: el connect explícito informa el error
+            Log.w(TAG, "Prewarm failed: " + e.getMessage());
+        }
+    }
+
     /**
      * Detectar si el dispositivo actual es un dispositivo iMin
      */
@@ -50,7 +180,7 @@ public class IminPrinterPlugin extends Plugin {
         String brand = Build.BRAND != null ? Build.BRAND.toLowerCase() : "";
         String model = Build.MODEL != null ? Build.MODEL.toLowerCase() : "";
 
-        boolean isImin = manufacturer.contains("imin") || brand.contains("imin") || model.contains("imin");
+        boolean isImin = isIminHardware();
 
         Log.d(TAG, "Device check - Manufacturer: " + manufacturer + ", Brand: " + brand + ", Model: " + model + ", isImin: " + isImin + ", SDK: " + Build.VERSION.SDK_INT + ", useV2: " + shouldUseV2());
 
@@ -73,19 +203,17 @@ public class IminPrinterPlugin extends Plugin {
                 Log.d(TAG, "Initializing iMin internal printer...");
                 Log.d(TAG, "Device: " + Build.MANUFACTURER + " / " + Build.MODEL + " / API " + Build.VERSION.SDK_INT);
 
-                if (shouldUseV2()) {
+                if (shouldUseV2() && isConnected && useV2) {
+                    // Ya vinculada (prewarm desde load() o connect anterior)
+                    Log.d(TAG, "V2 printer already bound (" + bindMs + " ms)");
+
+                } else if (shouldUseV2()) {
                     // V2 SDK: Swan 2, Falcon 2, etc.
                     Log.d(TAG, "Using V2 SDK (PrinterHelper)...");
                     useV2 = true;
+                    prewarmed = false;
 
-                    PrinterHelper.getInstance().initPrinterService(getContext());
-                    Log.d(TAG, "initPrinterService OK");
-
-                    // Esperar a que el servicio AIDL se vincule
-                    Thread.sleep(1500);
-
-                    PrinterHelper.getInstance().initPrinter(getContext().getPackageName(), null);
-                    Log.d(TAG, "initPrinter OK");
+                    bindV2();
 
                     isConnected = true;
                     Log.d(TAG, "V2 printer initialized successfully");
@@ -109,8 +237,18 @@ public class IminPrinterPlugin extends Plugin {
                 result.put("success", true);
                 result.put("type", "internal");
                 result.put("sdkVersion", useV2 ? "v2" : "v1");
+                if (useV2) {
+                    result.put("bindMs", bindMs);
+                    result.put("prewarmed", prewarmed);
+                }
                 call.resolve(result);
 
+                // Imprimir lo que quedó pendiente de la sesión anterior
+                for (PrintSpool.Job job : recoveredJobs) {
+                    executeTracked(() -> attemptSpooled(job, true));
+                }
+                recoveredJobs.clear();
+
             } catch (NoClassDefFoundError e) {
                 String msg = "SDK iMin no disponible: " + e.getMessage();
                 Log.e(TAG, msg, e);
@@ -173,6 +311,10 @@ public class IminPrinterPlugin extends Plugin {
         result.put("connected", isConnected);
         result.put("type", "internal");
         result.put("sdkVersion", useV2 ? "v2" : "v1");
+        if (useV2 && bindMs >= 0) {
+            result.put("bindMs", bindMs);
+            result.put("prewarmed", prewarmed);
+        }
         call.resolve(result);
     }
 
@@ -197,14 +339,12 @@ public class IminPrinterPlugin extends Plugin {
             try {
                 byte[] data = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
 
-                if (useV2) {
-                    PrinterHelper.getInstance().sendRAWData(data, null);
-                } else if (printUtilsV1 != null) {
-                    printUtilsV1.sendRAWData(data);
-                } else {
+                if (!useV2 && printUtilsV1 == null) {
                     call.reject("Printer not initialized");
                     return;
                 }
+                output.write(data);
+                output.flush();
 
                 JSObject result = new JSObject();
                 result.put("success", true);
@@ -238,7 +378,8 @@ public class IminPrinterPlugin extends Plugin {
         executor.execute(() -> {
             try {
                 if (useV2) {
-                    PrinterHelper.getInstance().sendRAWData(text.getBytes("UTF-8"), null);
+                    output.write(text);
+                    output.flush();
                     PrinterHelper.getInstance().printAndFeedPaper(60);
                 } else if (printUtilsV1 != null) {
                     printUtilsV1.printText(text, 0);
@@ -262,10 +403,22 @@ public class IminPrinterPlugin extends Plugin {
     /**
      * Imprimir con comandos ESC/POS completos (base64)
      * Método principal - recibe los mismos bytes ESC/POS que WiFi/BT
+     * Con spool=true el trabajo se anota en el spool persistente y, si falla, se
+     * reintenta en segundo plano (eventos spoolJobDone / spoolJobFailed).
+     * Con optimize=true el stream pasa antes por EscPosOptimizer (bytesSaved en el resultado).
+     * Con documentId los bytes quedan en ReprintCache para reprint.
+     * Con copies el base64 se decodifica una sola vez y las copias van seguidas, con
+     * corte entre ellas; copyMarker / copyLabel marcan las copias (ver EscPosCopies).
+     * Con idempotencyKey un reintento con la misma clave no reimprime (ver PrintIdempotency).
+     * El resultado trae printJobId (eventos printJob, ver IminJobTracker); con
+     * waitForCompletion=true se resuelve recién cuando la impresora terminó el trabajo.
      */
     @PluginMethod
     public void print(PluginCall call) {
         String base64Data = call.getString("data");
+        boolean useSpool = call.getBoolean("spool", false);
+        boolean optimize = call.getBoolean("optimize", false);
+        String documentId = call.getString("documentId");
 
         if (base64Data == null || base64Data.isEmpty()) {
             call.reject("Print data is required");
@@ -277,31 +430,528 @@ public class IminPrinterPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        if (!idempotency.begin(call)) {
+            return;
+        }
+
+        IminJobTracker.Completion completion = completionFor(call);
+        IminJobTracker.Job job = jobs.create(documentId, completion);
+
+        executeTracked(idempotency.guard(call, () -> {
+            byte[] decoded;
+            byte[] data;
             try {
-                byte[] data = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
+                decoded = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
+                // Menos bytes por el AIDL = ticket más rápido
+                data = optimize ? EscPosOptimizer.optimize(decoded) : decoded;
+            } catch (IllegalArgumentException e) {
+                jobs.fail(job, null, e.getMessage());
+                if (completion == null) {
+                    idempotency.reject(call, "Failed to print: " + e.getMessage());
+                }
+                return;
+            }
+            rememberJob(documentId, data);
+            EscPosCopies copies = EscPosCopies.of(data, Math.max(1, Math.min(call.getInt("copies", 1), MAX_COPIES)),
+                call.getString("copyMarker"), call.getString("copyLabel"));
 
-                if (useV2) {
-                    PrinterHelper.getInstance().sendRAWData(data, null);
-                } else if (printUtilsV1 != null) {
-                    printUtilsV1.sendRAWData(data);
-                } else {
-                    call.reject("Printer not initialized");
+            PrintSpool currentSpool = spool;
+            if (useSpool && currentSpool != null) {
+                PrintSpool.Job spooled = copies.uniform()
+                    ? currentSpool.enqueue(SPOOL_TARGET, copies.first, copies.count)
+                    : currentSpool.enqueue(SPOOL_TARGET, copies.flatten(), 1);
+                JSObject result = attemptSpooled(spooled, false, job);
+                // Con waitForCompletion un intento fallido rechaza la llamada; el spool lo reintenta igual
+                if (completion == null) {
+                    result.put("bytesSaved", decoded.length - data.length);
+                    idempotency.resolve(call, result);
+                }
+                return;
+            }
+
+            try {
+                writeTracked(job, () -> {
+                    for (int i = 0; i < copies.count; i++) {
+                        writeToPrinter(copies.copy(i));
+                    }
+                });
+                if (completion != null) {
+                    return;
+                }
+
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("bytesWritten", copies.totalLength());
+                result.put("copies", copies.count);
+                result.put("bytesSaved", decoded.length - data.length);
+                result.put("printJobId", job.id);
+                idempotency.resolve(call, result);
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error printing: " + e.getMessage());
+                jobs.fail(job, null, e.getMessage());
+                if (completion == null) {
+                    idempotency.reject(call, "Failed to print: " + e.getMessage(), null, reachedPrinter(job));
+                }
+            }
+        }));
+    }
+
+    /**
+     * Imprimir un ticket a partir de una plantilla (ver EscPosTemplate)
+     * @param call - Parámetros: template (Object), documentId (String, opcional: guardar para reprint),
+     *             idempotencyKey (String, opcional: ver PrintIdempotency),
+     *             waitForCompletion (boolean, opcional: resolver cuando sale el papel)
+     */
+    @PluginMethod
+    public void printTemplate(PluginCall call) {
+        JSObject template = call.getObject("template");
+
+        if (template == null) {
+            call.reject("Template is required");
+            return;
+        }
+
+        if (!isConnected) {
+            call.reject("Not connected to printer");
+            return;
+        }
+
+        if (!idempotency.begin(call)) {
+            return;
+        }
+
+        String documentId = call.getString("documentId");
+        IminJobTracker.Completion completion = completionFor(call);
+        IminJobTracker.Job job = jobs.create(documentId, completion);
+
+        executeTracked(() -> {
+            try {
+                // La impresora interna del iMin entiende GS ( k
+                byte[] data = EscPosTemplate.render(template, RasterCache.get(getContext()), true);
+                rememberJob(documentId, data);
+                writeTracked(job, () -> writeToPrinter(data));
+                if (completion != null) {
                     return;
                 }
 
                 JSObject result = new JSObject();
                 result.put("success", true);
                 result.put("bytesWritten", data.length);
+                result.put("printJobId", job.id);
+                idempotency.resolve(call, result);
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error printing template: " + e.getMessage());
+                // Si falló antes de escribir (p. ej. la plantilla) el trabajo termina aquí
+                jobs.fail(job, null, e.getMessage());
+                if (completion == null) {
+                    idempotency.reject(call, "Failed to print: " + e.getMessage(), null, reachedPrinter(job));
+                }
+            }
+        });
+    }
+
+    /**
+     * Reimprimir un documento guardado en ReprintCache sin armarlo de nuevo en JS.
+     * El SDK necesita un byte[], así que aquí se copia desde el archivo mapeado.
+     * @param call - Parámetros: documentId (String), copies (int, opcional)
+     * Rechaza con código NOT_CACHED si el documento ya no está.
+     */
+    @PluginMethod
+    public void reprint(PluginCall call) {
+        String documentId = call.getString("documentId");
+        int copies = Math.max(1, Math.min(call.getInt("copies", 1), MAX_COPIES));
+
+        if (documentId == null || documentId.isEmpty()) {
+            call.reject("Document ID is required");
+            return;
+        }
+
+        if (!isConnected) {
+            call.reject("Not connected to printer");
+            return;
+        }
+
+        executeTracked(() -> {
+            ReprintCache cache = null;
+            ReprintCache.Entry entry = null;
+            try {
+                cache = ReprintCache.get(getContext());
+                entry = cache.acquire(documentId);
+                if (entry == null) {
+                    call.reject("Document not in reprint cache", "NOT_CACHED");
+                    return;
+                }
+                byte[] data = new byte[entry.length];
+                entry.data.duplicate().get(data);
+                cache.release(entry);
+                entry = null;
+
+                IminJobTracker.Job job = jobs.create(documentId, null);
+                writeTracked(job, () -> {
+                    for (int i = 0; i < copies; i++) {
+                        writeToPrinter(data);
+                    }
+                });
+
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("bytesWritten", (long) data.length * copies);
+                result.put("copies", copies);
+                result.put("documentId", documentId);
+                result.put("printJobId", job.id);
                 call.resolve(result);
 
             } catch (Exception e) {
-                Log.e(TAG, "Error printing: " + e.getMessage());
+                Log.e(TAG, "Error reprinting: " + e.getMessage());
+                call.reject("Failed to reprint: " + e.getMessage());
+            } finally {
+                if (entry != null) {
+                    cache.release(entry);
+                }
+            }
+        });
+    }
+
+    /**
+     * Imprimir un archivo binario ESC/POS escrito por JS (Filesystem), sin base64
+     * por el bridge. El SDK necesita un byte[] para la transacción AIDL, así que
+     * aquí sí hay una copia, pero se evita el String base64 y su decodificación.
+     * @param call - Parámetros: path (String, ruta o file:// URI), deleteAfter (boolean, opcional)
+     */
+    @PluginMethod
+    public void printFile(PluginCall call) {
+        String path = call.getString("path");
+        boolean deleteAfter = call.getBoolean("deleteAfter", false);
+
+        if (path == null || path.isEmpty()) {
+            call.reject("File path is required");
+            return;
+        }
+
+        if (!isConnected) {
+            call.reject("Not connected to printer");
+            return;
+        }
+
+        File file = TcpPrinterPlugin.resolveJobFile(getContext(), path);
+        if (file == null) {
+            call.reject("File must be inside the app files or cache directory");
+            return;
+        }
+
+        executeTracked(() -> {
+            try {
+                byte[] data = readFile(file);
+                IminJobTracker.Job job = jobs.create(null, null);
+                writeTracked(job, () -> writeToPrinter(data));
+
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("bytesWritten", data.length);
+                result.put("printJobId", job.id);
+                call.resolve(result);
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error printing file: " + e.getMessage());
                 call.reject("Failed to print: " + e.getMessage());
+            } finally {
+                if (deleteAfter && !file.delete()) {
+                    Log.w(TAG, "printFile: could not delete " + file.getName());
+                }
             }
         });
     }
 
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if (size == 0) {
+                throw new IOException("File is empty");
+            }
+            byte[] data = new byte[(int) size];
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, size).get(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Guardar los bytes del trabajo para reprint (si trae documentId)
+     */
+    private void rememberJob(String documentId, byte[] data) {
+        if (documentId == null || documentId.isEmpty()) {
+            return;
+        }
+        try {
+            ReprintCache.get(getContext()).put(documentId, PrinterCapabilities.INTERNAL, 0, data);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache job for reprint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Agregar bytes al trabajo en curso; salen por el AIDL con output.flush()
+     * al terminar el trabajo (o antes, en cada corte)
+     */
+    private void writeToPrinter(byte[] data) throws Exception {
+        jobs.account(data);
+        output.write(data);
+    }
+
+    private interface JobWriter {
+        void write() throws Exception;
+    }
+
+    /**
+     * Encolar en el executor una tarea que imprime con writeTracked recién cuando hay
+     * lugar en la impresora (maxInFlight): la espera no ocupa el executor. Si la
+     * tarea termina sin escribir, el lugar se devuelve.
+     */
+    private void executeTracked(Runnable task) {
+        jobs.acquire(() -> executor.execute(() -> {
+            slotReserved = true;
+            try {
+                task.run();
+            } finally {
+                if (slotReserved) {
+                    slotReserved = false;
+                    jobs.release();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Escribir un trabajo con seguimiento: ocupa el lugar reservado por executeTracked
+     * (o uno más, sin esperar), escribe, hace flush y deja que IminJobTracker confirme
+     * cuándo terminó
+     */
+    private void writeTracked(IminJobTracker.Job job, JobWriter writer) throws Exception {
+        jobs.start(job, slotReserved);
+        slotReserved = false;
+        try {
+            writer.write();
+            output.flush();
+        } catch (Exception e) {
+            output.reset();
+            jobs.fail(job, null, e.getMessage());
+            throw e;
+        }
+        jobs.sent(job);
+    }
+
+    /**
+     * Con waitForCompletion la llamada se resuelve (o rechaza con el código de
+     * estado) cuando el trabajo termina; si no, null y se resuelve al enviarlo
+     */
+    private IminJobTracker.Completion completionFor(PluginCall call) {
+        if (!call.getBoolean("waitForCompletion", false)) {
+            return null;
+        }
+        return job -> {
+            if (job.isDone()) {
+                JSObject result = IminJobTracker.describe(job);
+                result.put("success", true);
+                idempotency.resolve(call, result);
+            } else {
+                idempotency.reject(call, "Failed to print: " + job.error(), job.code(), reachedPrinter(job));
+            }
+        };
+    }
+
+    /**
+     * ¿Llegaron bytes del trabajo a la impresora (alguna transacción al SDK)? Desde ahí
+     * un fallo puede dejar el ticket impreso: la clave de idempotencia se conserva, el
+     * spool no lo reintenta y el router no lo pasa a otro destino. Mismo criterio en los tres.
+     */
+    private static boolean reachedPrinter(IminJobTracker.Job job) {
+        return job.transmitted();
+    }
+
+    /**
+     * Estado de la impresora según el SDK (ver IminJobTracker); -1 si no responde
+     */
+    private int printerStatus() {
+        try {
+            if (useV2) {
+                return PrinterHelper.getInstance().getPrinterStatus(null);
+            } else if (printUtilsV1 != null) {
+                return printUtilsV1.getPrinterStatus(PrintConnectType.USB);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Status query failed: " + e.getMessage());
+        }
+        return STATUS_SERVICE_UNBOUND;
+    }
+
+    /**
+     * Callback V2 de una transacción del trabajo en curso
+     */
+    private INeoPrinterCallback jobCallback(IminJobTracker.Job job) {
+        return new INeoPrinterCallback() {
+            @Override
+            public void onRunResult(boolean isSuccess) {
+                jobs.transactionDone(job, isSuccess, null);
+            }
+
+            @Override
+            public void onReturnString(String result) {
+            }
+
+            @Override
+            public void onRaiseException(int code, String msg) {
+                jobs.transactionDone(job, false, msg + " (" + code + ")");
+            }
+
+            @Override
+            public void onPrintResult(int code, String msg) {
+            }
+        };
+    }
+
+    /**
+     * Una transacción AIDL / USB con el SDK que corresponda
+     */
+    private void sendTransaction(byte[] data) throws Exception {
+        IminJobTracker.Job job = jobs.current();
+        if (useV2) {
+            INeoPrinterCallback callback = null;
+            if (job != null) {
+                jobs.transmitting(job);
+                callback = jobCallback(job);
+                jobs.transactionSent(job);
+            }
+            PrinterHelper.getInstance().sendRAWData(data, callback);
+        } else if (printUtilsV1 != null) {
+            if (job != null) {
+                jobs.transmitting(job);
+            }
+            printUtilsV1.sendRAWData(data);
+        } else {
+            throw new IllegalStateException("Printer not initialized");
+        }
+    }
+
+    /**
+     * Intentar imprimir un trabajo del spool (en el executor del plugin)
+     * @param background true si nadie espera el resultado (reintento o recuperación)
+     */
+    private JSObject attemptSpooled(PrintSpool.Job job, boolean background) {
+        return attemptSpooled(job, background, null);
+    }
+
+    /**
+     * @param tracked trabajo ya registrado en IminJobTracker (print con spool); null = registrar uno
+     */
+    private JSObject attemptSpooled(PrintSpool.Job job, boolean background, IminJobTracker.Job tracked) {
+        IminJobTracker.Job printJob = tracked != null ? tracked : jobs.create(null, null);
+        try {
+            if (!isConnected) {
+                throw new IllegalStateException("Not connected to printer");
+            }
+            writeTracked(printJob, () -> {
+                for (int i = 0; i < job.copies; i++) {
+                    writeToPrinter(job.data);
+                }
+            });
+            spool.markDone(job);
+
+            if (background) {
+                JSObject event = new JSObject();
+                event.put("jobId", job.id);
+                event.put("printer", job.target);
+                event.put("attempts", job.attempts + 1);
+                notifyListeners("spoolJobDone", event);
+            }
+
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("bytesWritten", job.data.length * job.copies);
+            result.put("jobId", job.id);
+            result.put("printJobId", printJob.id);
+            return result;
+
+        } catch (Exception e) {
+            jobs.fail(printJob, null, e.getMessage());
+            // Si ya llegó algo a la impresora no se reintenta: el ticket pudo imprimirse
+            boolean sent = reachedPrinter(printJob);
+            boolean willRetry = false;
+            if (sent) {
+                spool.markSent(job, e.getMessage());
+            } else {
+                willRetry = spool.scheduleRetry(job, e.getMessage());
+            }
+            Log.w(TAG, "Spooled job " + job.id + " failed (attempt " + job.attempts + "): " + e.getMessage());
+
+            JSObject event = new JSObject();
+            event.put("jobId", job.id);
+            event.put("printer", job.target);
+            event.put("attempts", job.attempts);
+            event.put("error", e.getMessage());
+            event.put("sent", sent);
+            event.put("willRetry", willRetry);
+            if (willRetry) {
+                event.put("retryInMs", Math.max(0, job.nextAttemptAt - System.currentTimeMillis()));
+            }
+            notifyListeners("spoolJobFailed", event);
+
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("spooled", willRetry);
+            result.put("sent", sent);
+            result.put("jobId", job.id);
+            result.put("error", e.getMessage());
+            return result;
+        }
+    }
+
+    /**
+     * Listar los trabajos pendientes del spool
+     */
+    @PluginMethod
+    public void getSpoolJobs(PluginCall call) {
+        call.resolve(TcpPrinterPlugin.spoolJobsResult(spool));
+    }
+
+    /**
+     * Cancelar un trabajo pendiente del spool
+     * @param call - Parámetros: jobId (String)
+     */
+    @PluginMethod
+    public void cancelSpoolJob(PluginCall call) {
+        String jobId = call.getString("jobId");
+        if (jobId == null || jobId.isEmpty()) {
+            call.reject("jobId is required");
+            return;
+        }
+
+        JSObject result = new JSObject();
+        result.put("success", spool != null && spool.cancel(jobId));
+        call.resolve(result);
+    }
+
+    /**
+     * Ajustar el seguimiento de trabajos (ver IminJobTracker)
+     * @param call - Parámetros: maxInFlight (int, opcional: trabajos enviados sin terminar, default 2)
+     */
+    @PluginMethod
+    public void setJobOptions(PluginCall call) {
+        jobs.configure(call.getInt("maxInFlight"));
+
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("maxInFlight", jobs.getMaxInFlight());
+        result.put("inFlight", jobs.getInFlight());
+        result.put("waiting", jobs.getWaiting());
+        result.put("speedFactor", jobs.getSpeedFactor());
+        call.resolve(result);
+    }
+
     /**
      * Imprimir ticket de prueba
      */
@@ -328,42 +978,28 @@ public class IminPrinterPlugin extends Plugin {
 
                 String sdkLabel = useV2 ? "V2 (PrinterHelper)" : "V1 (IminPrintUtils)";
 
-                if (useV2) {
-                    PrinterHelper helper = PrinterHelper.getInstance();
-                    helper.sendRAWData(init, null);
-                    helper.sendRAWData(alignCenter, null);
-                    helper.sendRAWData(boldOn, null);
-                    helper.sendRAWData("PRUEBA IMP. INTERNA\n".getBytes("UTF-8"), null);
-                    helper.sendRAWData(boldOff, null);
-                    helper.sendRAWData(separator.getBytes("UTF-8"), null);
-                    helper.sendRAWData(("\nDispositivo: " + Build.MODEL + "\n").getBytes("UTF-8"), null);
-                    helper.sendRAWData(("SDK: " + sdkLabel + "\n").getBytes("UTF-8"), null);
-                    helper.sendRAWData(("Ancho papel: " + paperWidth + "mm\n").getBytes("UTF-8"), null);
-                    helper.sendRAWData(("\nFecha: " + new java.text.SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(new java.util.Date()) + "\n").getBytes("UTF-8"), null);
-                    helper.sendRAWData(separator.getBytes("UTF-8"), null);
-                    helper.sendRAWData("\nImpresora interna configurada\n".getBytes("UTF-8"), null);
-                    helper.sendRAWData("correctamente!\n\n\n".getBytes("UTF-8"), null);
-                    helper.sendRAWData(cut, null);
-                } else if (printUtilsV1 != null) {
-                    printUtilsV1.sendRAWData(init);
-                    printUtilsV1.sendRAWData(alignCenter);
-                    printUtilsV1.sendRAWData(boldOn);
-                    printUtilsV1.sendRAWData("PRUEBA IMP. INTERNA\n".getBytes("UTF-8"));
-                    printUtilsV1.sendRAWData(boldOff);
-                    printUtilsV1.sendRAWData(separator.getBytes("UTF-8"));
-                    printUtilsV1.sendRAWData(("\nDispositivo: " + Build.MODEL + "\n").getBytes("UTF-8"));
-                    printUtilsV1.sendRAWData(("SDK: " + sdkLabel + "\n").getBytes("UTF-8"));
-                    printUtilsV1.sendRAWData(("Ancho papel: " + paperWidth + "mm\n").getBytes("UTF-8"));
-                    printUtilsV1.sendRAWData(("\nFecha: " + new java.text.SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(new java.util.Date()) + "\n").getBytes("UTF-8"));
-                    printUtilsV1.sendRAWData(separator.getBytes("UTF-8"));
-                    printUtilsV1.sendRAWData("\nImpresora interna configurada\n".getBytes("UTF-8"));
-                    printUtilsV1.sendRAWData("correctamente!\n\n\n".getBytes("UTF-8"));
-                    printUtilsV1.sendRAWData(cut);
-                } else {
+                if (!useV2 && printUtilsV1 == null) {
                     call.reject("Printer not initialized");
                     return;
                 }
 
+                // Todo el ticket en el buffer: sale en una sola transacción al llegar al corte
+                output.write(init);
+                output.write(alignCenter);
+                output.write(boldOn);
+                output.write("PRUEBA IMP. INTERNA\n");
+                output.write(boldOff);
+                output.write(separator);
+                output.write("\nDispositivo: " + Build.MODEL + "\n");
+                output.write("SDK: " + sdkLabel + "\n");
+                output.write("Ancho papel: " + paperWidth + "mm\n");
+                output.write("\nFecha: " + new java.text.SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(new java.util.Date()) + "\n");
+                output.write(separator);
+                output.write("\nImpresora interna configurada\n");
+                output.write("correctamente!\n\n\n");
+                output.write(cut);
+                output.flush();
+
                 JSObject result = new JSObject();
                 result.put("success", true);
                 call.resolve(result);
@@ -375,8 +1011,77 @@ public class IminPrinterPlugin extends Plugin {
         });
     }
 
+    /**
+     * Backend "internal" de PrintRouter: V1 o V2 según el dispositivo, por el mismo
+     * executor, buffer AIDL y seguimiento de trabajos que print
+     */
+    private final class RouterBackend implements PrintBackend {
+
+        @Override
+        public String getName() {
+            return BACKEND_INTERNAL;
+        }
+
+        @Override
+        public boolean isAvailable(PrintRouter.Target target) {
+            return isConnected;
+        }
+
+        @Override
+        public void submit(PrintRouter.Job job, PrintRouter.Target target, boolean useSpool, Callback callback) {
+            if (!isConnected) {
+                callback.onError("Not connected to printer", PrinterCircuitBreaker.CODE_OFFLINE, true);
+                return;
+            }
+            IminJobTracker.Job printJob = jobs.create(job.documentId, null);
+
+            executeTracked(() -> {
+                try {
+                    byte[] data = job.data();
+                    rememberJob(job.documentId, data);
+                    EscPosCopies copies = EscPosCopies.of(data, Math.max(1, Math.min(job.copies, MAX_COPIES)),
+                        job.copyMarker, job.copyLabel);
+
+                    PrintSpool currentSpool = spool;
+                    if (useSpool && currentSpool != null) {
+                        PrintSpool.Job spooled = copies.uniform()
+                            ? currentSpool.enqueue(SPOOL_TARGET, copies.first, copies.count)
+                            : currentSpool.enqueue(SPOOL_TARGET, copies.flatten(), 1);
+                        callback.onResult(attemptSpooled(spooled, false, printJob));
+                        return;
+                    }
+
+                    writeTracked(printJob, () -> {
+                        for (int i = 0; i < copies.count; i++) {
+                            writeToPrinter(copies.copy(i));
+                        }
+                    });
+
+                    JSObject result = new JSObject();
+                    result.put("success", true);
+                    result.put("bytesWritten", copies.totalLength());
+                    result.put("copies", copies.count);
+                    result.put("printJobId", printJob.id);
+                    callback.onResult(result);
+
+                } catch (PrintRouter.InvalidJobException e) {
+                    jobs.fail(printJob, null, e.getMessage());
+                    callback.onInvalid(e.getMessage());
+                } catch (Exception e) {
+                    Log.e(TAG, "Routed job failed: " + e.getMessage());
+                    jobs.fail(printJob, null, e.getMessage());
+                    // Si alguna transacción llegó al SDK pudo salir parte del trabajo:
+                    // no probar otro destino. Si no salió nada, el router puede seguir.
+                    boolean sent = reachedPrinter(printJob);
+                    callback.onError(e.getMessage(), null, !sent);
+                }
+            });
+        }
+    }
+
     @Override
     protected void handleOnDestroy() {
+        PrintRouter.get().unregister(routerBackend);
         try {
             if (useV2) {
                 PrinterHelper.getInstance().deInitPrinterService(getContext());
@@ -388,6 +1093,10 @@ public class IminPrinterPlugin extends Plugin {
         }
         isConnected = false;
         executor.shutdown();
+        jobs.shutdown();
+        if (spool != null) {
+            spool.shutdown();
+        }
         super.handleOnDestroy();
     }
 }
@@ -0,0 +1,132 @@
+package com.cobrify.app.plugins;
+
+import java.util.Arrays;
+
+/**
+ * Buffer de escritura delante de sendRAWData (V1 IminPrintUtils y V2 PrinterHelper).
+ *
+ * Cada sendRAWData es una transacción binder con su costo fijo de IPC, y el
+ * buffer de transacciones del proceso es de 1 MB compartido (pasarse da
+ * TransactionTooLargeException). Aquí los bytes de un trabajo se juntan en un
+ * arreglo reutilizable y salen en transacciones de hasta MAX_TRANSACTION:
+ *
+ * - Solo se envía al terminar el trabajo (flush), al escribir un corte (así la
+ *   primera copia empieza a imprimir mientras se transfiere la siguiente) o
+ *   cuando el buffer se llena.
+ * - Un arreglo que llega con el buffer vacío y cabe en una transacción sale tal
+ *   cual, sin copiarlo.
+ * - Si el envío falla lo pendiente se descarta: el trabajo siguiente no hereda
+ *   medio ticket.
+ * - Al SDK siempre le llega una copia del tamaño justo y no el buffer: no se sabe
+ *   si V1 encola el arreglo en otro hilo antes de escribirlo por USB.
+ *
+ * No es thread-safe: se usa solo desde el executor del plugin.
+ */
+final class IminWriteBuffer {
+
+    // Un cuarto del buffer binder: deja lugar a otras transacciones en vuelo
+    static final int MAX_TRANSACTION = 256 * 1024;
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    interface Sink {
+        void send(byte[] data) throws Exception;
+    }
+
+    private final Sink sink;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int count;
+    // Arreglo recibido entero que todavía no se copió al buffer (ver write)
+    private byte[] pending;
+
+    IminWriteBuffer(Sink sink) {
+        this.sink = sink;
+    }
+
+    void write(byte[] data) throws Exception {
+        if (data.length == 0) {
+            return;
+        }
+        if (count == 0 && pending == null && data.length <= MAX_TRANSACTION) {
+            // Caso típico (un trabajo ya armado): se guarda la referencia sin copiar
+            pending = data;
+        } else {
+            absorbPending();
+            append(data, 0, data.length);
+        }
+        if (EscPosCopies.endsWithCut(data)) {
+            flush();
+        }
+    }
+
+    void write(String text) throws Exception {
+        write(text.getBytes("UTF-8"));
+    }
+
+    /**
+     * Fin del trabajo: enviar lo acumulado
+     */
+    void flush() throws Exception {
+        try {
+            if (pending != null) {
+                send(pending);
+            } else if (count > 0) {
+                send(Arrays.copyOf(buffer, count));
+            }
+        } finally {
+            pending = null;
+            count = 0;
+        }
+    }
+
+    /**
+     * Descartar lo pendiente sin enviarlo
+     */
+    void reset() {
+        pending = null;
+        count = 0;
+    }
+
+    private void absorbPending() {
+        if (pending != null) {
+            byte[] data = pending;
+            pending = null;
+            ensureCapacity(data.length);
+            System.arraycopy(data, 0, buffer, 0, data.length);
+            count = data.length;
+        }
+    }
+
+    private void append(byte[] data, int offset, int length) throws Exception {
+        while (length > 0) {
+            if (count == MAX_TRANSACTION) {
+                flushFull();
+            }
+            int chunk = Math.min(length, MAX_TRANSACTION - count);
+            ensureCapacity(count + chunk);
+            System.arraycopy(data, offset, buffer, count, chunk);
+            count += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void flushFull() throws Exception {
+        try {
+            send(Arrays.copyOf(buffer, count));
+        } catch (Exception e) {
+            reset();
+            throw e;
+        }
+        count = 0;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.min(MAX_TRANSACTION, Math.max(needed, buffer.length * 2)));
+        }
+    }
+
+    private void send(byte[] data) throws Exception {
+        sink.send(data);
+    }
+}
@@ -0,0 +1,492 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Transporte TCP no bloqueante: un solo hilo con un Selector atiende los
+ * SocketChannel de todas las impresoras. Un hub con 6–10 impresoras (cocina, bar,
+ * horno, etiquetas) usa un hilo en vez de uno bloqueado por impresora.
+ *
+ * Cada impresora tiene su propia cola FIFO (solo acepta 1 conexión), un plazo
+ * (conexión o avance de escritura) y una cola de escritura de ByteBuffer directos
+ * que se reciclan entre trabajos. Con keepAlive el canal queda abierto idleTimeoutMs
+ * escuchando OP_READ para detectar si la impresora lo cerró.
+ *
+ * Los plazos de conexión y de escritura son los de cada impresora (PrinterLinkStats).
+ *
+ * Todo el estado de Endpoint se toca solo desde el hilo del selector.
+ */
+final class NioPrinterEngine {
+
+    private static final String TAG = "NioPrinterEngine";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_QUEUED_BUFFERS = 4;   // por impresora
+    private static final int MAX_POOLED_BUFFERS = 32;  // 512 KB directos como máximo
+
+    /**
+     * Resultado de un trabajo. Se invoca en el hilo del selector: no bloquear.
+     */
+    interface Callback {
+        void onComplete(long bytesWritten, boolean reused, long durationMs);
+        void onError(IOException error);
+    }
+
+    private static final class Job {
+        final String key;
+        final InetSocketAddress address;
+        final EscPosCopies copies;
+        final long total;
+        final boolean keepAlive;
+        final Callback callback;
+        long position;
+        long startedAt;
+        long connectStartedAt;
+        int writeTimeout;
+        boolean reused;
+        boolean retried;
+        boolean sent; // ya salió algún byte: un error desde acá puede dejar el ticket impreso
+
+        Job(String key, InetSocketAddress address, EscPosCopies copies, boolean keepAlive, Callback callback) {
+            this.key = key;
+            this.address = address;
+            this.copies = copies;
+            this.total = copies.totalLength();
+            this.keepAlive = keepAlive;
+            this.callback = callback;
+        }
+    }
+
+    private static final class Endpoint {
+        final String key;
+        final ArrayDeque<Job> jobs = new ArrayDeque<>();
+        final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        SocketChannel channel;
+        SelectionKey selectionKey;
+        Job current;
+        long deadline;
+        long idleSince;
+
+        Endpoint(String key) {
+            this.key = key;
+        }
+    }
+
+    private final PrinterLinkStats links;
+    private volatile long idleTimeout;
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Job> submissions = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> evictions = new ConcurrentLinkedQueue<>();
+    private final Map<String, Endpoint> endpoints = new HashMap<>();
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private final ByteBuffer readScratch = ByteBuffer.allocateDirect(256);
+    private volatile boolean running = true;
+
+    // Estadísticas (se leen desde otros hilos)
+    private volatile int openChannels;
+    private volatile int activeJobs;
+    private volatile int allocatedBuffers;
+    private volatile long completedJobs;
+    private volatile long failedJobs;
+
+    NioPrinterEngine(PrinterLinkStats links, long idleTimeout) throws IOException {
+        this.links = links;
+        this.idleTimeout = idleTimeout;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::loop, "nio-printer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Encolar un trabajo. Los trabajos a la misma impresora se envían en orden.
+     */
+    void submit(String ip, int port, EscPosCopies copies, boolean keepAlive, Callback callback) {
+        if (!running) {
+            callback.onError(new IOException("Printer engine is not running"));
+            return;
+        }
+        String key = PrinterConnectionPool.key(ip, port);
+        // Resolver acá (hilo del llamador) y no en el selector
+        Job job = new Job(key, links.address(ip, port), copies, keepAlive, callback);
+        submissions.add(job);
+        // El selector pudo terminar entre el chequeo y el add: si ya no va a drenar la
+        // cola, fallar acá (remove evita fallarlo dos veces si el cierre ya lo tomó)
+        if (!running && submissions.remove(job)) {
+            fail(job, new IOException("Printer engine is not running"));
+            return;
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * false cuando el hilo del selector terminó (shutdown o error del Selector):
+     * el dueño debe crear otro motor
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Cerrar el canal ocioso de una impresora (p.ej. antes de una conexión bloqueante)
+     */
+    void evict(String key) {
+        evictions.add(key);
+        selector.wakeup();
+    }
+
+    void setIdleTimeout(long idleTimeoutMs) {
+        this.idleTimeout = Math.max(0, idleTimeoutMs);
+    }
+
+    int getOpenChannels() {
+        return openChannels;
+    }
+
+    int getActiveJobs() {
+        return activeJobs;
+    }
+
+    int getAllocatedBuffers() {
+        return allocatedBuffers;
+    }
+
+    long getCompletedJobs() {
+        return completedJobs;
+    }
+
+    long getFailedJobs() {
+        return failedJobs;
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void loop() {
+        try {
+            run();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Selector loop failed: " + e.getMessage(), e);
+        } finally {
+            // Desde acá submit falla enseguida en vez de dejar trabajos sin drenar
+            running = false;
+            closeAll();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select(nextTimeout());
+            } catch (IOException e) {
+                Log.e(TAG, "Selector failed: " + e.getMessage());
+                return;
+            }
+
+            drainSubmissions();
+            drainEvictions();
+
+            Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+            while (ready.hasNext()) {
+                SelectionKey selectionKey = ready.next();
+                ready.remove();
+                Endpoint endpoint = (Endpoint) selectionKey.attachment();
+                if (!selectionKey.isValid() || endpoint.selectionKey != selectionKey) {
+                    continue;
+                }
+                try {
+                    if (selectionKey.isConnectable()) {
+                        onConnectable(endpoint);
+                    } else if (selectionKey.isWritable()) {
+                        onWritable(endpoint);
+                    } else if (selectionKey.isReadable()) {
+                        onReadable(endpoint);
+                    }
+                } catch (IOException e) {
+                    onFailure(endpoint, e);
+                }
+            }
+
+            checkDeadlines();
+        }
+    }
+
+    /**
+     * Cerrar todo al terminar el hilo del selector
+     */
+    private void closeAll() {
+        IOException closed = new IOException("Printer engine shut down");
+        for (Endpoint endpoint : endpoints.values()) {
+            if (endpoint.current != null) {
+                fail(endpoint.current, closed);
+            }
+            for (Job job : endpoint.jobs) {
+                fail(job, closed);
+            }
+            closeChannel(endpoint);
+        }
+        Job job;
+        while ((job = submissions.poll()) != null) {
+            fail(job, closed);
+        }
+        try { selector.close(); } catch (IOException ignored) {}
+    }
+
+    private long nextTimeout() {
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        for (Endpoint endpoint : endpoints.values()) {
+            if (endpoint.current != null) {
+                next = Math.min(next, endpoint.deadline);
+            } else if (endpoint.channel != null) {
+                next = Math.min(next, endpoint.idleSince + idleTimeout);
+            }
+        }
+        // select(0) espera indefinidamente
+        return next == Long.MAX_VALUE ? 0 : Math.max(1, next - now);
+    }
+
+    private void drainSubmissions() {
+        Job job;
+        while ((job = submissions.poll()) != null) {
+            Endpoint endpoint = endpoints.get(job.key);
+            if (endpoint == null) {
+                endpoint = new Endpoint(job.key);
+                endpoints.put(job.key, endpoint);
+            }
+            endpoint.jobs.add(job);
+            activeJobs++;
+            if (endpoint.current == null) {
+                startNext(endpoint);
+            }
+        }
+    }
+
+    private void drainEvictions() {
+        String key;
+        while ((key = evictions.poll()) != null) {
+            Endpoint endpoint = endpoints.get(key);
+            if (endpoint != null && endpoint.current == null) {
+                closeChannel(endpoint);
+            }
+        }
+    }
+
+    private void startNext(Endpoint endpoint) {
+        Job job = endpoint.jobs.poll();
+        endpoint.current = job;
+        if (job == null) {
+            return;
+        }
+        job.startedAt = System.currentTimeMillis();
+        job.position = 0;
+        job.writeTimeout = links.socketTimeout(job.key);
+        try {
+            if (endpoint.channel != null && endpoint.channel.isOpen()) {
+                job.reused = true;
+                endpoint.selectionKey.interestOps(SelectionKey.OP_WRITE);
+                endpoint.deadline = System.currentTimeMillis() + job.writeTimeout;
+                return;
+            }
+            closeChannel(endpoint);
+            job.reused = false;
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            PrinterLinkStats.configure(channel.socket());
+            endpoint.channel = channel;
+            openChannels++;
+            job.connectStartedAt = System.currentTimeMillis();
+            if (channel.connect(job.address)) {
+                links.recordConnect(job.key, 0);
+                endpoint.selectionKey = channel.register(selector, SelectionKey.OP_WRITE, endpoint);
+                endpoint.deadline = System.currentTimeMillis() + job.writeTimeout;
+            } else {
+                endpoint.selectionKey = channel.register(selector, SelectionKey.OP_CONNECT, endpoint);
+                endpoint.deadline = System.currentTimeMillis() + links.connectTimeout(job.key);
+            }
+        } catch (IOException e) {
+            onFailure(endpoint, e);
+        }
+    }
+
+    private void onConnectable(Endpoint endpoint) throws IOException {
+        if (endpoint.channel.finishConnect()) {
+            Job job = endpoint.current;
+            links.recordConnect(job.key, System.currentTimeMillis() - job.connectStartedAt);
+            endpoint.selectionKey.interestOps(SelectionKey.OP_WRITE);
+            endpoint.deadline = System.currentTimeMillis() + job.writeTimeout;
+        }
+    }
+
+    private void onWritable(Endpoint endpoint) throws IOException {
+        Job job = endpoint.current;
+        if (job == null) {
+            endpoint.selectionKey.interestOps(SelectionKey.OP_READ);
+            return;
+        }
+
+        fill(endpoint);
+        while (!endpoint.writeQueue.isEmpty()) {
+            ByteBuffer buffer = endpoint.writeQueue.peek();
+            int written = endpoint.channel.write(buffer);
+            if (written > 0) {
+                job.sent = true;
+                endpoint.deadline = System.currentTimeMillis() + job.writeTimeout;
+            }
+            if (buffer.hasRemaining()) {
+                // Buffer del socket lleno: esperar al próximo OP_WRITE
+                return;
+            }
+            recycle(endpoint.writeQueue.poll());
+            fill(endpoint);
+        }
+
+        // Trabajo completo
+        endpoint.current = null;
+        activeJobs--;
+        completedJobs++;
+        long duration = System.currentTimeMillis() - job.startedAt;
+        if (job.keepAlive && idleTimeout > 0) {
+            endpoint.selectionKey.interestOps(SelectionKey.OP_READ);
+            endpoint.idleSince = System.currentTimeMillis();
+        } else {
+            closeChannel(endpoint);
+        }
+        try {
+            job.callback.onComplete(job.total, job.reused, duration);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Callback failed: " + e.getMessage());
+        }
+        startNext(endpoint);
+    }
+
+    /**
+     * Canal ocioso: descartar respuestas (ASB) y detectar el cierre de la impresora
+     */
+    private void onReadable(Endpoint endpoint) throws IOException {
+        readScratch.clear();
+        if (endpoint.channel.read(readScratch) < 0) {
+            closeChannel(endpoint);
+        }
+    }
+
+    /**
+     * Copiar el siguiente tramo del trabajo (todas las copias seguidas) a buffers directos
+     */
+    private void fill(Endpoint endpoint) {
+        Job job = endpoint.current;
+        int length = job.copies.length;
+        while (endpoint.writeQueue.size() < MAX_QUEUED_BUFFERS && job.position < job.total) {
+            ByteBuffer buffer = obtain();
+            while (buffer.hasRemaining() && job.position < job.total) {
+                int index = (int) (job.position % length);
+                int chunk = (int) Math.min(buffer.remaining(), Math.min(length - index, job.total - job.position));
+                buffer.put(job.copies.copy((int) (job.position / length)), index, chunk);
+                job.position += chunk;
+            }
+            buffer.flip();
+            endpoint.writeQueue.add(buffer);
+        }
+    }
+
+    private void checkDeadlines() {
+        long now = System.currentTimeMillis();
+        List<Endpoint> expired = new ArrayList<>();
+        for (Endpoint endpoint : endpoints.values()) {
+            if (endpoint.current != null && now >= endpoint.deadline) {
+                expired.add(endpoint);
+            } else if (endpoint.current == null && endpoint.channel != null && now >= endpoint.idleSince + idleTimeout) {
+                closeChannel(endpoint);
+            }
+        }
+        for (Endpoint endpoint : expired) {
+            boolean connecting = endpoint.selectionKey != null && endpoint.selectionKey.isValid()
+                && endpoint.selectionKey.interestOps() == SelectionKey.OP_CONNECT;
+            onFailure(endpoint, new SocketTimeoutException(connecting ? "Connect timed out" : "Write timed out"));
+        }
+    }
+
+    private void onFailure(Endpoint endpoint, IOException error) {
+        Job job = endpoint.current;
+        closeChannel(endpoint);
+        if (job == null) {
+            return;
+        }
+
+        if (job.reused && !job.retried && !job.sent) {
+            // El canal reutilizado murió entre trabajos y no salió nada: reintentar una vez con uno nuevo
+            Log.w(TAG, "Reused channel to " + endpoint.key + " failed, reconnecting");
+            job.retried = true;
+            endpoint.jobs.addFirst(job);
+            endpoint.current = null;
+            startNext(endpoint);
+            return;
+        }
+
+        Log.e(TAG, "Job to " + endpoint.key + " failed: " + error.getMessage());
+        endpoint.current = null;
+        activeJobs--;
+        failedJobs++;
+        fail(job, job.sent ? new PrintBackend.SentException(error) : error);
+        startNext(endpoint);
+    }
+
+    private void fail(Job job, IOException error) {
+        try {
+            job.callback.onError(error);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Callback failed: " + e.getMessage());
+        }
+    }
+
+    private void closeChannel(Endpoint endpoint) {
+        ByteBuffer buffer;
+        while ((buffer = endpoint.writeQueue.poll()) != null) {
+            recycle(buffer);
+        }
+        if (endpoint.selectionKey != null) {
+            endpoint.selectionKey.cancel();
+            endpoint.selectionKey = null;
+        }
+        if (endpoint.channel != null) {
+            try { endpoint.channel.close(); } catch (IOException ignored) {}
+            endpoint.channel = null;
+            openChannels--;
+        }
+    }
+
+    private ByteBuffer obtain() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            allocatedBuffers++;
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        if (freeBuffers.size() < MAX_POOLED_BUFFERS) {
+            freeBuffers.add(buffer);
+        } else {
+            allocatedBuffers--;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.cobrify.app.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Escritura por tramos con ritmo adaptativo para trabajos grandes (logos en GS v 0).
+ *
+ * Las impresoras WiFi baratas de 58 mm tienen un buffer de entrada mínimo: con un
+ * solo write() del ticket completo pierden bytes o se pasan del SOCKET_TIMEOUT.
+ * Aquí el trabajo se envía en tramos de chunkSize bytes y se mide a qué velocidad
+ * los drena la impresora (escrituras que bloquean, o el tiempo hasta la respuesta
+ * de DLE EOT con statusSync). Los tramos siguientes se espacian para ir un poco por
+ * debajo de esa velocidad (HEADROOM); la velocidad aprendida se reutiliza en el
+ * próximo trabajo.
+ *
+ * Sin statusSync solo hay muestra cuando un write bloquea (el buffer del socket se
+ * llenó): un trabajo que cabe en los buffers de TCP sale sin pausas y no enseña
+ * nada. El ritmo actúa solo en las impresoras que de verdad se atoran; para
+ * medirlo desde el primer trabajo hay que usar statusSync.
+ */
+final class PacedWriter {
+
+    static final int DEFAULT_CHUNK_SIZE = 4096;
+    static final int MIN_CHUNK_SIZE = 256;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+    private static final long BLOCKED_THRESHOLD_NS = 5_000_000L; // un write más lento: el socket estaba lleno
+    private static final double EWMA_ALPHA = 0.3;
+    private static final double HEADROOM = 0.85; // enviar al 85 % de la velocidad medida
+
+    /**
+     * Avance del envío (en el hilo que escribe)
+     */
+    interface ProgressListener {
+        void onProgress(long bytesSent, long totalBytes, long etaMs, double bytesPerSecond);
+    }
+
+    private final int chunkSize;
+    private final boolean statusSync;
+    private final int statusTimeout;
+    private final int socketTimeout;
+    private final ProgressListener listener;
+    private double drainRate; // bytes/s; 0 = desconocida
+
+    /**
+     * @param initialRate velocidad aprendida en trabajos anteriores (bytes/s, 0 = sin dato)
+     * @param statusSync esperar la respuesta de DLE EOT tras cada tramo (y fallar si se acaba el papel a mitad)
+     */
+    PacedWriter(int chunkSize, double initialRate, boolean statusSync, int statusTimeout, int socketTimeout,
+                ProgressListener listener) {
+        this.chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize);
+        this.drainRate = Math.max(0, initialRate);
+        this.statusSync = statusSync;
+        this.statusTimeout = statusTimeout;
+        this.socketTimeout = socketTimeout;
+        this.listener = listener;
+    }
+
+    double getDrainRate() {
+        return drainRate;
+    }
+
+    /**
+     * Enviar todas las copias seguidas, por tramos
+     * @return bytes escritos
+     */
+    long write(Socket socket, EscPosCopies copies) throws IOException {
+        OutputStream output = socket.getOutputStream();
+        long total = copies.totalLength();
+        long sent = 0;
+        long start = System.currentTimeMillis();
+        long lastProgress = 0;
+        boolean sync = statusSync;
+
+        while (sent < total) {
+            int length = (int) Math.min(chunkSize, total - sent);
+            long chunkStart = System.nanoTime();
+            writeRange(output, copies, sent, length);
+            output.flush();
+
+            boolean measured = false;
+            if (sync) {
+                // DLE EOT se atiende al llegar: la respuesta marca cuándo la impresora recibió el tramo
+                PrinterStatus status = PrinterStatus.query(socket, statusTimeout, socketTimeout);
+                if (status.responded) {
+                    status.throwIfNotReady();
+                    measured = true;
+                } else {
+                    sync = false;
+                }
+            }
+
+            long elapsed = System.nanoTime() - chunkStart;
+            sent += length;
+            if (measured || elapsed >= BLOCKED_THRESHOLD_NS) {
+                double sample = length * 1e9 / Math.max(1, elapsed);
+                drainRate = drainRate == 0 ? sample : EWMA_ALPHA * sample + (1 - EWMA_ALPHA) * drainRate;
+            }
+
+            if (!sync && drainRate > 0 && sent < total) {
+                long minimum = (long) (length * 1e9 / (drainRate * HEADROOM));
+                pause(minimum - elapsed);
+            }
+
+            long now = System.currentTimeMillis();
+            if (listener != null && (now - lastProgress >= PROGRESS_INTERVAL_MS || sent == total)) {
+                lastProgress = now;
+                double rate = drainRate > 0 ? drainRate : sent * 1000.0 / Math.max(1, now - start);
+                long eta = (long) ((total - sent) * 1000 / Math.max(1, rate));
+                listener.onProgress(sent, total, eta, rate);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Escribir [offset, offset + length) del flujo formado por las copias seguidas
+     */
+    private static void writeRange(OutputStream output, EscPosCopies copies, long offset, int length) throws IOException {
+        while (length > 0) {
+            int index = (int) (offset % copies.length);
+            int count = Math.min(length, copies.length - index);
+            output.write(copies.copy((int) (offset / copies.length)), index, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private static void pause(long nanos) throws InterruptedIOException {
+        if (nanos < 1_000_000L) {
+            return;
+        }
+        try {
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Print interrupted");
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.cobrify.app.plugins;
+
+import com.getcapacitor.JSObject;
+
+import java.io.IOException;
+
+/**
+ * Un camino de impresión que PrintRouter puede usar: impresoras de red
+ * (TcpPrinterPlugin) o la impresora interna iMin V1/V2 (IminPrinterPlugin).
+ *
+ * submit no bloquea: el backend ejecuta el trabajo en su propio hilo (carril de
+ * la impresora, executor del SDK) y avisa el resultado una sola vez por Callback.
+ */
+interface PrintBackend {
+
+    String BACKEND_TCP = "tcp";
+    String BACKEND_INTERNAL = "internal";
+
+    interface Callback {
+        void onResult(JSObject result);
+
+        /**
+         * @param retryable no salió ningún byte hacia la impresora (no conectó, circuito
+         *                  abierto, impresora no lista): otro destino o un reintento lo
+         *                  pueden imprimir sin duplicarlo
+         */
+        void onError(String message, String code, boolean retryable);
+
+        /**
+         * El trabajo no se puede imprimir en ningún destino (datos inválidos, p. ej.
+         * base64 mal formado): no salió nada y tampoco se reintenta ni se pasa a otro destino
+         */
+        void onInvalid(String message);
+    }
+
+    /**
+     * Error después de empezar a enviar el trabajo: puede haber salido impreso
+     * entero o en parte, así que no se pasa a otro destino ni se reintenta solo.
+     */
+    final class SentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final String code; // el de la causa si es PrinterStatusException (p. ej. sin papel a mitad del trabajo)
+
+        SentException(IOException cause) {
+            super(cause.getMessage(), cause);
+            this.code = cause instanceof PrinterStatus.PrinterStatusException
+                ? ((PrinterStatus.PrinterStatusException) cause).code : null;
+        }
+    }
+
+    /** "tcp" o "internal" */
+    String getName();
+
+    /**
+     * ¿Puede recibir trabajos ahora? (circuito cerrado, impresora conectada)
+     */
+    boolean isAvailable(PrintRouter.Target target);
+
+    /**
+     * Imprimir un trabajo en el destino indicado
+     * @param useSpool anotar en el spool persistente si falla (solo el último destino del trabajo)
+     */
+    void submit(PrintRouter.Job job, PrintRouter.Target target, boolean useSpool, Callback callback);
+}
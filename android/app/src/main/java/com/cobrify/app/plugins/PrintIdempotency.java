@@ -0,0 +1,276 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Claves de idempotencia de los trabajos de impresión (opción idempotencyKey).
+ *
+ * Si printDirect vence en JS después de que los bytes ya salieron, JS reintenta
+ * y la cocina recibe la comanda dos veces. Con la misma clave el reintento no
+ * imprime: recibe el resultado del trabajo original (con duplicate: true), o lo
+ * espera si el original sigue en curso.
+ *
+ * - Alta con putIfAbsent sobre un ConcurrentHashMap: O(1) y sin locks propios en
+ *   el camino normal (solo se sincroniza sobre una entrada cuando un duplicado
+ *   llega con el original en curso).
+ * - Se recuerdan los trabajos que resolvieron (impresos o ya en el spool) y los
+ *   que fallaron con bytes ya enviados (PrintBackend.SentException): el ticket
+ *   pudo salir, así que el reintento recibe el mismo rechazo y no reimprime. Si
+ *   el original falló antes de enviar nada la clave se libera y el reintento imprime.
+ * - Una RuntimeException en la tarea (guard) también rechaza y libera la clave,
+ *   así los duplicados en espera no quedan colgados hasta el TTL.
+ * - Cada rechazo trae data.sent: JS reintenta solo los que no enviaron nada.
+ * - Acotada: a lo sumo maxEntries claves y cada una vive ttlMs; las más viejas
+ *   se descartan en el orden en que llegaron.
+ */
+final class PrintIdempotency {
+
+    static final String OPTION = "idempotencyKey";
+    static final long DEFAULT_TTL_MS = 10 * 60 * 1000L;
+    static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final String TAG = "PrintIdempotency";
+
+    private static final class Entry {
+        final long createdAt;
+        volatile JSObject result; // null = en curso
+        volatile String error;    // falló con bytes enviados: se repite el rechazo
+        String errorCode;
+        boolean failed;
+        List<PluginCall> waiters; // duplicados esperando al original (bajo el lock de la entrada)
+
+        Entry(long createdAt) {
+            this.createdAt = createdAt;
+        }
+
+        boolean settled() {
+            return result != null || error != null;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<>();
+    private volatile long ttlMs = DEFAULT_TTL_MS;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    void configure(Long ttlMs, Integer maxEntries) {
+        if (ttlMs != null) {
+            this.ttlMs = Math.max(1000, ttlMs);
+        }
+        if (maxEntries != null) {
+            this.maxEntries = Math.max(16, maxEntries);
+        }
+    }
+
+    long getTtl() {
+        return ttlMs;
+    }
+
+    int getMaxEntries() {
+        return maxEntries;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Registrar la clave de la llamada antes de imprimir
+     * @return true si hay que imprimir; false si es un duplicado (ya se respondió
+     *         con el resultado original o se responderá cuando el original termine)
+     */
+    boolean begin(PluginCall call) {
+        String key = call.getString(OPTION);
+        if (key == null || key.isEmpty()) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        Entry fresh = new Entry(now);
+        Entry existing = entries.putIfAbsent(key, fresh);
+        while (existing != null && now - existing.createdAt > ttlMs) {
+            existing = entries.replace(key, existing, fresh) ? null : entries.putIfAbsent(key, fresh);
+        }
+        if (existing == null) {
+            order.add(key);
+            trim(now);
+            return true;
+        }
+
+        JSObject result = existing.result;
+        if (result == null) {
+            String error;
+            String errorCode;
+            synchronized (existing) {
+                if (existing.failed) {
+                    // El original falló entre el putIfAbsent y el lock: reintentar de cero
+                    entries.remove(key, existing);
+                    return begin(call);
+                }
+                result = existing.result;
+                error = existing.error;
+                errorCode = existing.errorCode;
+                if (result == null && error == null) {
+                    if (existing.waiters == null) {
+                        existing.waiters = new ArrayList<>();
+                    }
+                    existing.waiters.add(call);
+                    return false;
+                }
+            }
+            if (result == null) {
+                reject(call, error, errorCode, true, null);
+                return false;
+            }
+        }
+        call.resolve(duplicate(result));
+        return false;
+    }
+
+    /**
+     * Resolver la llamada y recordar el resultado para los reintentos con su clave
+     */
+    void resolve(PluginCall call, JSObject result) {
+        String key = call.getString(OPTION);
+        Entry entry = key != null ? entries.get(key) : null;
+        List<PluginCall> waiters = null;
+        if (entry != null) {
+            synchronized (entry) {
+                entry.result = result;
+                waiters = entry.waiters;
+                entry.waiters = null;
+            }
+        }
+        call.resolve(result);
+        if (waiters != null) {
+            for (PluginCall waiter : waiters) {
+                waiter.resolve(duplicate(result));
+            }
+        }
+    }
+
+    /**
+     * Rechazar la llamada
+     * @param sent ya salieron bytes a la impresora: se recuerda el rechazo y los
+     *             reintentos con la clave lo reciben sin reimprimir; si no, la clave
+     *             se libera y el próximo intento imprime
+     */
+    void reject(PluginCall call, String message, String code, boolean sent) {
+        String key = call.getString(OPTION);
+        Entry entry = key != null ? entries.get(key) : null;
+        List<PluginCall> waiters = null;
+        if (entry != null) {
+            synchronized (entry) {
+                if (sent) {
+                    entry.errorCode = code;
+                    entry.error = message;
+                } else {
+                    entry.failed = true;
+                }
+                waiters = entry.waiters;
+                entry.waiters = null;
+            }
+            if (!sent) {
+                entries.remove(key, entry);
+            }
+        }
+        reject(call, message, code, sent, waiters);
+    }
+
+    /**
+     * Rechazar la llamada y liberar la clave: el próximo intento imprime
+     */
+    void reject(PluginCall call, String message, String code) {
+        reject(call, message, code, false);
+    }
+
+    void reject(PluginCall call, String message) {
+        reject(call, message, null, false);
+    }
+
+    /**
+     * Tarea de impresión de la llamada: si se escapa una RuntimeException (p. ej.
+     * base64 inválido) se rechaza y se libera la clave, en vez de dejarla en curso
+     */
+    Runnable guard(PluginCall call, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Print task failed: " + e.getMessage(), e);
+                reject(call, "Failed to print: " + e.getMessage(), null, false);
+            }
+        };
+    }
+
+    /**
+     * El rechazo lleva data.sent: JS reintenta solo si es false (no salió nada)
+     */
+    /**
+     * Lo mismo que guard para una tarea asíncrona del carril (executeAsync): además de
+     * rechazar y liberar la clave, llama a done para no dejar el carril tomado
+     */
+    PrinterLaneDispatcher.AsyncTask guard(PluginCall call, PrinterLaneDispatcher.AsyncTask task) {
+        return done -> {
+            try {
+                task.run(done);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Print task failed: " + e.getMessage(), e);
+                done.run();
+                reject(call, "Failed to print: " + e.getMessage(), null, false);
+            }
+        };
+    }
+
+    private static void reject(PluginCall call, String message, String code, boolean sent, List<PluginCall> waiters) {
+        JSObject data = new JSObject();
+        data.put("sent", sent);
+        call.reject(message, code, data);
+        if (waiters != null) {
+            for (PluginCall waiter : waiters) {
+                reject(waiter, message, code, sent, null);
+            }
+        }
+    }
+
+    /**
+     * Descartar lo vencido y, si se pasa de maxEntries, lo más viejo ya resuelto
+     */
+    private void trim(long now) {
+        // Cada vuelta sale o descarta la cabeza de la cola (order.size() no es O(1))
+        while (true) {
+            String key = order.peek();
+            if (key == null) {
+                return;
+            }
+            Entry entry = entries.get(key);
+            boolean expired = entry == null || now - entry.createdAt > ttlMs;
+            if (!expired && (entries.size() <= maxEntries || !entry.settled())) {
+                return;
+            }
+            order.poll();
+            if (entry != null) {
+                entries.remove(key, entry);
+            }
+        }
+    }
+
+    private static JSObject duplicate(JSObject result) {
+        JSObject copy = new JSObject();
+        Iterator<String> keys = result.keys();
+        while (keys.hasNext()) {
+            String name = keys.next();
+            copy.put(name, result.opt(name));
+        }
+        copy.put("duplicate", true);
+        return copy;
+    }
+}
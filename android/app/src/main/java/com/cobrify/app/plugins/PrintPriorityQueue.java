@@ -0,0 +1,248 @@
+package com.cobrify.app.plugins;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cola de trabajos de una impresora con clases de prioridad y envejecimiento.
+ *
+ * Clases: boleta del cliente en caja > comanda de cocina > precuenta > reportes
+ * y reimpresiones. Sale primero el trabajo de mejor rango efectivo:
+ *
+ *   rango = clase - espera / agingMs
+ *
+ * así un reporte que esperó 3·agingMs compite como una boleta recién llegada y
+ * nada espera para siempre. Dentro de una clase el orden es FIFO, por eso basta
+ * mirar la cabeza de cada clase (CLASS_COUNT comparaciones por poll).
+ *
+ * No reordena lo que ya está en curso: la cola solo decide qué trabajo sale
+ * cuando la impresora queda libre. No es thread-safe: la sincroniza su dueño
+ * (PrinterLaneDispatcher, PrintRouter). Las esperas se acumulan por clase en un
+ * Stats que pueden compartir varias colas; un trabajo que vuelve a la cola
+ * (requeue, p. ej. failover) conserva su antigüedad y cuenta una sola vez.
+ */
+final class PrintPriorityQueue<T> {
+
+    static final int CLASS_RECEIPT = 0;
+    static final int CLASS_KITCHEN = 1;
+    static final int CLASS_PREBILL = 2;
+    static final int CLASS_BACKGROUND = 3; // reportes, cierres de caja, reimpresiones, reintentos del spool
+    static final int CLASS_COUNT = 4;
+    // Sin tipo de documento: misma clase para todos, así lo que ya llegaba sin tipo sigue en FIFO
+    static final int CLASS_DEFAULT = CLASS_KITCHEN;
+    static final long DEFAULT_AGING_MS = 5000;
+    private static final String[] CLASS_NAMES = {"receipt", "kitchen", "prebill", "background"};
+
+    /**
+     * Clase de prioridad de un tipo de documento (los de PrintRouter)
+     */
+    static int classOf(String documentType) {
+        if (documentType == null) {
+            return CLASS_DEFAULT;
+        }
+        switch (documentType) {
+            case PrintRouter.TYPE_RECEIPT:
+                return CLASS_RECEIPT;
+            case PrintRouter.TYPE_KITCHEN:
+                return CLASS_KITCHEN;
+            case PrintRouter.TYPE_PREBILL:
+                return CLASS_PREBILL;
+            case PrintRouter.TYPE_REPORT:
+            case PrintRouter.TYPE_REPRINT:
+            case "background":
+                return CLASS_BACKGROUND;
+            default:
+                return CLASS_DEFAULT;
+        }
+    }
+
+    /**
+     * Configuración de envejecimiento y esperas por clase (thread-safe)
+     */
+    static final class Stats {
+        private volatile long agingMs = DEFAULT_AGING_MS;
+        private final int[] queued = new int[CLASS_COUNT];
+        private final long[] dequeued = new long[CLASS_COUNT];
+        private final long[] totalWaitMs = new long[CLASS_COUNT];
+        private final long[] maxWaitMs = new long[CLASS_COUNT];
+        private final long[] promoted = new long[CLASS_COUNT];
+
+        void setAging(Long agingMs) {
+            if (agingMs != null) {
+                this.agingMs = Math.max(250, agingMs);
+            }
+        }
+
+        long getAging() {
+            return agingMs;
+        }
+
+        private synchronized void added(int priority) {
+            queued[priority]++;
+        }
+
+        /**
+         * @param waitMs espera desde que el trabajo entró por primera vez
+         * @param addedWaitMs parte de esa espera que todavía no se sumó
+         * @param requeued ya había salido una vez: no se cuenta como otro trabajo
+         */
+        private synchronized void removed(int priority, long waitMs, long addedWaitMs, boolean aged, boolean requeued) {
+            queued[priority]--;
+            if (!requeued) {
+                dequeued[priority]++;
+            }
+            totalWaitMs[priority] += addedWaitMs;
+            maxWaitMs[priority] = Math.max(maxWaitMs[priority], waitMs);
+            if (aged) {
+                promoted[priority]++;
+            }
+        }
+
+        private synchronized void dropped(int priority, int count) {
+            queued[priority] -= count;
+        }
+
+        /**
+         * Una entrada por clase: queued, completed, avgWaitMs, maxWaitMs y promoted
+         * (veces que salió antes que un trabajo de mejor clase por envejecimiento)
+         */
+        synchronized JSONArray toJSONArray() {
+            JSONArray items = new JSONArray();
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                JSObject item = new JSObject();
+                item.put("priority", CLASS_NAMES[i]);
+                item.put("queued", queued[i]);
+                item.put("completed", dequeued[i]);
+                item.put("avgWaitMs", dequeued[i] > 0 ? totalWaitMs[i] / dequeued[i] : 0);
+                item.put("maxWaitMs", maxWaitMs[i]);
+                item.put("promoted", promoted[i]);
+                items.put(item);
+            }
+            return items;
+        }
+    }
+
+    private static final class Entry<T> {
+        final T item;
+        final long enqueuedAt;
+        final long addedAt;
+        final boolean requeued;
+
+        Entry(T item, long enqueuedAt, long addedAt, boolean requeued) {
+            this.item = item;
+            this.enqueuedAt = enqueuedAt;
+            this.addedAt = addedAt;
+            this.requeued = requeued;
+        }
+    }
+
+    private final Stats stats;
+    private final List<ArrayDeque<Entry<T>>> classes = new ArrayList<>(CLASS_COUNT);
+    private int size;
+
+    PrintPriorityQueue(Stats stats) {
+        this.stats = stats;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            classes.add(new ArrayDeque<Entry<T>>());
+        }
+    }
+
+    void add(T item, int priority) {
+        long now = System.currentTimeMillis();
+        add(new Entry<>(item, now, now, false), priority);
+    }
+
+    /**
+     * Volver a encolar un trabajo que ya salió una vez (p. ej. failover a otro
+     * destino): compite con su antigüedad original y en las estadísticas suma
+     * solo la espera nueva, sin contarse como otro trabajo
+     * @param enqueuedAt cuándo entró a la primera cola
+     */
+    void requeue(T item, int priority, long enqueuedAt) {
+        add(new Entry<>(item, enqueuedAt, System.currentTimeMillis(), true), priority);
+    }
+
+    private void add(Entry<T> entry, int priority) {
+        int clamped = Math.max(0, Math.min(CLASS_COUNT - 1, priority));
+        ArrayDeque<Entry<T>> queue = classes.get(clamped);
+        if (entry.requeued) {
+            // La clase sigue en orden de llegada: los más nuevos salen y vuelven detrás
+            ArrayDeque<Entry<T>> newer = new ArrayDeque<>();
+            while (!queue.isEmpty() && queue.peekLast().enqueuedAt > entry.enqueuedAt) {
+                newer.push(queue.pollLast());
+            }
+            queue.add(entry);
+            queue.addAll(newer);
+        } else {
+            queue.add(entry);
+        }
+        size++;
+        stats.added(clamped);
+    }
+
+    /**
+     * Sacar el trabajo de mejor rango efectivo (null si está vacía)
+     */
+    T poll() {
+        if (size == 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        double agingMs = stats.getAging();
+        int best = -1;
+        int highest = -1; // mejor clase con trabajos, para contar promociones
+        double bestRank = Double.MAX_VALUE;
+        long bestEnqueuedAt = Long.MAX_VALUE;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            Entry<T> head = classes.get(i).peek();
+            if (head == null) {
+                continue;
+            }
+            if (highest < 0) {
+                highest = i;
+            }
+            double rank = i - (now - head.enqueuedAt) / agingMs;
+            if (rank < bestRank || (rank == bestRank && head.enqueuedAt < bestEnqueuedAt)) {
+                best = i;
+                bestRank = rank;
+                bestEnqueuedAt = head.enqueuedAt;
+            }
+        }
+        Entry<T> entry = classes.get(best).poll();
+        size--;
+        stats.removed(best, now - entry.enqueuedAt, now - entry.addedAt, best != highest, entry.requeued);
+        return entry.item;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Trabajos en cola por clase (para las estadísticas de cada impresora)
+     */
+    JSObject describe() {
+        JSObject item = new JSObject();
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            item.put(CLASS_NAMES[i], classes.get(i).size());
+        }
+        return item;
+    }
+
+    void clear() {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            stats.dropped(i, classes.get(i).size());
+            classes.get(i).clear();
+        }
+        size = 0;
+    }
+}
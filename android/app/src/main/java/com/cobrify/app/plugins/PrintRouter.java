@@ -0,0 +1,500 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enrutador único de trabajos de impresión para todos los backends (PrintBackend).
+ *
+ * - Cada tipo de documento (receipt, kitchen, prebill, report, ...) tiene una
+ *   ruta: una lista ordenada de destinos, p. ej. la impresora WiFi de caja y como
+ *   respaldo la interna del iMin. JS hace una sola llamada por documento.
+ * - Una cola por destino con un trabajo en curso a la vez: el router decide qué
+ *   sale y cuándo, los backends solo ejecutan. El siguiente se elige por clase de
+ *   prioridad con envejecimiento (ver PrintPriorityQueue); el que está en curso
+ *   nunca se interrumpe.
+ * - Failover: si el destino no está disponible al momento de despachar (circuito
+ *   abierto, ver PrinterCircuitBreaker) o el trabajo falla antes de enviar un solo
+ *   byte (no conectó, impresora no lista), pasa al siguiente destino de su ruta sin
+ *   volver a JS. Un error durante o después del envío vuelve a JS: el ticket pudo
+ *   salir impreso y en el respaldo saldría dos veces. Los bytes se decodifican una
+ *   sola vez.
+ * - El spool persistente solo se usa en el último destino: un trabajo anotado en
+ *   el spool de la impresora caída y además impreso en el respaldo saldría dos veces.
+ *
+ * Los plugins registran su backend en load() (PrintRouter.get().register).
+ */
+final class PrintRouter {
+
+    private static final String TAG = "PrintRouter";
+    static final String TYPE_RECEIPT = "receipt";
+    static final String TYPE_KITCHEN = "kitchen";
+    static final String TYPE_PREBILL = "prebill";
+    static final String TYPE_REPORT = "report";
+    static final String TYPE_REPRINT = "reprint";
+    static final String TYPE_OTHER = "other";
+    static final String CODE_NO_ROUTE = "NO_ROUTE";
+    static final String CODE_INVALID_JOB = "INVALID_JOB";
+
+    private static PrintRouter instance;
+
+    /**
+     * Destino de un trabajo: backend + impresora
+     */
+    static final class Target {
+        final String backend;
+        final String ip;
+        final int port;
+        final String key;
+
+        Target(String backend, String ip, int port) {
+            this.backend = backend;
+            this.ip = ip;
+            this.port = port;
+            this.key = PrintBackend.BACKEND_TCP.equals(backend) ? PrinterConnectionPool.key(ip, port) : backend;
+        }
+
+        /**
+         * { type: "tcp", ip, port? } o { type: "internal" }
+         */
+        static Target parse(JSONObject json) {
+            if (json == null) {
+                throw new IllegalArgumentException("Printer target is required");
+            }
+            String type = json.optString("type", PrintBackend.BACKEND_TCP);
+            if (PrintBackend.BACKEND_INTERNAL.equals(type)) {
+                return new Target(PrintBackend.BACKEND_INTERNAL, null, 0);
+            }
+            if (!PrintBackend.BACKEND_TCP.equals(type)) {
+                throw new IllegalArgumentException("Unknown printer type: " + type);
+            }
+            String ip = json.optString("ip", "");
+            if (ip.isEmpty()) {
+                throw new IllegalArgumentException("Printer ip is required");
+            }
+            return new Target(PrintBackend.BACKEND_TCP, ip, json.optInt("port", 9100));
+        }
+
+        static List<Target> parseList(JSONArray array) {
+            List<Target> targets = new ArrayList<>();
+            if (array != null) {
+                for (int i = 0; i < array.length(); i++) {
+                    targets.add(parse(array.optJSONObject(i)));
+                }
+            }
+            return targets;
+        }
+
+        JSObject toJSObject() {
+            JSObject item = new JSObject();
+            item.put("type", backend);
+            if (ip != null) {
+                item.put("ip", ip);
+                item.put("port", port);
+            }
+            return item;
+        }
+    }
+
+    /**
+     * Los datos del trabajo no se pueden decodificar: ningún destino lo puede imprimir
+     */
+    static final class InvalidJobException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        InvalidJobException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Un documento a imprimir y los destinos que le quedan por probar
+     */
+    static final class Job {
+        final long id;
+        final String documentType;
+        final String documentId;
+        final int priority; // PrintPriorityQueue.CLASS_*
+        final int copies;
+        final String copyMarker;
+        final String copyLabel;
+        final boolean spool;
+        final long createdAt;
+        private final String base64Data;
+        private final boolean optimize;
+        private final List<Target> candidates;
+        private final PrintBackend.Callback callback;
+        private byte[] data; // decodificado la primera vez que un backend lo pide
+        private int decodedLength;
+        private int next;
+        private boolean queued; // ya pasó por la cola de un destino
+        private final List<String> failures = new ArrayList<>();
+
+        Job(long id, String documentType, String documentId, int priority, String base64Data, boolean optimize, int copies,
+            String copyMarker, String copyLabel, boolean spool, List<Target> candidates, PrintBackend.Callback callback) {
+            this.id = id;
+            this.documentType = documentType;
+            this.documentId = documentId;
+            this.priority = priority;
+            this.base64Data = base64Data;
+            this.optimize = optimize;
+            this.copies = copies;
+            this.copyMarker = copyMarker;
+            this.copyLabel = copyLabel;
+            this.spool = spool;
+            this.candidates = candidates;
+            this.callback = callback;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Bytes ESC/POS del trabajo; se decodifican (y optimizan) una sola vez aunque haya failover
+         */
+        synchronized byte[] data() {
+            if (data == null) {
+                byte[] decoded;
+                try {
+                    decoded = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
+                } catch (IllegalArgumentException e) {
+                    throw new InvalidJobException("Invalid print data: " + e.getMessage(), e);
+                }
+                decodedLength = decoded.length;
+                data = optimize ? EscPosOptimizer.optimize(decoded) : decoded;
+            }
+            return data;
+        }
+
+        synchronized int bytesSaved() {
+            return data != null ? decodedLength - data.length : 0;
+        }
+
+        synchronized void addFailure(String failure) {
+            failures.add(failure);
+        }
+
+        synchronized boolean failedOver() {
+            return !failures.isEmpty();
+        }
+
+        /**
+         * Marcar que entra a una cola; true si ya había entrado a otra (failover)
+         */
+        synchronized boolean markQueued() {
+            boolean requeued = queued;
+            queued = true;
+            return requeued;
+        }
+
+        synchronized String lastFailure() {
+            return failures.isEmpty() ? null : failures.get(failures.size() - 1);
+        }
+    }
+
+    /**
+     * Cola de un destino: un trabajo en curso a la vez, el siguiente por prioridad
+     */
+    private static final class TargetQueue {
+        final Target target;
+        final PrintPriorityQueue<Job> queue;
+        boolean busy;
+        long completed;
+        long failed;
+        long failovers;
+
+        TargetQueue(Target target, PrintPriorityQueue.Stats waitStats) {
+            this.target = target;
+            this.queue = new PrintPriorityQueue<>(waitStats);
+        }
+    }
+
+    private final ConcurrentHashMap<String, PrintBackend> backends = new ConcurrentHashMap<>();
+    private final Map<String, TargetQueue> queues = new LinkedHashMap<>();
+    // Espera en cola por clase de prioridad, de todos los destinos
+    private final PrintPriorityQueue.Stats waitStats = new PrintPriorityQueue.Stats();
+    private volatile Map<String, List<Target>> routes = Collections.emptyMap();
+    private volatile boolean failover = true;
+    private final AtomicLong ids = new AtomicLong();
+
+    static synchronized PrintRouter get() {
+        if (instance == null) {
+            instance = new PrintRouter();
+        }
+        return instance;
+    }
+
+    void register(PrintBackend backend) {
+        backends.put(backend.getName(), backend);
+    }
+
+    void unregister(PrintBackend backend) {
+        backends.remove(backend.getName(), backend);
+    }
+
+    /**
+     * Reemplazar las rutas: { receipt: [destino, respaldo, ...], kitchen: [...], ... }
+     */
+    void setRoutes(JSONObject json, Boolean failover) {
+        if (json != null) {
+            Map<String, List<Target>> parsed = new HashMap<>();
+            Iterator<String> types = json.keys();
+            while (types.hasNext()) {
+                String type = types.next();
+                parsed.put(type, Target.parseList(json.optJSONArray(type)));
+            }
+            routes = parsed;
+        }
+        if (failover != null) {
+            this.failover = failover;
+        }
+    }
+
+    /**
+     * Destinos para un tipo de documento: los explícitos del trabajo o los de su ruta
+     */
+    List<Target> candidates(String documentType, List<Target> explicit) {
+        List<Target> targets = explicit != null && !explicit.isEmpty() ? explicit : routes.get(documentType);
+        if (targets == null || targets.isEmpty()) {
+            targets = routes.get(TYPE_OTHER);
+        }
+        if (targets == null) {
+            return Collections.emptyList();
+        }
+        return failover ? targets : targets.subList(0, Math.min(1, targets.size()));
+    }
+
+    void setAging(Long agingMs) {
+        waitStats.setAging(agingMs);
+    }
+
+    long nextId() {
+        return ids.incrementAndGet();
+    }
+
+    /**
+     * Encolar un trabajo en su primer destino disponible
+     */
+    void submit(Job job) {
+        if (job.candidates.isEmpty()) {
+            job.callback.onError("No printer route for document type " + job.documentType, CODE_NO_ROUTE, true);
+            return;
+        }
+        route(job, null);
+    }
+
+    /**
+     * Pasar el trabajo al siguiente destino de su ruta (o fallar si no queda ninguno)
+     */
+    private void route(Job job, String lastCode) {
+        Target target = nextTarget(job);
+        if (target == null) {
+            String failure = job.lastFailure();
+            job.callback.onError(failure != null ? "Failed to print: " + failure : "No printer backend available", lastCode, true);
+            return;
+        }
+        boolean start;
+        TargetQueue queue;
+        synchronized (this) {
+            queue = queues.get(target.key);
+            if (queue == null) {
+                queue = new TargetQueue(target, waitStats);
+                queues.put(target.key, queue);
+            }
+            if (job.markQueued()) {
+                // Failover: conserva el envejecimiento de la primera cola
+                queue.queue.requeue(job, job.priority, job.createdAt);
+            } else {
+                queue.queue.add(job, job.priority);
+            }
+            start = !queue.busy;
+            if (start) {
+                queue.busy = true;
+            }
+        }
+        if (start) {
+            dispatch(queue);
+        }
+    }
+
+    /**
+     * Siguiente destino con backend registrado. Se prefiere uno disponible; si
+     * ninguno lo está se usa el primero, que rechaza o difiere según su backend.
+     */
+    private Target nextTarget(Job job) {
+        Target fallback = null;
+        synchronized (job) {
+            while (job.next < job.candidates.size()) {
+                Target target = job.candidates.get(job.next++);
+                PrintBackend backend = backends.get(target.backend);
+                if (backend == null) {
+                    job.addFailure(target.key + ": backend not loaded");
+                    continue;
+                }
+                if (backend.isAvailable(target)) {
+                    return target;
+                }
+                job.addFailure(target.key + ": unavailable");
+                if (fallback == null) {
+                    fallback = target;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    private static boolean hasMoreTargets(Job job) {
+        synchronized (job) {
+            return job.next < job.candidates.size();
+        }
+    }
+
+    /**
+     * Sacar el siguiente trabajo de la cola del destino y pasarlo a su backend
+     */
+    private void dispatch(TargetQueue queue) {
+        Target target = queue.target;
+        Job job;
+        PrintBackend backend;
+        while (true) {
+            synchronized (this) {
+                job = queue.queue.poll();
+                if (job == null) {
+                    queue.busy = false;
+                    return;
+                }
+            }
+            backend = backends.get(target.backend);
+            if (backend != null && (backend.isAvailable(target) || !hasMoreTargets(job))) {
+                break;
+            }
+            // El destino se cayó mientras el trabajo esperaba: directo al respaldo
+            synchronized (this) {
+                queue.failovers++;
+            }
+            Log.w(TAG, "Job " + job.id + " (" + job.documentType + "): " + target.key + " unavailable, failing over");
+            job.addFailure(target.key + ": unavailable");
+            route(job, PrinterCircuitBreaker.CODE_OFFLINE);
+        }
+
+        boolean last = !hasMoreTargets(job);
+        final Job current = job;
+        try {
+            backend.submit(job, target, job.spool && last, new PrintBackend.Callback() {
+                @Override
+                public void onResult(JSObject result) {
+                    synchronized (PrintRouter.this) {
+                        queue.completed++;
+                    }
+                    result.put("printer", target.toJSObject());
+                    result.put("documentType", current.documentType);
+                    result.put("routerJobId", current.id);
+                    result.put("failedOver", current.failedOver());
+                    result.put("routedMs", System.currentTimeMillis() - current.createdAt);
+                    result.put("bytesSaved", current.bytesSaved());
+                    current.callback.onResult(result);
+                    dispatch(queue);
+                }
+
+                @Override
+                public void onError(String message, String code, boolean retryable) {
+                    onFailure(queue, current, message, code, retryable);
+                }
+
+                @Override
+                public void onInvalid(String message) {
+                    onInvalidJob(queue, current, message);
+                }
+            });
+        } catch (InvalidJobException e) {
+            onInvalidJob(queue, current, e.getMessage());
+        } catch (RuntimeException e) {
+            // El backend no aceptó el trabajo (no llegó a su cola): no salió nada
+            onFailure(queue, current, e.getMessage(), null, true);
+        }
+    }
+
+    /**
+     * Datos inválidos: no se prueba otro destino (fallaría igual) y no cuenta como enviado
+     */
+    private void onInvalidJob(TargetQueue queue, Job job, String message) {
+        synchronized (this) {
+            queue.failed++;
+        }
+        job.addFailure(queue.target.key + ": " + message);
+        Log.w(TAG, "Job " + job.id + " (" + job.documentType + ") rejected: " + message);
+        job.callback.onInvalid(message);
+        dispatch(queue);
+    }
+
+    /**
+     * Solo se pasa al siguiente destino si el trabajo no llegó a salir (retryable)
+     */
+    private void onFailure(TargetQueue queue, Job job, String message, String code, boolean retryable) {
+        boolean retry = retryable && hasMoreTargets(job);
+        synchronized (this) {
+            queue.failed++;
+            if (retry) {
+                queue.failovers++;
+            }
+        }
+        job.addFailure(queue.target.key + ": " + message);
+        if (retry) {
+            Log.w(TAG, "Job " + job.id + " (" + job.documentType + ") failed on " + queue.target.key
+                + ", failing over: " + message);
+            route(job, code);
+        } else {
+            job.callback.onError(message, code, retryable);
+        }
+        dispatch(queue);
+    }
+
+    synchronized JSObject stats() {
+        JSObject result = new JSObject();
+        JSONArray items = new JSONArray();
+        for (TargetQueue queue : queues.values()) {
+            JSObject item = queue.target.toJSObject();
+            item.put("queued", queue.queue.size());
+            item.put("queuedByPriority", queue.queue.describe());
+            item.put("busy", queue.busy);
+            item.put("completed", queue.completed);
+            item.put("failed", queue.failed);
+            item.put("failovers", queue.failovers);
+            PrintBackend backend = backends.get(queue.target.backend);
+            item.put("available", backend != null && backend.isAvailable(queue.target));
+            items.put(item);
+        }
+        result.put("printers", items);
+
+        JSObject routeList = new JSObject();
+        for (Map.Entry<String, List<Target>> entry : routes.entrySet()) {
+            JSONArray targets = new JSONArray();
+            for (Target target : entry.getValue()) {
+                targets.put(target.toJSObject());
+            }
+            routeList.put(entry.getKey(), targets);
+        }
+        result.put("routes", routeList);
+        result.put("failover", failover);
+        result.put("priorities", waitStats.toJSONArray());
+        result.put("agingMs", waitStats.getAging());
+        JSONArray names = new JSONArray();
+        for (String name : backends.keySet()) {
+            names.put(name);
+        }
+        result.put("backends", names);
+        return result;
+    }
+}
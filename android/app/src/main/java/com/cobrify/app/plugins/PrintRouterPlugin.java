@@ -0,0 +1,145 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plugin Capacitor del enrutador de impresión (ver PrintRouter): una llamada por
+ * documento, el plugin elige la impresora según el tipo de documento y pasa a la
+ * de respaldo (p. ej. la interna del iMin) si la de red está caída.
+ */
+@CapacitorPlugin(name = "PrintRouter")
+public class PrintRouterPlugin extends Plugin {
+
+    private static final String TAG = "PrintRouterPlugin";
+    private static final int MAX_COPIES = 10;
+
+    // idempotencyKey → resultado del trabajo original (reintentos de JS no reimprimen)
+    private final PrintIdempotency idempotency = new PrintIdempotency();
+
+    /**
+     * Configurar las rutas por tipo de documento
+     * @param call - Parámetros: routes (Object: { receipt: [{ type: "tcp", ip, port? }, { type: "internal" }],
+     *             kitchen: [...], prebill: [...], report: [...], other: [...] }; "other" es la ruta por
+     *             defecto), failover (boolean, opcional, default true: probar los destinos siguientes)
+     */
+    @PluginMethod
+    public void setRoutes(PluginCall call) {
+        try {
+            PrintRouter.get().setRoutes(call.getObject("routes"), call.getBoolean("failover"));
+        } catch (IllegalArgumentException e) {
+            call.reject("Invalid routes: " + e.getMessage());
+            return;
+        }
+        JSObject result = PrintRouter.get().stats();
+        result.put("success", true);
+        call.resolve(result);
+    }
+
+    /**
+     * Imprimir un documento por su ruta
+     * @param call - Parámetros: data (String base64), documentType (String: receipt | kitchen | prebill |
+     *             report | reprint | other, default other), documentId (String, opcional: guardar para
+     *             reprint), copies (int, opcional), copyMarker / copyLabel (String, opcionales: ver
+     *             EscPosCopies), optimize (boolean, opcional, default false: ver EscPosOptimizer),
+     *             spool (boolean, opcional: solo en el último destino de la ruta),
+     *             printers (Array, opcional: destinos explícitos en vez de la ruta),
+     *             priority (String, opcional: receipt | kitchen | prebill | background; por defecto
+     *             la del documentType, ver PrintPriorityQueue),
+     *             idempotencyKey (String, opcional: ver PrintIdempotency)
+     * El resultado trae printer (destino que imprimió), failedOver y routedMs.
+     */
+    @PluginMethod
+    public void print(PluginCall call) {
+        String base64Data = call.getString("data");
+        String documentType = call.getString("documentType", PrintRouter.TYPE_OTHER);
+
+        if (base64Data == null || base64Data.isEmpty()) {
+            call.reject("Print data is required");
+            return;
+        }
+
+        PrintRouter router = PrintRouter.get();
+        List<PrintRouter.Target> explicit = Collections.emptyList();
+        try {
+            if (call.getArray("printers") != null) {
+                explicit = PrintRouter.Target.parseList(call.getArray("printers"));
+            }
+        } catch (IllegalArgumentException e) {
+            call.reject("Invalid printers: " + e.getMessage());
+            return;
+        }
+
+        if (!idempotency.begin(call)) {
+            return;
+        }
+
+        PrintRouter.Job job = new PrintRouter.Job(
+            router.nextId(),
+            documentType,
+            call.getString("documentId"),
+            PrintPriorityQueue.classOf(call.getString("priority", documentType)),
+            base64Data,
+            call.getBoolean("optimize", false),
+            Math.max(1, Math.min(call.getInt("copies", 1), MAX_COPIES)),
+            call.getString("copyMarker"),
+            call.getString("copyLabel"),
+            call.getBoolean("spool", false),
+            router.candidates(documentType, explicit),
+            new PrintBackend.Callback() {
+                @Override
+                public void onResult(JSObject result) {
+                    idempotency.resolve(call, result);
+                }
+
+                @Override
+                public void onError(String message, String code, boolean retryable) {
+                    Log.w(TAG, "Routed " + documentType + " failed: " + message);
+                    // Sin respaldo posible = pudo salir parte del ticket: el reintento no reimprime
+                    idempotency.reject(call, message, code, !retryable);
+                }
+
+                @Override
+                public void onInvalid(String message) {
+                    Log.w(TAG, "Routed " + documentType + " rejected: " + message);
+                    // No salió nada: se libera la clave
+                    idempotency.reject(call, message, PrintRouter.CODE_INVALID_JOB, false);
+                }
+            });
+        router.submit(job);
+    }
+
+    /**
+     * Ajustar la planificación de los trabajos en cola
+     * @param call - Parámetros: agingMs (int, opcional, default 5000: cada cuánto un trabajo en
+     *             espera sube una clase de prioridad)
+     */
+    @PluginMethod
+    public void setSchedulerOptions(PluginCall call) {
+        Integer agingMs = call.getInt("agingMs");
+        PrintRouter.get().setAging(agingMs != null ? Long.valueOf(agingMs) : null);
+
+        JSObject result = PrintRouter.get().stats();
+        result.put("success", true);
+        call.resolve(result);
+    }
+
+    /**
+     * Estado del enrutador: rutas, backends cargados, cola de cada destino y
+     * espera por clase de prioridad
+     */
+    @PluginMethod
+    public void getRouterStats(PluginCall call) {
+        JSObject result = PrintRouter.get().stats();
+        result.put("success", true);
+        call.resolve(result);
+    }
+}
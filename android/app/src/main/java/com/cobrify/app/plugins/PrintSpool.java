@@ -0,0 +1,522 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Cola de impresión persistente (spool) en disco.
+ *
+ * Cada trabajo se anota en un diario de solo-agregado antes de enviarse; al
+ * terminar se anota su cierre. Si la impresora falla, el trabajo se reintenta con
+ * backoff exponencial + jitter, y si Android mata la app los pendientes se
+ * recuperan con recover() en el siguiente load() del plugin.
+ *
+ * enqueue / markDone solo anotan el registro en memoria: un hilo escritor propio
+ * los agrega al diario y los sincroniza a disco (fsync) en grupo cada
+ * GROUP_COMMIT_MS, y ahí mismo compacta el diario. El fsync y la compactación
+ * corren fuera del lock del spool, así que los carriles de impresión nunca los
+ * esperan. La entrega es "al menos una vez": si la app muere justo entre imprimir
+ * y sincronizar el cierre, el trabajo se vuelve a imprimir al recuperar.
+ */
+final class PrintSpool {
+
+    private static final String TAG = "PrintSpool";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte RECORD_ENQUEUE = 'E';
+    private static final byte RECORD_DONE = 'D';
+    private static final byte RECORD_DROP = 'X';
+
+    private static final long GROUP_COMMIT_MS = 10;
+    private static final int COMPACT_AFTER_RECORDS = 64;
+    static final int DEFAULT_MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60000;
+
+    /**
+     * Trabajo en el spool. target identifica el destino ("ip:port" o "internal").
+     */
+    static final class Job {
+        final String id;
+        final String target;
+        final byte[] data;
+        final int copies;
+        final long createdAt;
+        int attempts;
+        long nextAttemptAt;
+        String lastError;
+
+        Job(String id, String target, byte[] data, int copies, long createdAt) {
+            this.id = id;
+            this.target = target;
+            this.data = data;
+            this.copies = copies;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * Lo implementa el plugin: volver a intentar un trabajo en su propio hilo/carril
+     */
+    interface Delegate {
+        void retry(Job job);
+    }
+
+    /**
+     * Registro pendiente de escribir en el diario
+     */
+    private static final class Record {
+        final byte type;
+        final Job job;
+
+        Record(byte type, Job job) {
+            this.type = type;
+            this.job = job;
+        }
+    }
+
+    private final File journal;
+    private final Delegate delegate;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // Hilo escritor del diario (group commit y compactación)
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, Job> pending = new LinkedHashMap<>();
+    private final Random random = new Random();
+    private final int maxAttempts;
+
+    // Bajo el lock del spool
+    private List<Record> unwritten = new ArrayList<>();
+    private boolean commitScheduled;
+    private boolean compactRequested;
+    private int closedRecords;
+
+    // Solo los toca quien tiene fileLock (el hilo escritor, o shutdown al final).
+    // Orden de locks: fileLock y después el del spool, nunca al revés.
+    private final Object fileLock = new Object();
+    private FileOutputStream fileOutput;
+    private DataOutputStream output;
+
+    PrintSpool(File directory, String name, int maxAttempts, Delegate delegate) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create spool directory " + directory);
+        }
+        this.journal = new File(directory, name + ".journal");
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.delegate = delegate;
+    }
+
+    /**
+     * Leer el diario y devolver los trabajos que quedaron pendientes (p.ej. la app
+     * murió o la impresora estaba caída). El hilo escritor compacta después el
+     * diario a solo esos trabajos.
+     *
+     * Puede correr después de que un carril ya anotó trabajos nuevos: lo del diario
+     * se suma a pending sin pisar lo que ya está en memoria, y no se devuelve lo
+     * anotado (o cerrado) en esta sesión, que ya tiene su propio intento en curso.
+     * Lee con fileLock para no cruzarse con el hilo escritor.
+     */
+    List<Job> recover() {
+        Map<String, Job> journaled = new LinkedHashMap<>();
+        synchronized (fileLock) {
+            long validLength = 0;
+            if (journal.exists()) {
+                DataInputStream input = null;
+                try {
+                    input = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+                    while (true) {
+                        long recordLength = readRecord(input, journaled);
+                        if (recordLength < 0) {
+                            break;
+                        }
+                        validLength += recordLength;
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Error reading spool journal: " + e.getMessage());
+                } finally {
+                    closeQuietly(input);
+                }
+                if (validLength < journal.length()) {
+                    Log.w(TAG, "Spool journal has a torn tail, discarding " + (journal.length() - validLength) + " bytes");
+                }
+            }
+
+            List<Job> recovered = new ArrayList<>();
+            synchronized (this) {
+                for (Record record : unwritten) {
+                    if (record.type != RECORD_ENQUEUE) {
+                        journaled.remove(record.job.id);
+                    }
+                }
+                for (Job job : journaled.values()) {
+                    if (!pending.containsKey(job.id)) {
+                        pending.put(job.id, job);
+                        recovered.add(job);
+                    }
+                }
+                compactRequested = true;
+                scheduleCommit();
+            }
+
+            Log.d(TAG, "Recovered " + recovered.size() + " pending print jobs from " + journal.getName());
+            return recovered;
+        }
+    }
+
+    /**
+     * Anotar un trabajo nuevo en el diario (lo escribe el hilo escritor; un error de
+     * disco ahí se registra en el log y no frena la impresión)
+     */
+    synchronized Job enqueue(String target, byte[] data, int copies) {
+        Job job = new Job(UUID.randomUUID().toString(), target, data, copies, System.currentTimeMillis());
+        pending.put(job.id, job);
+        unwritten.add(new Record(RECORD_ENQUEUE, job));
+        scheduleCommit();
+        return job;
+    }
+
+    /**
+     * El trabajo se imprimió: cerrarlo en el diario
+     */
+    synchronized void markDone(Job job) {
+        close(job, RECORD_DONE);
+    }
+
+    /**
+     * El intento falló con bytes ya enviados: el ticket pudo salir, así que se
+     * cierra con el error en vez de reintentarlo (se imprimiría dos veces)
+     */
+    synchronized void markSent(Job job, String error) {
+        job.attempts++;
+        job.lastError = error;
+        close(job, RECORD_DROP);
+    }
+
+    /**
+     * El intento falló: programar reintento con backoff exponencial + jitter.
+     * @return false si se agotaron los intentos (el trabajo se descarta)
+     */
+    boolean scheduleRetry(Job job, String error) {
+        long delay;
+        synchronized (this) {
+            job.attempts++;
+            job.lastError = error;
+            if (!pending.containsKey(job.id)) {
+                return false;
+            }
+            if (job.attempts >= maxAttempts) {
+                close(job, RECORD_DROP);
+                delay = -1;
+            } else {
+                long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(job.attempts - 1, 16));
+                delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+                job.nextAttemptAt = System.currentTimeMillis() + delay;
+            }
+        }
+
+        if (delay < 0) {
+            Log.w(TAG, "Giving up on job " + job.id + " after " + job.attempts + " attempts: " + error);
+            return false;
+        }
+
+        Log.d(TAG, "Retrying job " + job.id + " to " + job.target + " in " + delay + " ms (attempt " + job.attempts + ")");
+        try {
+            scheduler.schedule(() -> {
+                if (isPending(job.id)) {
+                    delegate.retry(job);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.e(TAG, "Spool is shut down, job " + job.id + " will be retried on next start");
+        }
+        return true;
+    }
+
+    /**
+     * Cancelar un trabajo pendiente
+     */
+    synchronized boolean cancel(String id) {
+        Job job = pending.get(id);
+        if (job == null) {
+            return false;
+        }
+        close(job, RECORD_DROP);
+        return true;
+    }
+
+    synchronized boolean isPending(String id) {
+        return pending.containsKey(id);
+    }
+
+    synchronized List<Job> pendingJobs() {
+        return new ArrayList<>(pending.values());
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (fileLock) {
+            // Lo que quedó sin escribir (el hilo escritor ya no corre)
+            commit();
+            closeQuietly(output);
+            output = null;
+            fileOutput = null;
+        }
+    }
+
+    private void close(Job job, byte type) {
+        if (pending.remove(job.id) == null) {
+            return;
+        }
+        unwritten.add(new Record(type, job));
+        closedRecords++;
+        if (closedRecords >= COMPACT_AFTER_RECORDS) {
+            compactRequested = true;
+        }
+        scheduleCommit();
+    }
+
+    /**
+     * Agrupa los fsync: la primera escritura programa un commit en el hilo escritor
+     * y las que lleguen en los siguientes GROUP_COMMIT_MS (o mientras corre el
+     * fsync anterior) se sincronizan con el mismo fsync.
+     */
+    private void scheduleCommit() {
+        if (commitScheduled) {
+            return;
+        }
+        commitScheduled = true;
+        try {
+            writer.schedule(() -> {
+                synchronized (fileLock) {
+                    commit();
+                }
+            }, GROUP_COMMIT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Spool apagado: shutdown ya escribió lo pendiente
+            commitScheduled = false;
+        }
+    }
+
+    /**
+     * Escribir y sincronizar los registros pendientes, o compactar si se pidió.
+     * Corre con fileLock tomado; el lock del spool solo para sacar el lote.
+     */
+    private void commit() {
+        List<Record> batch;
+        List<Job> snapshot = null;
+        synchronized (this) {
+            commitScheduled = false;
+            batch = unwritten;
+            unwritten = new ArrayList<>();
+            if (compactRequested) {
+                // La foto de pending ya incluye (o descarta) todo lo del lote
+                compactRequested = false;
+                closedRecords = 0;
+                snapshot = new ArrayList<>(pending.values());
+            }
+        }
+
+        if (snapshot != null) {
+            try {
+                rewrite(snapshot);
+                return;
+            } catch (IOException e) {
+                Log.e(TAG, "Error compacting spool journal: " + e.getMessage());
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            ensureOpen();
+            for (Record record : batch) {
+                if (record.type == RECORD_ENQUEUE) {
+                    writeEnqueue(output, record.job);
+                } else {
+                    writeClose(output, record.type, record.job.id);
+                }
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing spool journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compactar: reescribir el diario solo con los trabajos pendientes
+     */
+    private void rewrite(List<Job> jobs) throws IOException {
+        closeQuietly(output);
+        output = null;
+        fileOutput = null;
+
+        File temp = new File(journal.getParentFile(), journal.getName() + ".tmp");
+        FileOutputStream tempFile = new FileOutputStream(temp, false);
+        DataOutputStream tempOutput = new DataOutputStream(new BufferedOutputStream(tempFile));
+        try {
+            for (Job job : jobs) {
+                writeEnqueue(tempOutput, job);
+            }
+            tempOutput.flush();
+            tempFile.getFD().sync();
+        } finally {
+            closeQuietly(tempOutput);
+        }
+        if (!temp.renameTo(journal)) {
+            throw new IOException("Could not replace " + journal.getName());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (output == null) {
+            fileOutput = new FileOutputStream(journal, true);
+            output = new DataOutputStream(new BufferedOutputStream(fileOutput, 64 * 1024));
+        }
+    }
+
+    /**
+     * Formato de registro: tipo(1) | longitud cuerpo(4) | cuerpo | crc32 cuerpo(4)
+     * Cuerpo de 'E': id | destino | creado(8) | copias(4) | longitud datos(4) | datos
+     * Cuerpo de 'D'/'X': id
+     */
+    private static void writeEnqueue(DataOutputStream out, Job job) throws IOException {
+        byte[] id = job.id.getBytes(UTF8);
+        byte[] target = job.target.getBytes(UTF8);
+        int bodyLength = 2 + id.length + 2 + target.length + 8 + 4 + 4 + job.data.length;
+
+        CRC32 crc = new CRC32();
+        out.writeByte(RECORD_ENQUEUE);
+        out.writeInt(bodyLength);
+        writeBlock(out, crc, id);
+        writeBlock(out, crc, target);
+        byte[] created = longBytes(job.createdAt);
+        out.write(created);
+        crc.update(created);
+        byte[] copies = intBytes(job.copies);
+        out.write(copies);
+        crc.update(copies);
+        byte[] length = intBytes(job.data.length);
+        out.write(length);
+        crc.update(length);
+        out.write(job.data);
+        crc.update(job.data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeClose(DataOutputStream out, byte type, String jobId) throws IOException {
+        byte[] id = jobId.getBytes(UTF8);
+        CRC32 crc = new CRC32();
+        out.writeByte(type);
+        out.writeInt(2 + id.length);
+        writeBlock(out, crc, id);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeBlock(DataOutputStream out, CRC32 crc, byte[] block) throws IOException {
+        byte[] length = new byte[]{(byte) (block.length >>> 8), (byte) block.length};
+        out.write(length);
+        crc.update(length);
+        out.write(block);
+        crc.update(block);
+    }
+
+    /**
+     * Leer un registro y aplicarlo a jobs.
+     * @return bytes consumidos, o -1 al final del diario o ante un registro truncado/corrupto
+     */
+    private static long readRecord(DataInputStream input, Map<String, Job> jobs) throws IOException {
+        int type = input.read();
+        if (type < 0) {
+            return -1;
+        }
+        try {
+            int bodyLength = input.readInt();
+            if (bodyLength < 2 || bodyLength > 64 * 1024 * 1024) {
+                return -1;
+            }
+            byte[] body = new byte[bodyLength];
+            input.readFully(body);
+            int storedCrc = input.readInt();
+
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != storedCrc) {
+                return -1;
+            }
+
+            DataInputStream bodyInput = new DataInputStream(new ByteArrayInputStream(body));
+            String id = new String(readBlock(bodyInput), UTF8);
+            if (type == RECORD_ENQUEUE) {
+                String target = new String(readBlock(bodyInput), UTF8);
+                long createdAt = bodyInput.readLong();
+                int copies = bodyInput.readInt();
+                byte[] data = new byte[bodyInput.readInt()];
+                bodyInput.readFully(data);
+                jobs.put(id, new Job(id, target, data, copies, createdAt));
+            } else if (type == RECORD_DONE || type == RECORD_DROP) {
+                jobs.remove(id);
+            } else {
+                return -1;
+            }
+            return 1 + 4 + bodyLength + 4;
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] readBlock(DataInputStream input) throws IOException {
+        byte[] block = new byte[input.readUnsignedShort()];
+        input.readFully(block);
+        return block;
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static byte[] longBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,74 @@
+package com.cobrify.app.plugins;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Capacidades detectadas por impresora ("ip:puerto" o "internal"), guardadas en
+ * SharedPreferences: se sondean una sola vez y no en cada ticket.
+ */
+final class PrinterCapabilities {
+
+    private static final String PREFS_NAME = "printer_capabilities";
+    private static final String QR_PREFIX = "qr:";
+
+    static final String INTERNAL = "internal";
+
+    private static PrinterCapabilities instance;
+
+    private final SharedPreferences prefs;
+
+    private PrinterCapabilities(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    static synchronized PrinterCapabilities get(Context context) {
+        if (instance == null) {
+            instance = new PrinterCapabilities(
+                context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return instance;
+    }
+
+    /**
+     * ¿La impresora imprime QR nativo (GS ( k)? null = no se sabe (no se sondeó, no se
+     * pudo sondear o venció el no del sondeo). El no que fija JS (setPrinterCapabilities)
+     * no vence; el del sondeo sí (setNoNativeQr), así se vuelve a probar cada tanto.
+     */
+    Boolean nativeQr(String printer) {
+        if (INTERNAL.equals(printer)) {
+            return true;
+        }
+        String value = prefs.getString(QR_PREFIX + printer, null);
+        if (value == null) {
+            return null;
+        }
+        int separator = value.indexOf(':');
+        if (separator < 0) {
+            return Boolean.valueOf(value);
+        }
+        // "false:<vence>": no respondió al sondeo
+        try {
+            return Long.parseLong(value.substring(separator + 1)) > System.currentTimeMillis() ? false : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Guardar que la impresora no respondió al sondeo de QR: raster hasta que venza ttlMs
+     */
+    void setNoNativeQr(String printer, long ttlMs) {
+        prefs.edit().putString(QR_PREFIX + printer, "false:" + (System.currentTimeMillis() + ttlMs)).apply();
+    }
+
+    void setNativeQr(String printer, Boolean supported) {
+        SharedPreferences.Editor editor = prefs.edit();
+        if (supported == null) {
+            editor.remove(QR_PREFIX + printer);
+        } else {
+            editor.putString(QR_PREFIX + printer, supported.toString());
+        }
+        editor.apply();
+    }
+}
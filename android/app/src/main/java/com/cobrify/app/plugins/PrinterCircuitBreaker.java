@@ -0,0 +1,271 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker por impresora ("ip:port").
+ *
+ * - closed: los trabajos pasan normalmente.
+ * - open: tras threshold trabajos fallidos seguidos (PrinterLinkStats). Los
+ *   trabajos se rechazan al instante (o quedan en el spool) sin gastar el timeout
+ *   de conexión, y en segundo plano se programa un sondeo.
+ * - halfOpen: el sondeo está en curso: un connect TCP y close, sin enviar nada.
+ *   Si conecta el circuito se cierra y se corta la racha de fallos del enlace (el
+ *   próximo trabajo vuelve a los timeouts normales); si no, vuelve a open y el
+ *   próximo sondeo espera el doble (hasta MAX_PROBE_INTERVAL_MS). Solo el primer
+ *   sondeo de cada apertura se avisa como halfOpen: los siguientes no generan
+ *   eventos hasta que el circuito se cierra.
+ *
+ * Un trabajo exitoso por otra vía (p. ej. connect de la conexión persistente)
+ * también cierra el circuito. Cada cambio de estado se avisa al Listener.
+ */
+final class PrinterCircuitBreaker implements PrinterLinkStats.Listener {
+
+    private static final String TAG = "PrinterCircuitBreaker";
+    static final String STATE_CLOSED = "closed";
+    static final String STATE_OPEN = "open";
+    static final String STATE_HALF_OPEN = "halfOpen";
+    static final String CODE_OFFLINE = "PRINTER_OFFLINE";
+    static final int DEFAULT_THRESHOLD = 3;
+    static final long DEFAULT_PROBE_INTERVAL_MS = 2000;
+    private static final long MAX_PROBE_INTERVAL_MS = 30000;
+    private static final int PROBE_TIMEOUT = 1000;
+
+    interface Listener {
+        void onStateChange(String key, String state, String previous, int failureStreak, String error);
+    }
+
+    private static final class Circuit {
+        String state = STATE_CLOSED;
+        int failureStreak;
+        String lastError;
+        long openedAt;
+        long probeInterval;
+        int probes;
+        int generation; // cada apertura tiene su propia cadena de sondeos
+    }
+
+    private final PrinterLinkStats links;
+    private final Listener listener;
+    private final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor();
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+    private volatile int threshold = DEFAULT_THRESHOLD;
+    private volatile long probeIntervalMs = DEFAULT_PROBE_INTERVAL_MS;
+
+    PrinterCircuitBreaker(PrinterLinkStats links, Listener listener) {
+        this.links = links;
+        this.listener = listener;
+        links.setListener(this);
+    }
+
+    void configure(Boolean enabled, Integer threshold, Long probeIntervalMs) {
+        if (threshold != null) {
+            this.threshold = Math.max(1, threshold);
+        }
+        if (probeIntervalMs != null) {
+            this.probeIntervalMs = Math.max(250, probeIntervalMs);
+        }
+        if (enabled != null) {
+            this.enabled = enabled;
+            if (!enabled) {
+                for (String key : circuits.keySet()) {
+                    close(key);
+                }
+            }
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    long getProbeInterval() {
+        return probeIntervalMs;
+    }
+
+    /**
+     * ¿Se puede intentar un trabajo a esta impresora?
+     */
+    boolean allows(String key) {
+        Circuit circuit = circuits.get(key);
+        if (circuit == null) {
+            return true;
+        }
+        synchronized (circuit) {
+            return STATE_CLOSED.equals(circuit.state);
+        }
+    }
+
+    /**
+     * Rechazo inmediato para un circuito abierto (mismo manejo que sin papel / tapa abierta)
+     */
+    void check(String key) throws PrinterStatus.PrinterStatusException {
+        if (!allows(key)) {
+            throw new PrinterStatus.PrinterStatusException(CODE_OFFLINE, "Printer " + key + " is offline", null);
+        }
+    }
+
+    /**
+     * Agregar el estado del circuito a las estadísticas de una impresora
+     */
+    void describe(String key, JSObject item) {
+        Circuit circuit = circuits.get(key);
+        if (circuit == null) {
+            item.put("circuit", STATE_CLOSED);
+            return;
+        }
+        synchronized (circuit) {
+            item.put("circuit", circuit.state);
+            if (!STATE_CLOSED.equals(circuit.state)) {
+                item.put("openedAt", circuit.openedAt);
+                item.put("probes", circuit.probes);
+                item.put("nextProbeMs", circuit.probeInterval);
+            }
+        }
+    }
+
+    @Override
+    public void onFailure(String key, int failureStreak, String error) {
+        if (!enabled || failureStreak < threshold) {
+            return;
+        }
+        Circuit circuit = circuit(key);
+        int generation;
+        synchronized (circuit) {
+            circuit.failureStreak = failureStreak;
+            circuit.lastError = error;
+            if (!STATE_CLOSED.equals(circuit.state)) {
+                return;
+            }
+            circuit.state = STATE_OPEN;
+            circuit.openedAt = System.currentTimeMillis();
+            circuit.probeInterval = probeIntervalMs;
+            circuit.probes = 0;
+            generation = ++circuit.generation;
+        }
+        Log.w(TAG, "Circuit opened for " + key + " after " + failureStreak + " failures: " + error);
+        notifyChange(key, STATE_OPEN, STATE_CLOSED, failureStreak, error);
+        scheduleProbe(key, generation, probeIntervalMs);
+    }
+
+    @Override
+    public void onSuccess(String key) {
+        close(key);
+    }
+
+    void shutdown() {
+        prober.shutdownNow();
+    }
+
+    private void close(String key) {
+        Circuit circuit = circuits.get(key);
+        if (circuit == null) {
+            return;
+        }
+        String previous;
+        synchronized (circuit) {
+            previous = circuit.state;
+            if (STATE_CLOSED.equals(previous)) {
+                return;
+            }
+            circuit.state = STATE_CLOSED;
+            circuit.failureStreak = 0;
+        }
+        Log.d(TAG, "Circuit closed for " + key);
+        notifyChange(key, STATE_CLOSED, previous, 0, null);
+    }
+
+    private void scheduleProbe(String key, int generation, long delayMs) {
+        try {
+            prober.schedule(() -> probe(key, generation), delayMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Breaker apagado (plugin destruido)
+        }
+    }
+
+    /**
+     * Sondeo en segundo plano: abrir y cerrar un socket, sin enviar bytes
+     */
+    private void probe(String key, int generation) {
+        Circuit circuit = circuits.get(key);
+        if (circuit == null) {
+            return;
+        }
+        boolean announce;
+        synchronized (circuit) {
+            if (!STATE_OPEN.equals(circuit.state) || circuit.generation != generation) {
+                return;
+            }
+            circuit.state = STATE_HALF_OPEN;
+            announce = ++circuit.probes == 1;
+        }
+        if (announce) {
+            notifyChange(key, STATE_HALF_OPEN, STATE_OPEN, circuit.failureStreak, circuit.lastError);
+        }
+
+        int separator = key.lastIndexOf(':');
+        String ip = key.substring(0, separator);
+        int port = Integer.parseInt(key.substring(separator + 1));
+        Socket socket = new Socket();
+        try {
+            long start = System.currentTimeMillis();
+            socket.connect(links.address(ip, port), PROBE_TIMEOUT);
+            links.recordConnect(key, System.currentTimeMillis() - start);
+            links.recordReachable(key);
+            Log.d(TAG, "Probe to " + key + " succeeded");
+            close(key);
+        } catch (IOException e) {
+            long next;
+            synchronized (circuit) {
+                if (!STATE_HALF_OPEN.equals(circuit.state)) {
+                    return;
+                }
+                circuit.state = STATE_OPEN;
+                circuit.lastError = e.getMessage();
+                circuit.probeInterval = Math.min(MAX_PROBE_INTERVAL_MS, circuit.probeInterval * 2);
+                next = circuit.probeInterval;
+            }
+            Log.d(TAG, "Probe to " + key + " failed, next in " + next + " ms: " + e.getMessage());
+            if (announce) {
+                notifyChange(key, STATE_OPEN, STATE_HALF_OPEN, circuit.failureStreak, e.getMessage());
+            }
+            scheduleProbe(key, generation, next);
+        } finally {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private Circuit circuit(String key) {
+        Circuit circuit = circuits.get(key);
+        if (circuit == null) {
+            Circuit created = new Circuit();
+            circuit = circuits.putIfAbsent(key, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    private void notifyChange(String key, String state, String previous, int failureStreak, String error) {
+        try {
+            listener.onStateChange(key, state, previous, failureStreak, error);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "State listener failed: " + e.getMessage());
+        }
+    }
+}
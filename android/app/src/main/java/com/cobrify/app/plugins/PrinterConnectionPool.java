@@ -0,0 +1,253 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool de conexiones TCP por impresora, indexado por "ip:port".
+ *
+ * Mantiene el socket abierto unos segundos después de cada trabajo para que las
+ * ráfagas (comanda de cocina + bar + boleta) no paguen un handshake por ticket.
+ * Las impresoras térmicas atienden una sola conexión a la vez: otra terminal que
+ * intente imprimir queda esperando en el backlog hasta que soltemos el socket,
+ * por eso el tiempo ocioso es corto y configurable, y con 0 se vuelve al
+ * comportamiento anterior (cerrar al terminar cada trabajo).
+ *
+ * Los timeouts y la dirección de cada impresora salen de PrinterLinkStats.
+ */
+final class PrinterConnectionPool {
+
+    private static final String TAG = "PrinterConnectionPool";
+    static final long DEFAULT_IDLE_TIMEOUT_MS = 2000;
+    private static final int ALIVE_CHECK_TIMEOUT = 1; // ms
+
+    /**
+     * Conexión prestada por el pool. Quien la obtiene con acquire() la usa en
+     * exclusiva hasta devolverla con release() o descartarla con discard().
+     */
+    static final class Connection {
+        final String key;
+        final Socket socket;
+        final OutputStream outputStream;
+        boolean reused;
+        long lastUsed;
+
+        private Connection(String key, Socket socket) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.outputStream = socket.getOutputStream();
+        }
+    }
+
+    private final Map<String, Connection> idle = new HashMap<>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor();
+    private final PrinterLinkStats links;
+    private volatile long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private long hits;
+    private long misses;
+
+    PrinterConnectionPool(PrinterLinkStats links) {
+        this.links = links;
+    }
+
+    static String key(String ip, int port) {
+        return ip + ":" + port;
+    }
+
+    void setIdleTimeout(long idleTimeoutMs) {
+        this.idleTimeoutMs = Math.max(0, idleTimeoutMs);
+        if (this.idleTimeoutMs == 0) {
+            evictAll();
+        }
+    }
+
+    long getIdleTimeout() {
+        return idleTimeoutMs;
+    }
+
+    /**
+     * Obtener una conexión a la impresora: reutiliza la ociosa si sigue viva,
+     * si no abre una nueva.
+     */
+    Connection acquire(String ip, int port) throws IOException {
+        String key = key(ip, port);
+        Connection cached;
+        synchronized (this) {
+            cached = idle.remove(key);
+        }
+
+        if (cached != null) {
+            if (isAlive(cached)) {
+                synchronized (this) {
+                    hits++;
+                }
+                cached.reused = true;
+                return cached;
+            }
+            Log.d(TAG, "Idle connection to " + key + " is stale, reconnecting");
+            closeQuietly(cached.socket);
+        }
+
+        synchronized (this) {
+            misses++;
+        }
+
+        Socket socket = new Socket();
+        try {
+            long connectStart = System.currentTimeMillis();
+            socket.connect(links.address(ip, port), links.connectTimeout(key));
+            links.recordConnect(key, System.currentTimeMillis() - connectStart);
+            PrinterLinkStats.configure(socket);
+            socket.setSoTimeout(links.socketTimeout(key));
+            return new Connection(key, socket);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Devolver la conexión al pool tras un trabajo exitoso. Se cierra en el acto
+     * si el pool está deshabilitado o si ya hay otra ociosa para la misma impresora.
+     */
+    void release(Connection connection) {
+        long timeout = idleTimeoutMs;
+        if (timeout <= 0 || connection.socket.isClosed()) {
+            closeQuietly(connection.socket);
+            return;
+        }
+
+        final long stamp = System.currentTimeMillis();
+        connection.lastUsed = stamp;
+
+        Connection previous;
+        synchronized (this) {
+            previous = idle.put(connection.key, connection);
+        }
+        if (previous != null && previous.socket != connection.socket) {
+            closeQuietly(previous.socket);
+        }
+
+        try {
+            evictor.schedule(() -> evictIfIdle(connection.key, stamp), timeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Pool apagado: no guardar conexiones
+            evict(connection.key);
+        }
+    }
+
+    /**
+     * Cerrar una conexión que falló o que no debe volver al pool.
+     */
+    void discard(Connection connection) {
+        closeQuietly(connection.socket);
+    }
+
+    /**
+     * Cerrar la conexión ociosa de una impresora (si la hay), p.ej. antes de abrir
+     * una conexión persistente hacia ella.
+     */
+    void evict(String key) {
+        Connection connection;
+        synchronized (this) {
+            connection = idle.remove(key);
+        }
+        if (connection != null) {
+            closeQuietly(connection.socket);
+            Log.d(TAG, "Evicted idle connection to " + key);
+        }
+    }
+
+    void evictAll() {
+        List<Connection> connections;
+        synchronized (this) {
+            connections = new ArrayList<>(idle.values());
+            idle.clear();
+        }
+        for (Connection connection : connections) {
+            closeQuietly(connection.socket);
+        }
+    }
+
+    synchronized int idleCount() {
+        return idle.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    void shutdown() {
+        evictor.shutdownNow();
+        evictAll();
+    }
+
+    private void evictIfIdle(String key, long stamp) {
+        Connection connection;
+        synchronized (this) {
+            connection = idle.get(key);
+            if (connection == null || connection.lastUsed != stamp) {
+                return;
+            }
+            idle.remove(key);
+        }
+        closeQuietly(connection.socket);
+        Log.d(TAG, "Idle timeout, released connection to " + key);
+    }
+
+    /**
+     * Una conexión ociosa puede haber sido cerrada por la impresora (reinicio,
+     * timeout propio, o firmware que suelta al cliente anterior cuando conecta
+     * otra terminal). Un read con timeout mínimo distingue: -1 = cerrada,
+     * timeout = viva. Los bytes de estado automático (ASB) que lleguen se descartan.
+     */
+    private boolean isAlive(Connection connection) {
+        Socket socket = connection.socket;
+        if (socket.isClosed() || !socket.isConnected() || socket.isOutputShutdown()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - connection.lastUsed > idleTimeoutMs) {
+            return false;
+        }
+        try {
+            InputStream input = socket.getInputStream();
+            socket.setSoTimeout(ALIVE_CHECK_TIMEOUT);
+            try {
+                while (input.available() > 0) {
+                    if (input.read() < 0) {
+                        return false;
+                    }
+                }
+                return input.read() >= 0;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(links.socketTimeout(connection.key));
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+}
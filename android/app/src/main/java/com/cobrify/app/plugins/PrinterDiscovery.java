@@ -0,0 +1,323 @@
+package com.cobrify.app.plugins;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Búsqueda de impresoras en la red local: connect no bloqueantes a todo el
+ * rango (por defecto el /24 del dispositivo) con concurrencia acotada y timeout
+ * corto, sobre un solo Selector. Un barrido de 254 hosts con 64 conexiones en
+ * vuelo y 400 ms de timeout termina en ~2 s.
+ *
+ * A cada impresora encontrada se le pide fabricante y modelo con GS I 66 / GS I 67
+ * (respuesta "_" + texto + NUL en Epson y compatibles); las que no responden
+ * se reportan sin modelo.
+ */
+final class PrinterDiscovery {
+
+    static final int DEFAULT_CONCURRENCY = 64;
+    static final int DEFAULT_TIMEOUT = 400;
+    private static final int IDENTIFY_TIMEOUT = 500;
+    private static final int MIN_PREFIX = 22; // como máximo 1022 hosts por barrido
+
+    // GS I 66 (fabricante), GS I 67 (modelo)
+    private static final byte[] IDENTIFY = {0x1D, 0x49, 0x42, 0x1D, 0x49, 0x43};
+
+    private static final int CONNECTING = 0;
+    private static final int IDENTIFYING = 1;
+
+    interface Listener {
+        void onFound(Result result);
+    }
+
+    static final class Result {
+        final String ip;
+        final int port;
+        final long latencyMs;
+        String manufacturer;
+        String model;
+
+        Result(String ip, int port, long latencyMs) {
+            this.ip = ip;
+            this.port = port;
+            this.latencyMs = latencyMs;
+        }
+    }
+
+    private static final class Probe {
+        final String ip;
+        final int port;
+        final SocketChannel channel;
+        final long startedAt;
+        long deadline;
+        int phase = CONNECTING;
+        Result result;
+        ByteBuffer reply;
+
+        Probe(String ip, int port, SocketChannel channel, long startedAt, long deadline) {
+            this.ip = ip;
+            this.port = port;
+            this.channel = channel;
+            this.startedAt = startedAt;
+            this.deadline = deadline;
+        }
+    }
+
+    private PrinterDiscovery() {}
+
+    /**
+     * CIDR de la red WiFi/Ethernet del dispositivo (reducido a /24 alrededor de su IP
+     * si la red es más grande), o null si no hay una red IPv4 privada.
+     */
+    static String localCidr() throws IOException {
+        for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                continue;
+            }
+            for (InterfaceAddress address : networkInterface.getInterfaceAddresses()) {
+                InetAddress inet = address.getAddress();
+                if (inet instanceof Inet4Address && inet.isSiteLocalAddress()) {
+                    int prefix = Math.max(24, address.getNetworkPrefixLength());
+                    return inet.getHostAddress() + "/" + prefix;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hosts de un rango CIDR (sin dirección de red ni broadcast)
+     * @throws IllegalArgumentException si el CIDR no es válido o es demasiado grande
+     */
+    static List<String> hosts(String cidr) {
+        int slash = cidr.indexOf('/');
+        String[] parts = (slash < 0 ? cidr : cidr.substring(0, slash)).split("\\.");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+        }
+        int prefix;
+        int base = 0;
+        try {
+            prefix = slash < 0 ? 32 : Integer.parseInt(cidr.substring(slash + 1));
+            for (String part : parts) {
+                int octet = Integer.parseInt(part);
+                if (octet < 0 || octet > 255) {
+                    throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+                }
+                base = (base << 8) | octet;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+        }
+        if (prefix < MIN_PREFIX || prefix > 32) {
+            throw new IllegalArgumentException("CIDR prefix must be between /" + MIN_PREFIX + " and /32");
+        }
+
+        List<String> hosts = new ArrayList<>();
+        if (prefix >= 31) {
+            hosts.add(toIp(base));
+            return hosts;
+        }
+        int mask = -1 << (32 - prefix);
+        int network = base & mask;
+        int broadcast = network | ~mask;
+        for (int address = network + 1; address < broadcast; address++) {
+            hosts.add(toIp(address));
+        }
+        return hosts;
+    }
+
+    /**
+     * Barrer hosts × puertos. Bloquea hasta terminar; cada hallazgo se informa al
+     * listener apenas se identifica.
+     */
+    static List<Result> scan(List<String> hosts, int[] ports, int concurrency, int timeoutMs, boolean identify,
+                             Listener listener) throws IOException {
+        List<Result> found = new ArrayList<>();
+        Selector selector = Selector.open();
+        int inFlight = 0;
+        int next = 0;
+        int total = hosts.size() * ports.length;
+
+        try {
+            while (next < total || inFlight > 0) {
+                // Abrir conexiones hasta el límite de concurrencia
+                while (inFlight < concurrency && next < total) {
+                    String ip = hosts.get(next / ports.length);
+                    int port = ports[next % ports.length];
+                    next++;
+                    SelectionKey started = startProbe(selector, ip, port, timeoutMs);
+                    if (started == null) {
+                        continue;
+                    }
+                    inFlight++;
+                    Probe probe = (Probe) started.attachment();
+                    if (probe.result != null) {
+                        // Conectó en el mismo connect: OP_CONNECT no se dispara para un canal ya conectado
+                        try {
+                            inFlight -= connected(started, probe, identify, found, listener);
+                        } catch (IOException e) {
+                            inFlight -= finish(started, probe, found, listener);
+                        }
+                    }
+                }
+
+                selector.select(Math.max(1, nearestDeadline(selector) - System.currentTimeMillis()));
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Probe probe = (Probe) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isConnectable()) {
+                            if (!probe.channel.finishConnect()) {
+                                continue;
+                            }
+                            probe.result = new Result(probe.ip, probe.port, System.currentTimeMillis() - probe.startedAt);
+                            inFlight -= connected(key, probe, identify, found, listener);
+                        } else if (key.isReadable()) {
+                            int read = probe.channel.read(probe.reply);
+                            boolean complete = parseIdentity(probe);
+                            if (read < 0 || complete || !probe.reply.hasRemaining()) {
+                                inFlight -= finish(key, probe, found, listener);
+                            }
+                        }
+                    } catch (IOException e) {
+                        // Conexión rechazada o cortada: si ya conectó, igual es una impresora
+                        inFlight -= finish(key, probe, found, listener);
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                // Plazos vencidos
+                long now = System.currentTimeMillis();
+                for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                    Probe probe = (Probe) key.attachment();
+                    if (key.isValid() && now >= probe.deadline) {
+                        if (probe.phase == IDENTIFYING) {
+                            parseIdentity(probe);
+                        }
+                        inFlight -= finish(key, probe, found, listener);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try { key.channel().close(); } catch (IOException ignored) {}
+            }
+            selector.close();
+        }
+        return found;
+    }
+
+    /**
+     * Abrir la conexión de una sonda. Si connect conecta en el acto (poco común, p. ej.
+     * la propia IP) la sonda vuelve con result puesto y sin OP_CONNECT: la sigue scan.
+     * @return la clave registrada, o null si no se pudo abrir
+     */
+    private static SelectionKey startProbe(Selector selector, String ip, int port, int timeoutMs) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            long now = System.currentTimeMillis();
+            Probe probe = new Probe(ip, port, channel, now, now + timeoutMs);
+            boolean immediate = channel.connect(new InetSocketAddress(ip, port));
+            if (immediate) {
+                probe.result = new Result(ip, port, System.currentTimeMillis() - now);
+            }
+            return channel.register(selector, immediate ? 0 : SelectionKey.OP_CONNECT, probe);
+        } catch (IOException e) {
+            if (channel != null) {
+                try { channel.close(); } catch (IOException ignored) {}
+            }
+            return null;
+        }
+    }
+
+    /**
+     * La sonda conectó (result ya puesto): pedir identificación o terminar.
+     * Devuelve las conexiones en vuelo liberadas (0 o 1).
+     */
+    private static int connected(SelectionKey key, Probe probe, boolean identify, List<Result> found,
+                                 Listener listener) throws IOException {
+        if (!identify) {
+            return finish(key, probe, found, listener);
+        }
+        probe.phase = IDENTIFYING;
+        probe.reply = ByteBuffer.allocate(128);
+        probe.deadline = System.currentTimeMillis() + IDENTIFY_TIMEOUT;
+        probe.channel.write(ByteBuffer.wrap(IDENTIFY));
+        key.interestOps(SelectionKey.OP_READ);
+        return 0;
+    }
+
+    /**
+     * Cerrar la sonda e informar si llegó a conectar. Devuelve 1 (conexiones en vuelo liberadas).
+     */
+    private static int finish(SelectionKey key, Probe probe, List<Result> found, Listener listener) {
+        key.cancel();
+        try { probe.channel.close(); } catch (IOException ignored) {}
+        if (probe.result != null) {
+            found.add(probe.result);
+            if (listener != null) {
+                listener.onFound(probe.result);
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Leer las respuestas "_texto\0" recibidas hasta ahora. Devuelve true si ya
+     * llegaron fabricante y modelo.
+     */
+    private static boolean parseIdentity(Probe probe) {
+        byte[] bytes = probe.reply.array();
+        int length = probe.reply.position();
+        List<String> blocks = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == 0x5F && start < 0) {
+                start = i + 1;
+            } else if (bytes[i] == 0x00 && start >= 0) {
+                blocks.add(new String(bytes, start, i - start, StandardCharsets.US_ASCII).trim());
+                start = -1;
+            }
+        }
+        if (blocks.size() > 0) {
+            probe.result.manufacturer = blocks.get(0);
+        }
+        if (blocks.size() > 1) {
+            probe.result.model = blocks.get(1);
+        }
+        return blocks.size() >= 2;
+    }
+
+    private static long nearestDeadline(Selector selector) {
+        long nearest = System.currentTimeMillis() + DEFAULT_TIMEOUT;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                nearest = Math.min(nearest, ((Probe) key.attachment()).deadline);
+            }
+        }
+        return nearest;
+    }
+
+    private static String toIp(int address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "."
+            + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+}
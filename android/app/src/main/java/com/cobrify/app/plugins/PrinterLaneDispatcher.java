@@ -0,0 +1,267 @@
+package com.cobrify.app.plugins;
+
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Despacho de trabajos de impresión con un carril serial por impresora ("ip:port").
+ *
+ * Los trabajos de una misma impresora se ejecutan en orden, uno a la vez; los de
+ * impresoras distintas corren en paralelo sobre un pool de hilos acotado. Así una
+ * impresora de cocina lenta o caída (timeouts de 5-10 s) no retrasa la boleta que
+ * va a la impresora de caja.
+ *
+ * Cada carril ejecuta un trabajo por turno y vuelve a la cola del pool si le quedan
+ * más, de modo que con más impresoras que hilos todas avanzan por turnos.
+ *
+ * Dentro de un carril los trabajos salen por clase de prioridad con envejecimiento
+ * (ver PrintPriorityQueue): la boleta de caja pasa delante de una reimpresión
+ * larga que todavía no empezó, pero nunca interrumpe la que está imprimiendo.
+ *
+ * Un trabajo asíncrono (executeAsync, p. ej. el transporte NIO) ocupa el carril
+ * hasta que avisa que terminó, pero no un hilo: el hilo vuelve al pool apenas
+ * entrega la E/S al selector.
+ */
+final class PrinterLaneDispatcher {
+
+    private static final String TAG = "PrinterLaneDispatcher";
+    static final int DEFAULT_MAX_THREADS = 4;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Trabajo que termina fuera del hilo del carril: debe llamar a done una vez
+     * (las llamadas de más se ignoran)
+     */
+    interface AsyncTask {
+        void run(Runnable done);
+    }
+
+    /**
+     * Estado de un carril en un momento dado (para getQueueStats)
+     */
+    static final class LaneStats {
+        final String key;
+        final int queued;
+        final boolean running;
+        final long completed;
+        final JSObject queuedByPriority;
+
+        LaneStats(String key, int queued, boolean running, long completed, JSObject queuedByPriority) {
+            this.key = key;
+            this.queued = queued;
+            this.running = running;
+            this.completed = completed;
+            this.queuedByPriority = queuedByPriority;
+        }
+    }
+
+    /**
+     * Cola serial de una impresora
+     */
+    private final class Lane implements Runnable {
+        final String key;
+        final PrintPriorityQueue<Runnable> queue = new PrintPriorityQueue<>(waitStats);
+        boolean scheduled;
+        boolean running;
+        long completed;
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            synchronized (PrinterLaneDispatcher.this) {
+                task = queue.poll();
+                if (task == null) {
+                    scheduled = false;
+                    return;
+                }
+                running = true;
+            }
+
+            if (task instanceof Async) {
+                ((Async) task).start(this);
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Log.e(TAG, "Unhandled error in lane " + key + ": " + t.getMessage(), t);
+            }
+            finish();
+        }
+
+        void finish() {
+            boolean more;
+            synchronized (PrinterLaneDispatcher.this) {
+                running = false;
+                completed++;
+                more = !queue.isEmpty();
+                if (!more) {
+                    scheduled = false;
+                }
+            }
+            if (more) {
+                submit(this);
+            }
+        }
+    }
+
+    /**
+     * Envoltorio de un AsyncTask en la cola del carril
+     */
+    private static final class Async implements Runnable {
+        final AsyncTask task;
+
+        Async(AsyncTask task) {
+            this.task = task;
+        }
+
+        void start(Lane lane) {
+            AtomicBoolean finished = new AtomicBoolean();
+            Runnable done = () -> {
+                if (finished.compareAndSet(false, true)) {
+                    lane.finish();
+                }
+            };
+            try {
+                task.run(done);
+            } catch (Throwable t) {
+                Log.e(TAG, "Unhandled error in lane " + lane.key + ": " + t.getMessage(), t);
+                done.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            throw new IllegalStateException("Async lane task run synchronously");
+        }
+    }
+
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    // Espera en cola por clase de prioridad, de todos los carriles
+    private final PrintPriorityQueue.Stats waitStats = new PrintPriorityQueue.Stats();
+    private final ThreadPoolExecutor workers;
+
+    PrinterLaneDispatcher(int maxThreads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "printer-lane-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        int threads = Math.max(1, maxThreads);
+        workers = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), factory);
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Encolar una tarea de control sin documento (conexión, estado, carriles
+     * auxiliares como #spool o #images): va como CLASS_BACKGROUND, así no cuenta
+     * como comanda de cocina en la espera por clase ni pasa delante de un ticket.
+     * Lo que escribe bytes a la impresora lleva su clase explícita.
+     */
+    void execute(String key, Runnable task) {
+        execute(key, PrintPriorityQueue.CLASS_BACKGROUND, task);
+    }
+
+    /**
+     * Encolar un trabajo con su clase de prioridad (PrintPriorityQueue.CLASS_*)
+     */
+    void execute(String key, int priority, Runnable task) {
+        Lane lane;
+        boolean start;
+        synchronized (this) {
+            lane = lanes.get(key);
+            if (lane == null) {
+                lane = new Lane(key);
+                lanes.put(key, lane);
+            }
+            lane.queue.add(task, priority);
+            start = !lane.scheduled;
+            if (start) {
+                lane.scheduled = true;
+            }
+        }
+        if (start) {
+            submit(lane);
+        }
+    }
+
+    /**
+     * Encolar un trabajo asíncrono: el siguiente del carril espera a que llame a done
+     */
+    void executeAsync(String key, int priority, AsyncTask task) {
+        execute(key, priority, new Async(task));
+    }
+
+    /**
+     * Cambiar el presupuesto total de hilos (todas las impresoras)
+     */
+    synchronized void setMaxThreads(int maxThreads) {
+        int threads = Math.max(1, maxThreads);
+        if (threads > workers.getMaximumPoolSize()) {
+            workers.setMaximumPoolSize(threads);
+            workers.setCorePoolSize(threads);
+        } else {
+            workers.setCorePoolSize(threads);
+            workers.setMaximumPoolSize(threads);
+        }
+    }
+
+    int getMaxThreads() {
+        return workers.getMaximumPoolSize();
+    }
+
+    int getActiveThreads() {
+        return workers.getActiveCount();
+    }
+
+    PrintPriorityQueue.Stats getWaitStats() {
+        return waitStats;
+    }
+
+    synchronized List<LaneStats> snapshot() {
+        List<LaneStats> stats = new ArrayList<>(lanes.size());
+        for (Lane lane : lanes.values()) {
+            stats.add(new LaneStats(lane.key, lane.queue.size(), lane.running, lane.completed, lane.queue.describe()));
+        }
+        return stats;
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            for (Lane lane : lanes.values()) {
+                lane.queue.clear();
+            }
+        }
+        workers.shutdown();
+    }
+
+    private void submit(Lane lane) {
+        try {
+            workers.execute(lane);
+        } catch (Exception e) {
+            Log.e(TAG, "Dispatcher is shut down, dropping lane " + lane.key);
+            synchronized (this) {
+                lane.scheduled = false;
+                lane.queue.clear();
+            }
+        }
+    }
+}
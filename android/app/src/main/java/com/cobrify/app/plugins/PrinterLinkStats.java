@@ -0,0 +1,265 @@
+package com.cobrify.app.plugins;
+
+import com.getcapacitor.JSObject;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estadísticas de enlace por impresora ("ip:port"): promedio móvil (EWMA) de la
+ * latencia de conexión y de escritura, y racha de fallos. Con eso cada impresora
+ * tiene sus propios timeouts en vez de los fijos de 5 s / 10 s:
+ *
+ * - Conexión: srtt + 4·desvío como en TCP (RFC 6298), con piso CONNECT_FLOOR
+ *   (cubre una retransmisión del SYN a 1 s). Sin muestras se usa el default.
+ * - Escritura / lectura de estado: 4 veces la escritura promedio de un trabajo,
+ *   entre SOCKET_FLOOR y el default.
+ * - Con FAILING_STREAK fallos seguidos la impresora se considera caída y ambos
+ *   bajan a FAILING_CONNECT_TIMEOUT / SOCKET_FLOOR: cada intento falla en unos
+ *   cientos de ms en vez de trabar el carril 5 s. Un trabajo exitoso (o un sondeo
+ *   del circuito que conecta) lo restablece.
+ *
+ * También guarda el InetSocketAddress ya resuelto de cada impresora; se descarta
+ * ante un fallo para volver a resolver (p. ej. un nombre .local que cambió de IP).
+ *
+ * Los fallos y éxitos de trabajos se avisan a un Listener (PrinterCircuitBreaker).
+ */
+final class PrinterLinkStats {
+
+    static final int CONNECT_FLOOR = 1200;
+    static final int FAILING_CONNECT_TIMEOUT = 400;
+    static final int SOCKET_FLOOR = 2000;
+    static final int FAILING_STREAK = 2;
+    private static final double ALPHA = 0.125; // peso de la muestra nueva (RFC 6298)
+    private static final double BETA = 0.25;   // peso de la muestra nueva en el desvío
+    private static final int DEVIATION_FACTOR = 4;
+    private static final int WRITE_FACTOR = 4;
+
+    /**
+     * Enlace de una impresora. Lo tocan los carriles, el hilo NIO y JS: métodos sincronizados.
+     */
+    static final class Link {
+        final String key;
+        private final String host;
+        private final int port;
+        private InetSocketAddress address;
+        private double connectMs;
+        private double connectDeviation;
+        private long connectSamples;
+        private double writeMs;
+        private double writeDeviation;
+        private long writeSamples;
+        private int failureStreak;
+        private long successes;
+        private long failures;
+        private long lastFailureAt;
+        private String lastError;
+
+        private Link(String key, String host, int port) {
+            this.key = key;
+            this.host = host;
+            this.port = port;
+        }
+
+        synchronized InetSocketAddress address() {
+            if (address == null || address.isUnresolved()) {
+                address = new InetSocketAddress(host, port);
+            }
+            return address;
+        }
+
+        synchronized int failureStreak() {
+            return failureStreak;
+        }
+
+        synchronized JSObject toJSObject() {
+            JSObject item = new JSObject();
+            item.put("printer", key);
+            item.put("connectMs", Math.round(connectMs));
+            item.put("connectSamples", connectSamples);
+            item.put("writeMs", Math.round(writeMs));
+            item.put("writeSamples", writeSamples);
+            item.put("failureStreak", failureStreak);
+            item.put("successes", successes);
+            item.put("failures", failures);
+            if (lastFailureAt > 0) {
+                item.put("lastFailureAt", lastFailureAt);
+                item.put("lastError", lastError);
+            }
+            return item;
+        }
+    }
+
+    /**
+     * Resultado de cada trabajo, fuera del lock del enlace
+     */
+    interface Listener {
+        void onFailure(String key, int failureStreak, String error);
+        void onSuccess(String key);
+    }
+
+    private final int defaultConnectTimeout;
+    private final int defaultSocketTimeout;
+    private final ConcurrentHashMap<String, Link> links = new ConcurrentHashMap<>();
+    private volatile Listener listener;
+
+    PrinterLinkStats(int defaultConnectTimeout, int defaultSocketTimeout) {
+        this.defaultConnectTimeout = defaultConnectTimeout;
+        this.defaultSocketTimeout = defaultSocketTimeout;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    Link link(String ip, int port) {
+        String key = PrinterConnectionPool.key(ip, port);
+        Link link = links.get(key);
+        if (link == null) {
+            Link created = new Link(key, ip, port);
+            link = links.putIfAbsent(key, created);
+            if (link == null) {
+                link = created;
+            }
+        }
+        return link;
+    }
+
+    /**
+     * Dirección de la impresora, resuelta una sola vez
+     */
+    InetSocketAddress address(String ip, int port) {
+        return link(ip, port).address();
+    }
+
+    int connectTimeout(String key) {
+        Link link = links.get(key);
+        if (link == null) {
+            return defaultConnectTimeout;
+        }
+        synchronized (link) {
+            if (link.failureStreak >= FAILING_STREAK) {
+                return FAILING_CONNECT_TIMEOUT;
+            }
+            if (link.connectSamples == 0) {
+                return defaultConnectTimeout;
+            }
+            long timeout = Math.round(link.connectMs + DEVIATION_FACTOR * link.connectDeviation);
+            return (int) Math.max(CONNECT_FLOOR, Math.min(timeout, defaultConnectTimeout));
+        }
+    }
+
+    int socketTimeout(String key) {
+        Link link = links.get(key);
+        if (link == null) {
+            return defaultSocketTimeout;
+        }
+        synchronized (link) {
+            if (link.failureStreak >= FAILING_STREAK) {
+                return SOCKET_FLOOR;
+            }
+            if (link.writeSamples == 0) {
+                return defaultSocketTimeout;
+            }
+            long timeout = Math.round(WRITE_FACTOR * (link.writeMs + DEVIATION_FACTOR * link.writeDeviation));
+            return (int) Math.max(SOCKET_FLOOR, Math.min(timeout, defaultSocketTimeout));
+        }
+    }
+
+    void recordConnect(String key, long elapsedMs) {
+        Link link = links.get(key);
+        if (link == null) {
+            return;
+        }
+        synchronized (link) {
+            if (link.connectSamples++ == 0) {
+                link.connectMs = elapsedMs;
+                link.connectDeviation = elapsedMs / 2.0;
+            } else {
+                link.connectDeviation = (1 - BETA) * link.connectDeviation + BETA * Math.abs(link.connectMs - elapsedMs);
+                link.connectMs = (1 - ALPHA) * link.connectMs + ALPHA * elapsedMs;
+            }
+        }
+    }
+
+    /**
+     * Trabajo completo: registra la escritura y corta la racha de fallos
+     * @param writeMs duración de la escritura (sin la conexión)
+     */
+    void recordSuccess(String key, long writeMs) {
+        Link link = links.get(key);
+        if (link == null) {
+            return;
+        }
+        synchronized (link) {
+            if (link.writeSamples++ == 0) {
+                link.writeMs = writeMs;
+                link.writeDeviation = writeMs / 2.0;
+            } else {
+                link.writeDeviation = (1 - BETA) * link.writeDeviation + BETA * Math.abs(link.writeMs - writeMs);
+                link.writeMs = (1 - ALPHA) * link.writeMs + ALPHA * writeMs;
+            }
+            link.failureStreak = 0;
+            link.successes++;
+        }
+        Listener current = listener;
+        if (current != null) {
+            current.onSuccess(key);
+        }
+    }
+
+    /**
+     * La impresora volvió a aceptar conexiones (sondeo del circuito): corta la racha
+     * de fallos sin contar un trabajo, así el próximo usa los timeouts normales y no
+     * los de impresora caída
+     */
+    void recordReachable(String key) {
+        Link link = links.get(key);
+        if (link == null) {
+            return;
+        }
+        synchronized (link) {
+            link.failureStreak = 0;
+        }
+    }
+
+    void recordFailure(String key, Exception error) {
+        Link link = links.get(key);
+        if (link == null) {
+            return;
+        }
+        int streak;
+        synchronized (link) {
+            streak = ++link.failureStreak;
+            link.failures++;
+            link.lastFailureAt = System.currentTimeMillis();
+            link.lastError = error.getMessage();
+            link.address = null;
+        }
+        Listener current = listener;
+        if (current != null) {
+            current.onFailure(key, streak, error.getMessage());
+        }
+    }
+
+    List<JSObject> snapshot() {
+        List<JSObject> items = new ArrayList<>();
+        for (Link link : links.values()) {
+            items.add(link.toJSObject());
+        }
+        return items;
+    }
+
+    /**
+     * Opciones de socket para tickets: sin Nagle (los comandos cortos como DLE EOT
+     * salen al instante) y keepalive para notar una impresora apagada en conexiones largas
+     */
+    static void configure(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+    }
+}
@@ -0,0 +1,184 @@
+package com.cobrify.app.plugins;
+
+import com.getcapacitor.JSObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Estado en tiempo real de una impresora ESC/POS (DLE EOT n).
+ *
+ * Se consulta sobre el mismo socket del trabajo, antes de enviar el ticket: una
+ * impresora sin papel o con la tapa abierta acepta bytes (o se queda colgada hasta
+ * el SOCKET_TIMEOUT) sin imprimir nada, y así el cajero se entera al instante.
+ * Las impresoras que no responden a DLE EOT quedan como "sin soporte" y no se
+ * vuelven a consultar por un rato, para no pagar el timeout en cada ticket.
+ */
+final class PrinterStatus {
+
+    // DLE EOT 1 (impresora), DLE EOT 2 (causa offline), DLE EOT 4 (sensor de papel)
+    private static final byte[] QUERY = {0x10, 0x04, 0x01, 0x10, 0x04, 0x02, 0x10, 0x04, 0x04};
+    // GS r 1 (sensor de papel): respaldo para impresoras que no atienden DLE EOT 4
+    private static final byte[] QUERY_PAPER_FALLBACK = {0x1D, 0x72, 0x01};
+    private static final int REPLY_LENGTH = 3;
+
+    static final PrinterStatus UNKNOWN = new PrinterStatus(false, false, false, false, false, false, 0);
+
+    final boolean responded;
+    final boolean offline;
+    final boolean paperNearEnd;
+    final boolean paperOut;
+    final boolean coverOpen;
+    final boolean error;
+    final long checkedAt;
+
+    private PrinterStatus(boolean responded, boolean offline, boolean paperNearEnd, boolean paperOut,
+                          boolean coverOpen, boolean error, long checkedAt) {
+        this.responded = responded;
+        this.offline = offline;
+        this.paperNearEnd = paperNearEnd;
+        this.paperOut = paperOut;
+        this.coverOpen = coverOpen;
+        this.error = error;
+        this.checkedAt = checkedAt;
+    }
+
+    /**
+     * Error de estado: la impresora respondió, pero no puede imprimir
+     */
+    static final class PrinterStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final String code;
+        final PrinterStatus status;
+
+        PrinterStatusException(String code, String message, PrinterStatus status) {
+            super(message);
+            this.code = code;
+            this.status = status;
+        }
+    }
+
+    /**
+     * Consultar el estado por el socket del trabajo. Devuelve un estado con
+     * responded=false si la impresora no contesta dentro de timeoutMs.
+     * @param restoreTimeout SO_TIMEOUT a restaurar al terminar
+     */
+    static PrinterStatus query(Socket socket, int timeoutMs, int restoreTimeout) throws IOException {
+        InputStream input = socket.getInputStream();
+        OutputStream output = socket.getOutputStream();
+
+        // Descartar respuestas viejas (ASB) para no confundirlas con las de ahora
+        while (input.available() > 0) {
+            input.read();
+        }
+
+        output.write(QUERY);
+        output.flush();
+
+        byte[] reply = new byte[REPLY_LENGTH];
+        int received = read(socket, input, reply, REPLY_LENGTH, timeoutMs, restoreTimeout);
+        if (received == 0) {
+            return UNKNOWN;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean offline = isStatusByte(reply[0]) && (reply[0] & 0x08) != 0;
+        boolean coverOpen = false;
+        boolean error = false;
+        boolean paperStop = false;
+        if (received > 1 && isStatusByte(reply[1])) {
+            coverOpen = (reply[1] & 0x04) != 0;
+            paperStop = (reply[1] & 0x20) != 0;
+            error = (reply[1] & 0x40) != 0;
+        }
+
+        boolean nearEnd;
+        boolean paperOut;
+        if (received > 2 && isStatusByte(reply[2])) {
+            nearEnd = (reply[2] & 0x0C) != 0;
+            paperOut = (reply[2] & 0x60) != 0;
+        } else {
+            // Sin respuesta a DLE EOT 4: probar GS r 1
+            output.write(QUERY_PAPER_FALLBACK);
+            output.flush();
+            byte[] paper = new byte[1];
+            if (read(socket, input, paper, 1, timeoutMs, restoreTimeout) == 1 && (paper[0] & 0x90) == 0) {
+                nearEnd = (paper[0] & 0x03) != 0;
+                paperOut = (paper[0] & 0x0C) != 0;
+            } else {
+                nearEnd = false;
+                paperOut = false;
+            }
+        }
+
+        return new PrinterStatus(true, offline, nearEnd, paperOut || paperStop, coverOpen, error, now);
+    }
+
+    /**
+     * Fallar rápido si la impresora no puede imprimir
+     */
+    void throwIfNotReady() throws PrinterStatusException {
+        if (!responded) {
+            return;
+        }
+        if (coverOpen) {
+            throw new PrinterStatusException("COVER_OPEN", "Printer cover is open", this);
+        }
+        if (paperOut) {
+            throw new PrinterStatusException("PAPER_OUT", "Printer is out of paper", this);
+        }
+        if (error) {
+            throw new PrinterStatusException("PRINTER_ERROR", "Printer reported an error", this);
+        }
+    }
+
+    JSObject toJSObject() {
+        JSObject result = new JSObject();
+        result.put("supported", responded);
+        if (responded) {
+            result.put("online", !offline);
+            result.put("paperNearEnd", paperNearEnd);
+            result.put("paperOut", paperOut);
+            result.put("coverOpen", coverOpen);
+            result.put("error", error);
+            result.put("checkedAt", checkedAt);
+        }
+        return result;
+    }
+
+    /**
+     * Los bytes de estado de DLE EOT tienen el bit 1 y el 4 en 1, y el 0 y el 7 en 0
+     */
+    private static boolean isStatusByte(byte b) {
+        return (b & 0x93) == 0x12;
+    }
+
+    private static int read(Socket socket, InputStream input, byte[] target, int length, int timeoutMs,
+                            int restoreTimeout) throws IOException {
+        int received = 0;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            while (received < length) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                socket.setSoTimeout((int) remaining);
+                int value = input.read();
+                if (value < 0) {
+                    throw new IOException("Printer closed the connection");
+                }
+                target[received++] = (byte) value;
+            }
+        } catch (SocketTimeoutException e) {
+            // Sin (más) respuesta
+        } finally {
+            socket.setSoTimeout(restoreTimeout);
+        }
+        return received;
+    }
+}
@@ -0,0 +1,288 @@
+package com.cobrify.app.plugins;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caché de imágenes ya convertidas a raster ESC/POS (logos, QR), en memoria (LRU)
+ * y en disco (cacheDir/escpos-raster). La clave es el SHA-1 del contenido de la
+ * imagen + ancho en puntos + modo de dithering, así que el logo se convierte una
+ * sola vez aunque cambie la URL, y un logo nuevo con la misma URL no reutiliza el viejo.
+ *
+ * Las URLs se revalidan con If-None-Match / If-Modified-Since como máximo cada
+ * URL_REVALIDATE_MS; mientras tanto se usa el último contenido conocido sin red.
+ * Compartido entre TcpPrinterPlugin e IminPrinterPlugin.
+ */
+final class RasterCache {
+
+    private static final String TAG = "RasterCache";
+    private static final String DIR = "escpos-raster";
+    private static final int MEMORY_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_DISK_FILES = 64;
+    private static final long URL_REVALIDATE_MS = 10 * 60 * 1000L;
+    private static final int HTTP_CONNECT_TIMEOUT = 5000;
+    private static final int HTTP_READ_TIMEOUT = 10000;
+
+    static final String SOURCE_MEMORY = "memory";
+    static final String SOURCE_DISK = "disk";
+    static final String SOURCE_CONVERTED = "converted";
+
+    private static RasterCache instance;
+
+    /**
+     * Resultado de una búsqueda: el raster y de dónde salió
+     */
+    static final class Entry {
+        final EscPosRaster raster;
+        final String source;
+
+        Entry(EscPosRaster raster, String source) {
+            this.raster = raster;
+            this.source = source;
+        }
+    }
+
+    private static final class UrlState {
+        final String contentHash;
+        final String etag;
+        final String lastModified;
+        final long checkedAt;
+
+        UrlState(String contentHash, String etag, String lastModified, long checkedAt) {
+            this.contentHash = contentHash;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    private final File dir;
+    private final LruCache<String, EscPosRaster> memory = new LruCache<String, EscPosRaster>(MEMORY_BYTES) {
+        @Override
+        protected int sizeOf(String key, EscPosRaster value) {
+            return value.bits.length + 64;
+        }
+    };
+    private final ConcurrentHashMap<String, UrlState> urls = new ConcurrentHashMap<>();
+
+    private RasterCache(File dir) {
+        this.dir = dir;
+    }
+
+    static synchronized RasterCache get(Context context) {
+        if (instance == null) {
+            instance = new RasterCache(new File(context.getCacheDir(), DIR));
+        }
+        return instance;
+    }
+
+    /**
+     * Raster de una imagen codificada (PNG/JPEG/WebP)
+     */
+    Entry load(byte[] encoded, int maxWidth, String dither) {
+        return load(sha1(encoded), encoded, maxWidth, dither);
+    }
+
+    /**
+     * Raster de una imagen remota. Sin red usa el último contenido conocido si lo hay.
+     */
+    Entry loadUrl(String url, int maxWidth, String dither) throws IOException {
+        UrlState state = urls.get(url);
+        long now = System.currentTimeMillis();
+        if (state != null && now - state.checkedAt < URL_REVALIDATE_MS) {
+            Entry cached = lookup(key(state.contentHash, maxWidth, dither));
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(HTTP_CONNECT_TIMEOUT);
+        connection.setReadTimeout(HTTP_READ_TIMEOUT);
+        // Revalidar solo si el raster de este tamaño ya existe; si no, hace falta el contenido
+        boolean conditional = state != null && lookup(key(state.contentHash, maxWidth, dither)) != null;
+        if (conditional) {
+            if (state.etag != null) {
+                connection.setRequestProperty("If-None-Match", state.etag);
+            }
+            if (state.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", state.lastModified);
+            }
+        }
+
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && conditional) {
+                urls.put(url, new UrlState(state.contentHash, state.etag, state.lastModified, now));
+                return lookup(key(state.contentHash, maxWidth, dither));
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code);
+            }
+
+            byte[] encoded = readAll(connection.getInputStream());
+            String hash = sha1(encoded);
+            urls.put(url, new UrlState(hash, connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"), now));
+            return load(hash, encoded, maxWidth, dither);
+
+        } catch (IOException e) {
+            if (state != null) {
+                Entry stale = lookup(key(state.contentHash, maxWidth, dither));
+                if (stale != null) {
+                    Log.w(TAG, "Could not revalidate " + url + ", using cached image: " + e.getMessage());
+                    return stale;
+                }
+            }
+            throw e;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    void clear() {
+        memory.evictAll();
+        urls.clear();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private Entry load(String hash, byte[] encoded, int maxWidth, String dither) {
+        String key = key(hash, maxWidth, dither);
+        Entry cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        EscPosRaster raster = EscPosRaster.decode(encoded, maxWidth, dither);
+        memory.put(key, raster);
+        writeDisk(key, raster);
+        return new Entry(raster, SOURCE_CONVERTED);
+    }
+
+    private Entry lookup(String key) {
+        EscPosRaster raster = memory.get(key);
+        if (raster != null) {
+            return new Entry(raster, SOURCE_MEMORY);
+        }
+        raster = readDisk(key);
+        if (raster != null) {
+            memory.put(key, raster);
+            return new Entry(raster, SOURCE_DISK);
+        }
+        return null;
+    }
+
+    private EscPosRaster readDisk(String key) {
+        File file = new File(dir, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            FileInputStream input = new FileInputStream(file);
+            try {
+                EscPosRaster raster = EscPosRaster.deserialize(readAll(input));
+                if (raster == null) {
+                    file.delete();
+                } else {
+                    file.setLastModified(System.currentTimeMillis());
+                }
+                return raster;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read cached raster: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, EscPosRaster raster) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File temp = new File(dir, key + ".tmp");
+        try {
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                output.write(raster.serialize());
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(new File(dir, key))) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write cached raster: " + e.getMessage());
+            temp.delete();
+        }
+        trimDisk();
+    }
+
+    /**
+     * Mantener como máximo MAX_DISK_FILES, borrando los menos usados
+     */
+    private void trimDisk() {
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= MAX_DISK_FILES) {
+            return;
+        }
+        long[] used = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            used[i] = files[i].lastModified();
+        }
+        long[] sorted = used.clone();
+        Arrays.sort(sorted);
+        long cutoff = sorted[files.length - MAX_DISK_FILES];
+        for (int i = 0; i < files.length; i++) {
+            if (used[i] < cutoff) {
+                files[i].delete();
+            }
+        }
+    }
+
+    private static String key(String hash, int maxWidth, String dither) {
+        return hash + "-" + maxWidth + "-" + dither;
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    static String sha1(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.cobrify.app.plugins;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Últimos tickets impresos (bytes ESC/POS ya armados), por ID de documento, para
+ * reimprimir sin volver a armar el ticket en JS ni pasarlo otra vez por el bridge.
+ *
+ * Es un archivo de tamaño fijo (filesDir/reprint.ring) mapeado en memoria: un
+ * índice de SLOT_COUNT entradas y un anillo de DATA_SIZE bytes donde los trabajos
+ * se escriben uno tras otro; al llegar al final se vuelve al inicio y se descartan
+ * los trabajos pisados. Al reimprimir se manda una vista del mapeo directo al
+ * socket: no se copia el ticket al heap.
+ *
+ * Formato:
+ * <pre>
+ * cabecera (64):  magic, versión, DATA_SIZE, SLOT_COUNT, writePos (int), nextSeq (long)
+ * slot (128):     seq (long, 0 = libre), offset, length (int), createdAt (long),
+ *                 id (1 + MAX_ID bytes UTF-8), port (int, 0 = sin puerto),
+ *                 host (1 + MAX_HOST bytes UTF-8)
+ * datos:          DATA_SIZE bytes
+ * </pre>
+ *
+ * Ni el ID ni el host se truncan: si no caben el trabajo no se guarda (un host
+ * cortado mandaría la reimpresión a otra impresora).
+ */
+final class ReprintCache {
+
+    private static final String TAG = "ReprintCache";
+    private static final String FILE_NAME = "reprint.ring";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x52505254; // "RPRT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_COUNT = 64;
+    private static final int SLOT_SIZE = 128;
+    private static final int MAX_ID = 64;
+    private static final int DATA_SIZE = 4 * 1024 * 1024;
+    private static final int DATA_OFFSET = HEADER_SIZE + SLOT_COUNT * SLOT_SIZE;
+    private static final int MAX_JOB = DATA_SIZE / 4; // un trabajo no puede vaciar el anillo
+
+    private static final int SLOT_OFFSET = 8;
+    private static final int SLOT_LENGTH = 12;
+    private static final int SLOT_CREATED = 16;
+    private static final int SLOT_ID = 24;
+    private static final int SLOT_PORT = SLOT_ID + 1 + MAX_ID;
+    private static final int SLOT_HOST = SLOT_PORT + 4;
+    private static final int MAX_HOST = SLOT_SIZE - SLOT_HOST - 1; // 34 bytes: IPv4 o un nombre .local corto
+
+    private static ReprintCache instance;
+
+    /**
+     * Trabajo guardado. La vista queda reservada (no se pisa) hasta release().
+     */
+    static final class Entry {
+        final String documentId;
+        final String host; // IP, nombre o "internal"
+        final int port;    // 0 si el destino no tiene puerto (impresora interna)
+        final long createdAt;
+        final int offset;
+        final int length;
+        final ByteBuffer data;
+
+        Entry(String documentId, String host, int port, long createdAt, int offset, int length, ByteBuffer data) {
+            this.documentId = documentId;
+            this.host = host;
+            this.port = port;
+            this.createdAt = createdAt;
+            this.offset = offset;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    private final MappedByteBuffer map;
+    private final List<Entry> pinned = new ArrayList<>();
+    private int writePos;
+    private long nextSeq;
+
+    private ReprintCache(MappedByteBuffer map) {
+        this.map = map;
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getInt(8) != DATA_SIZE
+                || map.getInt(12) != SLOT_COUNT) {
+            for (int i = 0; i < DATA_OFFSET; i++) {
+                map.put(i, (byte) 0);
+            }
+            map.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, DATA_SIZE).putInt(12, SLOT_COUNT);
+            writeHeader(0, 1);
+        }
+        writePos = map.getInt(16);
+        nextSeq = Math.max(1, map.getLong(20));
+    }
+
+    static synchronized ReprintCache get(Context context) throws IOException {
+        if (instance == null) {
+            File file = new File(context.getFilesDir(), FILE_NAME);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(DATA_OFFSET + DATA_SIZE);
+                // El mapeo sigue válido después de cerrar el archivo
+                instance = new ReprintCache(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + DATA_SIZE));
+            } finally {
+                raf.close();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Guardar los bytes de un documento (reemplaza la versión anterior del mismo ID)
+     * @param host impresora destino (IP o nombre, o "internal")
+     * @param port puerto de la impresora; 0 si no tiene
+     * @return false si no se guardó (demasiado grande, ID o host muy largo o pisaría una reimpresión en curso)
+     */
+    synchronized boolean put(String documentId, String host, int port, byte[] data) {
+        byte[] id = documentId.getBytes(UTF8);
+        byte[] hostBytes = host.getBytes(UTF8);
+        if (data.length == 0 || data.length > MAX_JOB || id.length == 0 || id.length > MAX_ID
+                || hostBytes.length > MAX_HOST) {
+            return false;
+        }
+        int offset = writePos + data.length > DATA_SIZE ? 0 : writePos;
+        int end = offset + data.length;
+        for (Entry entry : pinned) {
+            if (offset < entry.offset + entry.length && entry.offset < end) {
+                Log.w(TAG, "Not caching " + documentId + ": ring region is being reprinted");
+                return false;
+            }
+        }
+
+        // Liberar los slots pisados por el nuevo trabajo y la versión anterior del documento
+        int free = -1;
+        int oldest = 0;
+        long oldestSeq = Long.MAX_VALUE;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int base = slotBase(slot);
+            long seq = map.getLong(base);
+            if (seq != 0) {
+                int slotOffset = map.getInt(base + SLOT_OFFSET);
+                int slotEnd = slotOffset + map.getInt(base + SLOT_LENGTH);
+                if ((offset < slotEnd && slotOffset < end) || documentId.equals(readString(base + SLOT_ID))) {
+                    map.putLong(base, 0);
+                    seq = 0;
+                }
+            }
+            if (seq == 0 && free < 0) {
+                free = slot;
+            }
+            if (seq != 0 && seq < oldestSeq) {
+                oldestSeq = seq;
+                oldest = slot;
+            }
+        }
+        int slot = free >= 0 ? free : oldest;
+
+        ByteBuffer view = map.duplicate();
+        view.position(DATA_OFFSET + offset);
+        view.put(data);
+
+        int base = slotBase(slot);
+        map.putLong(base, 0);
+        map.putInt(base + SLOT_OFFSET, offset);
+        map.putInt(base + SLOT_LENGTH, data.length);
+        map.putLong(base + SLOT_CREATED, System.currentTimeMillis());
+        writeString(base + SLOT_ID, id);
+        map.putInt(base + SLOT_PORT, port);
+        writeString(base + SLOT_HOST, hostBytes);
+        // seq al final: un slot a medio escribir (proceso muerto) queda libre
+        map.putLong(base, nextSeq);
+        writeHeader(end, nextSeq + 1);
+        return true;
+    }
+
+    /**
+     * Buscar un documento. La vista queda reservada: llamar a release() al terminar.
+     * @return null si no está (nunca se guardó o ya se pisó)
+     */
+    synchronized Entry acquire(String documentId) {
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int base = slotBase(slot);
+            if (map.getLong(base) == 0 || !documentId.equals(readString(base + SLOT_ID))) {
+                continue;
+            }
+            int offset = map.getInt(base + SLOT_OFFSET);
+            int length = map.getInt(base + SLOT_LENGTH);
+            ByteBuffer view = map.duplicate();
+            view.position(DATA_OFFSET + offset);
+            view.limit(DATA_OFFSET + offset + length);
+            Entry entry = new Entry(documentId, readString(base + SLOT_HOST), map.getInt(base + SLOT_PORT),
+                map.getLong(base + SLOT_CREATED), offset, length, view.slice().asReadOnlyBuffer());
+            pinned.add(entry);
+            return entry;
+        }
+        return null;
+    }
+
+    synchronized void release(Entry entry) {
+        pinned.remove(entry);
+    }
+
+    private void writeHeader(int position, long seq) {
+        writePos = position;
+        nextSeq = seq;
+        map.putInt(16, position);
+        map.putLong(20, seq);
+    }
+
+    private static int slotBase(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private String readString(int position) {
+        int length = map.get(position) & 0xFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = map.get(position + 1 + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    private void writeString(int position, byte[] value) {
+        map.put(position, (byte) value.length);
+        for (int i = 0; i < value.length; i++) {
+            map.put(position + 1 + i, value[i]);
+        }
+    }
+}
@@ -1,20 +1,38 @@
 package com.cobrify.app.plugins;
 
+import android.content.Context;
 import android.util.Log;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import com.google.zxing.WriterException;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
-import java.util.concurrent.ExecutorService;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
 
 /**
  * Plugin Capacitor para impresión térmica via TCP/IP (WiFi/LAN)
@@ -27,12 +45,72 @@ public class TcpPrinterPlugin extends Plugin {
     private static final int DEFAULT_PORT = 9100;
     private static final int CONNECTION_TIMEOUT = 5000; // 5 segundos
     private static final int SOCKET_TIMEOUT = 10000; // 10 segundos
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_COPIES = 10;
+    private static final int STATUS_TIMEOUT = 300; // respuesta a DLE EOT
+    private static final long STATUS_UNSUPPORTED_TTL = 10 * 60 * 1000L; // no volver a consultar por 10 min
+    private static final long QR_UNKNOWN_TTL = 10 * 60 * 1000L; // no se pudo sondear: no volver a intentar por 10 min
+    private static final long QR_NEGATIVE_TTL = 24 * 60 * 60 * 1000L; // sin respuesta a fn 82: raster por 24 h
+    static final String SPOOL_DIR = "print-spool";
+    static final String TRANSPORT_BLOCKING = "blocking";
+    static final String TRANSPORT_NIO = "nio";
+    // Carriles del dispatcher que no son de una impresora ("ip:port"): el '#' no aparece en una clave de impresora
+    private static final String LANE_SPOOL = "#spool";
+    private static final String LANE_IMAGES = "#images";
+    private static final String LANE_RENDER = "#render";
+    private static final String LANE_DISCOVER = "#discover";
+    // Todo lo que escribe en el socket persistente (sendRaw/sendText/sendCommand/printTest/print)
+    // va con una sola clase: en FIFO entre sí, así el texto, el corte y el ticket salen en orden
+    private static final int PERSISTENT_WRITE_CLASS = PrintPriorityQueue.CLASS_DEFAULT;
 
     private Socket socket;
     private OutputStream outputStream;
     private String connectedIp;
     private int connectedPort;
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private EscPosCodepage connectedCodepage; // última página elegida con ESC t en la conexión persistente
+    // Un carril serial por impresora; impresoras distintas imprimen en paralelo
+    private final PrinterLaneDispatcher dispatcher = new PrinterLaneDispatcher(PrinterLaneDispatcher.DEFAULT_MAX_THREADS);
+    // Latencias, racha de fallos y dirección resuelta por impresora: timeouts adaptativos
+    private final PrinterLinkStats links = new PrinterLinkStats(CONNECTION_TIMEOUT, SOCKET_TIMEOUT);
+    private final PrinterConnectionPool pool = new PrinterConnectionPool(links);
+    // Impresora caída: rechazar al instante y sondear en segundo plano (evento printerCircuitChange)
+    private final PrinterCircuitBreaker breaker = new PrinterCircuitBreaker(links, this::onCircuitChange);
+    // idempotencyKey → resultado del trabajo original (reintentos de JS no reimprimen)
+    private final PrintIdempotency idempotency = new PrintIdempotency();
+    private volatile PrintSpool spool;
+    // Temporizadores auxiliares (watchdog de escrituras por canal, etc.)
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+    // Último estado conocido por impresora ("ip:puerto") y las que no responden a DLE EOT
+    private final ConcurrentHashMap<String, PrinterStatus> lastStatus = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> statusUnsupportedUntil = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> qrUnknownUntil = new ConcurrentHashMap<>();
+    private volatile boolean checkStatus = true;
+    // Transporte de printDirect/printBatch: "blocking" (carriles + pool) o "nio" (un hilo con Selector)
+    private volatile String transport = TRANSPORT_BLOCKING;
+    // Pasar los streams de JS por EscPosOptimizer antes de enviarlos (default de la opción optimize)
+    private volatile boolean optimizeStreams = false;
+    private NioPrinterEngine nio;
+    // Velocidad de drenaje aprendida por impresora (bytes/s) para el envío por tramos
+    private final ConcurrentHashMap<String, Double> drainRates = new ConcurrentHashMap<>();
+    // Impresoras de red como backend de PrintRouter
+    private final PrintBackend routerBackend = new RouterBackend();
+
+    @Override
+    public void load() {
+        super.load();
+        PrintRouter.get().register(routerBackend);
+        spool = new PrintSpool(new File(getContext().getFilesDir(), SPOOL_DIR), "tcp", PrintSpool.DEFAULT_MAX_ATTEMPTS,
+            job -> dispatcher.execute(job.target, PrintPriorityQueue.CLASS_BACKGROUND,
+                () -> attemptSpooled(job, true, checkStatus, null, true)));
+
+        // Reanudar trabajos que quedaron pendientes (app cerrada o impresora caída)
+        dispatcher.execute(LANE_SPOOL, () -> {
+            for (PrintSpool.Job job : spool.recover()) {
+                dispatcher.execute(job.target, PrintPriorityQueue.CLASS_BACKGROUND,
+                    () -> attemptSpooled(job, true, checkStatus, null, true));
+            }
+        });
+    }
 
     /**
      * Conectar a impresora por IP
@@ -48,20 +126,31 @@ public class TcpPrinterPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        String key = PrinterConnectionPool.key(ip, port);
+        dispatcher.execute(key, () -> {
+            Socket newSocket = new Socket();
             try {
                 // Cerrar conexión anterior si existe
                 disconnect();
+                // La impresora solo acepta 1 conexión: soltar la que el pool tenga ociosa
+                pool.evict(key);
 
                 Log.d(TAG, "Connecting to printer at " + ip + ":" + port);
 
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ip, port), CONNECTION_TIMEOUT);
-                socket.setSoTimeout(SOCKET_TIMEOUT);
-                outputStream = socket.getOutputStream();
-
-                connectedIp = ip;
-                connectedPort = port;
+                long connectStart = System.currentTimeMillis();
+                newSocket.connect(links.address(ip, port), links.connectTimeout(key));
+                links.recordConnect(key, System.currentTimeMillis() - connectStart);
+                PrinterLinkStats.configure(newSocket);
+                newSocket.setSoTimeout(links.socketTimeout(key));
+                OutputStream newOutput = newSocket.getOutputStream();
+
+                synchronized (this) {
+                    socket = newSocket;
+                    outputStream = newOutput;
+                    connectedIp = ip;
+                    connectedPort = port;
+                    connectedCodepage = null;
+                }
 
                 Log.d(TAG, "Connected successfully to " + ip + ":" + port);
 
@@ -72,6 +161,8 @@ public class TcpPrinterPlugin extends Plugin {
                 call.resolve(result);
 
             } catch (IOException e) {
+                try { newSocket.close(); } catch (IOException ignored) {}
+                links.recordFailure(key, e);
                 Log.e(TAG, "Connection failed: " + e.getMessage());
                 call.reject("Failed to connect: " + e.getMessage());
             }
@@ -79,18 +170,19 @@ public class TcpPrinterPlugin extends Plugin {
     }
 
     /**
-     * Desconectar de la impresora
+     * Desconectar de la impresora (también suelta las conexiones ociosas del pool)
      */
     @PluginMethod
     public void disconnect(PluginCall call) {
         disconnect();
+        pool.evictAll();
 
         JSObject result = new JSObject();
         result.put("success", true);
         call.resolve(result);
     }
 
-    private void disconnect() {
+    private synchronized void disconnect() {
         try {
             if (outputStream != null) {
                 outputStream.close();
@@ -102,6 +194,7 @@ public class TcpPrinterPlugin extends Plugin {
             }
             connectedIp = null;
             connectedPort = 0;
+            connectedCodepage = null;
             Log.d(TAG, "Disconnected from printer");
         } catch (IOException e) {
             Log.e(TAG, "Error disconnecting: " + e.getMessage());
@@ -109,7 +202,24 @@ public class TcpPrinterPlugin extends Plugin {
     }
 
     /**
-     * Verificar si está conectado
+     * Cerrar la conexión persistente solo si apunta a la impresora indicada
+     * (la impresora solo acepta 1 conexión; las demás impresoras no se tocan)
+     */
+    private synchronized void disconnectIfConnectedTo(String key) {
+        if (connectedIp != null && key.equals(PrinterConnectionPool.key(connectedIp, connectedPort))) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Carril de la conexión persistente (connect/sendRaw/print...)
+     */
+    private synchronized String persistentKey() {
+        return PrinterConnectionPool.key(connectedIp, connectedPort);
+    }
+
+    /**
+     * Verificar si está conectado (incluye el último estado conocido de la impresora)
      */
     @PluginMethod
     public void isConnected(PluginCall call) {
@@ -119,6 +229,79 @@ public class TcpPrinterPlugin extends Plugin {
         result.put("connected", connected);
         result.put("ip", connectedIp);
         result.put("port", connectedPort);
+        if (connectedIp != null) {
+            PrinterStatus status = lastStatus.get(persistentKey());
+            if (status != null) {
+                result.put("status", status.toJSObject());
+            }
+        }
+        call.resolve(result);
+    }
+
+    /**
+     * Consultar el estado de la impresora (papel, tapa, error) con DLE EOT.
+     * Usa la conexión persistente si apunta a esa impresora; si no, una del pool.
+     * @param call - Parámetros: ip (String, opcional, default la impresora conectada), port (int, opcional)
+     */
+    @PluginMethod
+    public void getStatus(PluginCall call) {
+        String ip = call.getString("ip", connectedIp);
+        int port = call.getInt("port", connectedIp != null && connectedIp.equals(ip) ? connectedPort : DEFAULT_PORT);
+
+        if (ip == null || ip.isEmpty()) {
+            call.reject("IP address is required");
+            return;
+        }
+
+        String key = PrinterConnectionPool.key(ip, port);
+        dispatcher.execute(key, () -> {
+            try {
+                PrinterStatus status;
+                Socket persistent;
+                synchronized (this) {
+                    persistent = key.equals(persistentKey()) ? socket : null;
+                }
+                if (persistent != null) {
+                    status = PrinterStatus.query(persistent, STATUS_TIMEOUT, links.socketTimeout(key));
+                } else {
+                    PrinterConnectionPool.Connection connection = pool.acquire(ip, port);
+                    try {
+                        status = PrinterStatus.query(connection.socket, STATUS_TIMEOUT, links.socketTimeout(key));
+                        pool.release(connection);
+                    } catch (IOException e) {
+                        pool.discard(connection);
+                        throw e;
+                    }
+                }
+                recordStatus(key, status);
+
+                JSObject result = status.toJSObject();
+                result.put("success", true);
+                result.put("ip", ip);
+                result.put("port", port);
+                call.resolve(result);
+
+            } catch (IOException e) {
+                Log.e(TAG, "getStatus failed: " + e.getMessage());
+                call.reject("Failed to get status: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Configurar la consulta de estado antes de cada trabajo de printDirect/printBatch/printTemplate
+     * @param call - Parámetros: checkBeforePrint (boolean)
+     */
+    @PluginMethod
+    public void setStatusOptions(PluginCall call) {
+        Boolean checkBeforePrint = call.getBoolean("checkBeforePrint");
+        if (checkBeforePrint != null) {
+            checkStatus = checkBeforePrint;
+        }
+
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("checkBeforePrint", checkStatus);
         call.resolve(result);
     }
 
@@ -140,11 +323,12 @@ public class TcpPrinterPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        dispatcher.execute(persistentKey(), PERSISTENT_WRITE_CLASS, () -> {
             try {
                 byte[] data = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
                 outputStream.write(data);
                 outputStream.flush();
+                connectedCodepage = null; // puede traer ESC @ o su propio ESC t
 
                 JSObject result = new JSObject();
                 result.put("success", true);
@@ -160,12 +344,16 @@ public class TcpPrinterPlugin extends Plugin {
 
     /**
      * Enviar texto a la impresora
-     * @param call - Parámetros: text (String), charset (String, opcional, default "UTF-8")
+     * @param call - Parámetros: text (String), charset (String, opcional, default "UTF-8"),
+     *             codepage (String, opcional: PC850 | PC858 | CP437 | WPC1252 | ASCII). Con una
+     *             página de ESC/POS (o un charset que lo sea, p.ej. "IBM850") el texto se codifica
+     *             por tabla y ESC t se manda solo cuando cambia la página de la conexión.
      */
     @PluginMethod
     public void sendText(PluginCall call) {
         String text = call.getString("text");
         String charsetName = call.getString("charset", "UTF-8");
+        EscPosCodepage codepage = EscPosCodepage.forName(call.getString("codepage", charsetName));
 
         if (text == null) {
             call.reject("Text is required");
@@ -177,10 +365,18 @@ public class TcpPrinterPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        dispatcher.execute(persistentKey(), PERSISTENT_WRITE_CLASS, () -> {
             try {
-                Charset charset = Charset.forName(charsetName);
-                byte[] data = text.getBytes(charset);
+                byte[] data;
+                if (codepage != null) {
+                    data = codepage.encode(text);
+                    if (codepage != connectedCodepage) {
+                        outputStream.write(codepage.selectCommand());
+                        connectedCodepage = codepage;
+                    }
+                } else {
+                    data = text.getBytes(UTF8.name().equalsIgnoreCase(charsetName) ? UTF8 : Charset.forName(charsetName));
+                }
                 outputStream.write(data);
                 outputStream.flush();
 
@@ -213,7 +409,7 @@ public class TcpPrinterPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        dispatcher.execute(persistentKey(), PERSISTENT_WRITE_CLASS, () -> {
             try {
                 byte[] data = getEscPosCommand(command);
                 if (data == null) {
@@ -223,6 +419,9 @@ public class TcpPrinterPlugin extends Plugin {
 
                 outputStream.write(data);
                 outputStream.flush();
+                if (data == EscPos.INIT) {
+                    connectedCodepage = null;
+                }
 
                 JSObject result = new JSObject();
                 result.put("success", true);
@@ -247,10 +446,11 @@ public class TcpPrinterPlugin extends Plugin {
 
         int paperWidth = call.getInt("paperWidth", 58);
 
-        executor.execute(() -> {
+        dispatcher.execute(persistentKey(), PERSISTENT_WRITE_CLASS, () -> {
             try {
                 // Reset
                 outputStream.write(new byte[]{0x1B, 0x40});
+                connectedCodepage = null;
 
                 // Center align
                 outputStream.write(new byte[]{0x1B, 0x61, 0x01});
@@ -295,7 +495,10 @@ public class TcpPrinterPlugin extends Plugin {
 
     /**
      * Imprimir con comandos ESC/POS completos
-     * @param call - Parámetros: commands (Array de comandos)
+     * @param call - Parámetros: data (String base64), optimize (boolean, opcional: ver EscPosOptimizer),
+     *             copies (int, opcional), copyMarker / copyLabel (String, opcionales: ver EscPosCopies),
+     *             idempotencyKey (String, opcional: ver PrintIdempotency). Sin documentType:
+     *             comparte el socket con sendRaw/sendText y sale en el orden en que se pidió
      */
     @PluginMethod
     public void print(PluginCall call) {
@@ -305,40 +508,78 @@ public class TcpPrinterPlugin extends Plugin {
         }
 
         String base64Commands = call.getString("data");
+        boolean optimize = call.getBoolean("optimize", optimizeStreams);
         if (base64Commands == null || base64Commands.isEmpty()) {
             call.reject("Print data is required");
             return;
         }
 
-        executor.execute(() -> {
+        if (!idempotency.begin(call)) {
+            return;
+        }
+
+        dispatcher.execute(persistentKey(), PERSISTENT_WRITE_CLASS, idempotency.guard(call, () -> {
             try {
-                byte[] data = android.util.Base64.decode(base64Commands, android.util.Base64.DEFAULT);
-                outputStream.write(data);
+                byte[] decoded = android.util.Base64.decode(base64Commands, android.util.Base64.DEFAULT);
+                byte[] data = optimize ? EscPosOptimizer.optimize(decoded) : decoded;
+                EscPosCopies copies = copies(call, data);
+                for (int i = 0; i < copies.count; i++) {
+                    outputStream.write(copies.copy(i));
+                }
                 outputStream.flush();
+                connectedCodepage = null;
 
                 JSObject result = new JSObject();
                 result.put("success", true);
-                result.put("bytesWritten", data.length);
-                call.resolve(result);
+                result.put("bytesWritten", copies.totalLength());
+                result.put("copies", copies.count);
+                result.put("bytesSaved", decoded.length - data.length);
+                idempotency.resolve(call, result);
 
             } catch (IOException e) {
+                // El único IOException posible es al escribir: parte del ticket pudo salir
                 Log.e(TAG, "Error printing: " + e.getMessage());
-                call.reject("Failed to print: " + e.getMessage());
+                idempotency.reject(call, "Failed to print: " + e.getMessage(), null, true);
             }
-        });
+        }));
     }
 
     /**
-     * Impresión directa: connect → print → disconnect en una sola operación atómica.
-     * Libera el socket inmediatamente, permitiendo que múltiples dispositivos compartan
-     * la misma impresora WiFi.
-     * @param call - Parámetros: ip (String), port (int, opcional), data (String base64)
+     * Impresión directa: connect → print → release en una sola operación atómica.
+     * La conexión queda en el pool unos segundos (idleTimeoutMs) para reutilizarla en
+     * el siguiente ticket; pasado ese tiempo se cierra, permitiendo que múltiples
+     * dispositivos compartan la misma impresora WiFi.
+     * Con spool=true el trabajo se anota en el spool persistente: si la impresora
+     * falla, se resuelve con { success: false, spooled: true, jobId } y se reintenta
+     * en segundo plano (eventos spoolJobDone / spoolJobFailed).
+     * @param call - Parámetros: ip (String), port (int, opcional), data (String base64),
+     *             keepAlive (boolean, opcional, default true: devolver la conexión al pool),
+     *             spool (boolean, opcional, default false),
+     *             checkStatus (boolean, opcional, default setStatusOptions.checkBeforePrint),
+     *             transport ("blocking" | "nio", opcional, default setDispatchOptions.transport),
+     *             chunkSize (int, opcional, default 0 = un solo write; ver PacedWriter),
+     *             statusSync (boolean, opcional: esperar DLE EOT tras cada tramo),
+     *             tag (String, opcional: se devuelve en los eventos printProgress),
+     *             optimize (boolean, opcional, default setDispatchOptions.optimize: ver EscPosOptimizer),
+     *             documentId (String, opcional: guardar los bytes para reprint),
+     *             copies (int, opcional: todas por la misma conexión, con corte entre copias),
+     *             copyMarker / copyLabel (String, opcionales: ver EscPosCopies),
+     *             idempotencyKey (String, opcional: un reintento con la misma clave no reimprime,
+     *             devuelve el resultado original con duplicate: true; ver PrintIdempotency),
+     *             documentType (String, opcional: receipt | kitchen | prebill | report | reprint,
+     *             prioridad en el carril de la impresora; ver PrintPriorityQueue)
      */
     @PluginMethod
     public void printDirect(PluginCall call) {
         String ip = call.getString("ip");
         int port = call.getInt("port", DEFAULT_PORT);
         String base64Data = call.getString("data");
+        boolean keepAlive = call.getBoolean("keepAlive", true);
+        boolean useSpool = call.getBoolean("spool", false);
+        boolean check = call.getBoolean("checkStatus", checkStatus);
+        String transportName = call.getString("transport", transport);
+        boolean optimize = call.getBoolean("optimize", optimizeStreams);
+        String documentId = call.getString("documentId");
 
         if (ip == null || ip.isEmpty()) {
             call.reject("IP address is required");
@@ -349,96 +590,1546 @@ public class TcpPrinterPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
-            Socket tempSocket = null;
+        if (!idempotency.begin(call)) {
+            return;
+        }
+
+        String key = PrinterConnectionPool.key(ip, port);
+        long queuedAt = System.currentTimeMillis();
+
+        if (TRANSPORT_NIO.equals(transportName) && !useSpool) {
+            // Decodificar y optimizar en el carril (no en el hilo del bridge); el selector solo hace la E/S
+            dispatcher.executeAsync(key, priority(call), idempotency.guard(call, done -> {
+                // base64 inválido u otra RuntimeException antes del selector: la rechaza el guard
+                byte[] decoded = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
+                byte[] data = optimize ? EscPosOptimizer.optimize(decoded) : decoded;
+                rememberJob(documentId, ip, port, data);
+                submitNio(ip, port, copies(call, data), keepAlive, queuedAt, new NioResult() {
+                    @Override
+                    public void onResult(JSObject result) {
+                        done.run();
+                        result.put("bytesSaved", decoded.length - data.length);
+                        idempotency.resolve(call, result);
+                    }
+
+                    @Override
+                    public void onError(IOException e) {
+                        done.run();
+                        Log.e(TAG, "printDirect (nio) failed: " + e.getMessage());
+                        rejectJob(call, e);
+                    }
+                });
+            }));
+            return;
+        }
+
+        dispatcher.execute(key, priority(call), idempotency.guard(call, () -> {
             try {
-                // Cerrar conexión persistente si existe (la impresora solo acepta 1 conexión)
-                disconnect();
+                byte[] decoded = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
+                byte[] data = optimize ? EscPosOptimizer.optimize(decoded) : decoded;
+                rememberJob(documentId, ip, port, data);
+
+                long start = System.currentTimeMillis();
+                JSObject result = runJob(ip, port, copies(call, data), keepAlive, useSpool, check, pacedWriter(call, key));
+                result.put("queuedMs", start - queuedAt);
+                result.put("bytesSaved", decoded.length - data.length);
+                idempotency.resolve(call, result);
+
+            } catch (PrinterStatus.PrinterStatusException e) {
+                Log.w(TAG, "printDirect: printer not ready: " + e.getMessage());
+                rejectJob(call, e);
+            } catch (IOException e) {
+                Log.e(TAG, "printDirect failed: " + e.getMessage());
+                rejectJob(call, e);
+            }
+        }));
+    }
+
+    /**
+     * Imprimir varios trabajos (p.ej. comanda de cocina, bar y boleta de caja) en una
+     * sola llamada. Cada trabajo va al carril de su impresora, así que impresoras
+     * distintas imprimen en paralelo y el lote tarda lo que la más lenta.
+     * Nunca rechaza por un trabajo fallido: el resultado trae el estado de cada uno.
+     * @param call - Parámetros: jobs (Array de { ip, port?, data (base64), copies?, spool?, chunkSize?, tag?, optimize?,
+     *             documentId?, documentType? }),
+     *             keepAlive (boolean, opcional, default true), spool (boolean, default para todos los trabajos),
+     *             checkStatus (boolean, opcional), transport ("blocking" | "nio", opcional),
+     *             optimize (boolean, opcional: default para todos los trabajos)
+     */
+    @PluginMethod
+    public void printBatch(PluginCall call) {
+        JSArray jobs = call.getArray("jobs");
+        boolean keepAlive = call.getBoolean("keepAlive", true);
+        boolean spoolAll = call.getBoolean("spool", false);
+        boolean check = call.getBoolean("checkStatus", checkStatus);
+        boolean useNio = TRANSPORT_NIO.equals(call.getString("transport", transport));
+        boolean optimizeAll = call.getBoolean("optimize", optimizeStreams);
+
+        if (jobs == null || jobs.length() == 0) {
+            call.reject("Jobs are required");
+            return;
+        }
+
+        final int total = jobs.length();
+        final JSObject[] results = new JSObject[total];
+        final AtomicInteger remaining = new AtomicInteger(total);
+        final long batchStart = System.currentTimeMillis();
 
-                Log.d(TAG, "printDirect: connecting to " + ip + ":" + port);
+        Runnable onJobDone = () -> {
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+            JSArray jobResults = new JSArray();
+            int succeeded = 0;
+            for (JSObject jobResult : results) {
+                if (jobResult.getBoolean("success", false)) {
+                    succeeded++;
+                }
+                jobResults.put(jobResult);
+            }
 
-                tempSocket = new Socket();
-                tempSocket.connect(new InetSocketAddress(ip, port), CONNECTION_TIMEOUT);
-                tempSocket.setSoTimeout(SOCKET_TIMEOUT);
+            JSObject result = new JSObject();
+            result.put("success", succeeded == total);
+            result.put("total", total);
+            result.put("succeeded", succeeded);
+            result.put("failed", total - succeeded);
+            result.put("durationMs", System.currentTimeMillis() - batchStart);
+            result.put("jobs", jobResults);
+            call.resolve(result);
+        };
+
+        for (int i = 0; i < total; i++) {
+            final int index = i;
+            JSONObject job = jobs.optJSONObject(i);
+            String ip = job != null ? job.optString("ip", "") : "";
+            int port = job != null ? job.optInt("port", DEFAULT_PORT) : DEFAULT_PORT;
+            String base64Data = job != null ? job.optString("data", "") : "";
+            int copyCount = job != null ? job.optInt("copies", 1) : 1;
+            boolean useSpool = job != null ? job.optBoolean("spool", spoolAll) : spoolAll;
+            int chunkSize = job != null ? job.optInt("chunkSize", 0) : 0;
+            String tag = job != null && job.has("tag") ? job.optString("tag") : null;
+            boolean optimize = job != null ? job.optBoolean("optimize", optimizeAll) : optimizeAll;
+            String documentId = job != null && job.has("documentId") ? job.optString("documentId") : null;
+            int priority = PrintPriorityQueue.classOf(job != null && job.has("documentType") ? job.optString("documentType") : null);
+
+            JSObject failed = new JSObject();
+            failed.put("index", index);
+            failed.put("ip", ip);
+            failed.put("port", port);
+            failed.put("success", false);
+
+            if (ip.isEmpty() || base64Data.isEmpty()) {
+                failed.put("error", ip.isEmpty() ? "IP address is required" : "Print data is required");
+                results[index] = failed;
+                onJobDone.run();
+                continue;
+            }
 
-                OutputStream tempOutput = tempSocket.getOutputStream();
+            long queuedAt = System.currentTimeMillis();
+            if (useNio && !useSpool) {
+                dispatcher.executeAsync(PrinterConnectionPool.key(ip, port), priority, done -> {
+                    try {
+                        byte[] decoded = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
+                        byte[] data = optimize ? EscPosOptimizer.optimize(decoded) : decoded;
+                        rememberJob(documentId, ip, port, data);
+                        submitNio(ip, port, copies(data, copyCount, null, null), keepAlive, queuedAt, new NioResult() {
+                            @Override
+                            public void onResult(JSObject jobResult) {
+                                done.run();
+                                jobResult.put("bytesSaved", decoded.length - data.length);
+                                jobResult.put("index", index);
+                                jobResult.put("ip", ip);
+                                jobResult.put("port", port);
+                                results[index] = jobResult;
+                                onJobDone.run();
+                            }
+
+                            @Override
+                            public void onError(IOException e) {
+                                done.run();
+                                Log.e(TAG, "printBatch: job " + index + " to " + ip + ":" + port + " failed: " + e.getMessage());
+                                failed.put("error", e.getMessage());
+                                if (e instanceof PrinterStatus.PrinterStatusException) {
+                                    failed.put("code", ((PrinterStatus.PrinterStatusException) e).code);
+                                } else if (e instanceof PrintBackend.SentException) {
+                                    failed.put("code", ((PrintBackend.SentException) e).code);
+                                }
+                                failed.put("queuedMs", System.currentTimeMillis() - queuedAt);
+                                results[index] = failed;
+                                onJobDone.run();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        // Antes de llegar al selector (base64 inválido, dirección inválida): no dejar el carril tomado
+                        Log.e(TAG, "printBatch: job " + index + " to " + ip + ":" + port + " failed: " + e.getMessage(), e);
+                        done.run();
+                        failed.put("error", e.getMessage());
+                        results[index] = failed;
+                        onJobDone.run();
+                    }
+                });
+                continue;
+            }
 
-                byte[] data = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
-                tempOutput.write(data);
-                tempOutput.flush();
+            dispatcher.execute(PrinterConnectionPool.key(ip, port), priority, () -> {
+                long start = System.currentTimeMillis();
+                try {
+                    byte[] decoded = android.util.Base64.decode(base64Data, android.util.Base64.DEFAULT);
+                    byte[] data = optimize ? EscPosOptimizer.optimize(decoded) : decoded;
+                    String key = PrinterConnectionPool.key(ip, port);
+                    rememberJob(documentId, ip, port, data);
+                    PacedWriter writer = chunkSize > 0 ? pacedWriter(key, chunkSize, false, tag) : null;
+                    JSObject jobResult = runJob(ip, port, copies(data, copyCount, null, null), keepAlive, useSpool, check, writer);
+                    jobResult.put("bytesSaved", decoded.length - data.length);
+                    jobResult.put("index", index);
+                    jobResult.put("ip", ip);
+                    jobResult.put("port", port);
+                    jobResult.put("queuedMs", start - queuedAt);
+                    results[index] = jobResult;
+                } catch (Exception e) {
+                    Log.e(TAG, "printBatch: job " + index + " to " + ip + ":" + port + " failed: " + e.getMessage());
+                    failed.put("error", e.getMessage());
+                    if (e instanceof PrinterStatus.PrinterStatusException) {
+                        failed.put("code", ((PrinterStatus.PrinterStatusException) e).code);
+                    } else if (e instanceof PrintBackend.SentException) {
+                        failed.put("code", ((PrintBackend.SentException) e).code);
+                    }
+                    failed.put("queuedMs", start - queuedAt);
+                    failed.put("durationMs", System.currentTimeMillis() - start);
+                    results[index] = failed;
+                }
+                onJobDone.run();
+            });
+        }
+    }
+
+    /**
+     * Imprimir un ticket a partir de una plantilla (ver EscPosTemplate): JS manda
+     * unos KB de JSON y los bytes ESC/POS se arman en nativo, en el carril de la impresora.
+     * @param call - Parámetros: ip (String), port (int, opcional), template (Object),
+     *             copies (int, opcional), keepAlive (boolean, opcional), spool (boolean, opcional),
+     *             checkStatus (boolean, opcional), chunkSize / statusSync / tag / documentId /
+     *             copyMarker / copyLabel / idempotencyKey / documentType (opcionales, como printDirect)
+     */
+    @PluginMethod
+    public void printTemplate(PluginCall call) {
+        String ip = call.getString("ip");
+        int port = call.getInt("port", DEFAULT_PORT);
+        JSObject template = call.getObject("template");
+        boolean keepAlive = call.getBoolean("keepAlive", true);
+        boolean useSpool = call.getBoolean("spool", false);
+        boolean check = call.getBoolean("checkStatus", checkStatus);
+
+        if (ip == null || ip.isEmpty()) {
+            call.reject("IP address is required");
+            return;
+        }
+        if (template == null) {
+            call.reject("Template is required");
+            return;
+        }
+
+        if (!idempotency.begin(call)) {
+            return;
+        }
+
+        long queuedAt = System.currentTimeMillis();
+        dispatcher.execute(PrinterConnectionPool.key(ip, port), priority(call), () -> {
+            try {
+                long start = System.currentTimeMillis();
+                boolean nativeQr = !Boolean.FALSE.equals(resolveQrSupport(ip, port));
+                byte[] data = EscPosTemplate.render(template, RasterCache.get(getContext()), nativeQr);
+                long renderMs = System.currentTimeMillis() - start;
+                rememberJob(call.getString("documentId"), ip, port, data);
+
+                PacedWriter writer = pacedWriter(call, PrinterConnectionPool.key(ip, port));
+                JSObject result = runJob(ip, port, copies(call, data), keepAlive, useSpool, check, writer);
+                result.put("queuedMs", start - queuedAt);
+                result.put("renderMs", renderMs);
+                idempotency.resolve(call, result);
+
+            } catch (PrinterStatus.PrinterStatusException e) {
+                Log.w(TAG, "printTemplate: printer not ready: " + e.getMessage());
+                rejectJob(call, e);
+            } catch (IOException e) {
+                Log.e(TAG, "printTemplate failed: " + e.getMessage());
+                rejectJob(call, e);
+            } catch (Exception e) {
+                Log.e(TAG, "printTemplate failed: " + e.getMessage());
+                idempotency.reject(call, "Failed to print: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Renderizar una plantilla sin imprimir (para las rutas Bluetooth, que no pasan
+     * por este plugin). Devuelve los bytes ESC/POS en base64.
+     * @param call - Parámetros: template (Object), nativeQr (boolean, opcional, default true)
+     */
+    @PluginMethod
+    public void renderTemplate(PluginCall call) {
+        JSObject template = call.getObject("template");
+        boolean nativeQr = call.getBoolean("nativeQr", true);
+        if (template == null) {
+            call.reject("Template is required");
+            return;
+        }
+
+        dispatcher.execute(LANE_RENDER, () -> {
+            try {
+                byte[] data = EscPosTemplate.render(template, RasterCache.get(getContext()), nativeQr);
+
+                JSObject result = new JSObject();
+                result.put("data", android.util.Base64.encodeToString(data, android.util.Base64.NO_WRAP));
+                result.put("bytes", data.length);
+                call.resolve(result);
+
+            } catch (Exception e) {
+                Log.e(TAG, "renderTemplate failed: " + e.getMessage());
+                call.reject("Failed to render template: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Convertir un logo o imagen a raster ESC/POS en nativo (ver EscPosRaster), con
+     * caché en memoria y disco: después del primer ticket el logo no cuesta nada.
+     * @param call - Parámetros: url (String) o image (String base64 / data URL),
+     *             paperWidth (int, 58 | 80), scale (int, porcentaje, default 100),
+     *             width (int, opcional: ancho máximo en puntos, reemplaza paperWidth/scale),
+     *             dither ("floyd" | "threshold", default "floyd")
+     * @return widthBytes, width, height, data (bits en base64, para rasterImage en JS),
+     *         escpos (comandos GS v 0 en base64), cache ("memory" | "disk" | "converted")
+     */
+    @PluginMethod
+    public void rasterizeImage(PluginCall call) {
+        String url = call.getString("url");
+        String image = call.getString("image");
+        int paperWidth = call.getInt("paperWidth", 58);
+        int width = call.getInt("width", EscPosRaster.logoWidth(paperWidth, call.getInt("scale", 100)));
+        String dither = EscPosRaster.ditherMode(call.getString("dither", EscPosRaster.DITHER_FLOYD));
 
-                Log.d(TAG, "printDirect: sent " + data.length + " bytes, disconnecting");
+        if ((url == null || url.isEmpty()) && (image == null || image.isEmpty())) {
+            call.reject("Image url or data is required");
+            return;
+        }
 
-                // Cerrar inmediatamente para liberar el socket
-                tempOutput.close();
-                tempSocket.close();
-                tempSocket = null;
+        dispatcher.execute(LANE_IMAGES, () -> {
+            try {
+                long start = System.currentTimeMillis();
+                RasterCache cache = RasterCache.get(getContext());
+                RasterCache.Entry entry;
+                if (url != null && !url.isEmpty()) {
+                    entry = cache.loadUrl(url, width, dither);
+                } else {
+                    byte[] encoded = android.util.Base64.decode(EscPosTemplate.stripDataUrl(image), android.util.Base64.DEFAULT);
+                    entry = cache.load(encoded, width, dither);
+                }
+                EscPosRaster raster = entry.raster;
 
                 JSObject result = new JSObject();
                 result.put("success", true);
-                result.put("bytesWritten", data.length);
+                result.put("width", raster.width);
+                result.put("height", raster.height);
+                result.put("widthBytes", raster.widthBytes);
+                result.put("data", android.util.Base64.encodeToString(raster.bits, android.util.Base64.NO_WRAP));
+                result.put("escpos", android.util.Base64.encodeToString(raster.toEscPos(), android.util.Base64.NO_WRAP));
+                result.put("cache", entry.source);
+                result.put("durationMs", System.currentTimeMillis() - start);
+                call.resolve(result);
+
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "rasterizeImage failed: " + e.getMessage());
+                call.reject("Failed to rasterize image: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Comandos ESC/POS de un QR: GS ( k si la impresora lo soporta (~100 bytes) o
+     * raster si no. Un QR subido como imagen (url/image) se decodifica y se emite
+     * como QR nativo; si no se puede leer, se devuelve la imagen como raster.
+     * @param call - Parámetros: data (String) o url / image (QR como imagen),
+     *             size (int, 1–16, default 6), ec ("L" | "M" | "Q" | "H", default "M"),
+     *             ip / port (opcionales: impresora destino; sin ip = impresora interna),
+     *             paperWidth (int, para el ancho del raster de la imagen)
+     * @return data (ESC/POS en base64), bytes, native (se usó GS ( k), decoded (contenido leído de la imagen)
+     */
+    @PluginMethod
+    public void renderQr(PluginCall call) {
+        String content = call.getString("data");
+        String url = call.getString("url");
+        String image = call.getString("image");
+        int size = call.getInt("size", 6);
+        String ec = call.getString("ec", "M");
+        String ip = call.getString("ip");
+        int port = call.getInt("port", DEFAULT_PORT);
+        int paperWidth = call.getInt("paperWidth", 58);
+
+        if ((content == null || content.isEmpty()) && (url == null || url.isEmpty()) && (image == null || image.isEmpty())) {
+            call.reject("QR data or image is required");
+            return;
+        }
+
+        String lane = ip == null || ip.isEmpty() ? LANE_IMAGES : PrinterConnectionPool.key(ip, port);
+        dispatcher.execute(lane, () -> {
+            try {
+                boolean nativeQr = ip == null || ip.isEmpty() || !Boolean.FALSE.equals(resolveQrSupport(ip, port));
+                JSObject result = new JSObject();
+                String data = content;
+                byte[] escpos;
+
+                if (data == null || data.isEmpty()) {
+                    // Umbral y no Floyd: el QR se lee mejor con bordes limpios
+                    RasterCache cache = RasterCache.get(getContext());
+                    int width = EscPosRaster.logoWidth(paperWidth, 100);
+                    EscPosRaster raster = url != null && !url.isEmpty()
+                        ? cache.loadUrl(url, width, EscPosRaster.DITHER_THRESHOLD).raster
+                        : cache.load(android.util.Base64.decode(EscPosTemplate.stripDataUrl(image), android.util.Base64.DEFAULT),
+                            width, EscPosRaster.DITHER_THRESHOLD).raster;
+                    data = EscPosQr.decode(raster);
+                    if (data == null) {
+                        Log.w(TAG, "renderQr: could not decode QR image, sending it as raster");
+                        nativeQr = false;
+                    }
+                    escpos = data == null ? raster.toEscPos() : EscPosQr.render(data, size, ec, nativeQr);
+                    if (data != null) {
+                        result.put("decoded", data);
+                    }
+                } else {
+                    escpos = EscPosQr.render(data, size, ec, nativeQr);
+                }
+
+                result.put("success", true);
+                result.put("data", android.util.Base64.encodeToString(escpos, android.util.Base64.NO_WRAP));
+                result.put("bytes", escpos.length);
+                result.put("native", nativeQr);
+                call.resolve(result);
+
+            } catch (IOException | IllegalArgumentException | WriterException e) {
+                Log.e(TAG, "renderQr failed: " + e.getMessage());
+                call.reject("Failed to render QR: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Capacidades de una impresora, sondeándola si hace falta (una vez: queda guardado).
+     * JS lo consulta una vez por impresora y arma el QR él mismo si es nativo.
+     * @param call - Parámetros: ip (String), port (int, opcional)
+     * @return nativeQr (boolean: GS ( k o raster), known (false = no se pudo sondear, se asume nativo)
+     */
+    @PluginMethod
+    public void getPrinterCapabilities(PluginCall call) {
+        String ip = call.getString("ip");
+        int port = call.getInt("port", DEFAULT_PORT);
+
+        if (ip == null || ip.isEmpty()) {
+            call.reject("IP address is required");
+            return;
+        }
+
+        dispatcher.execute(PrinterConnectionPool.key(ip, port), () -> {
+            Boolean nativeQr = resolveQrSupport(ip, port);
+
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("nativeQr", !Boolean.FALSE.equals(nativeQr));
+            result.put("known", nativeQr != null);
+            call.resolve(result);
+        });
+    }
+
+    /**
+     * Forzar si una impresora tiene QR nativo, sin sondearla (o volver a sondear)
+     * @param call - Parámetros: ip (String), port (int, opcional),
+     *             nativeQr (boolean; sin valor = olvidar y sondear en el próximo ticket)
+     */
+    @PluginMethod
+    public void setPrinterCapabilities(PluginCall call) {
+        String ip = call.getString("ip");
+        int port = call.getInt("port", DEFAULT_PORT);
+        Boolean nativeQr = call.getBoolean("nativeQr");
+
+        if (ip == null || ip.isEmpty()) {
+            call.reject("IP address is required");
+            return;
+        }
+
+        PrinterCapabilities.get(getContext()).setNativeQr(PrinterConnectionPool.key(ip, port), nativeQr);
+        qrUnknownUntil.remove(PrinterConnectionPool.key(ip, port));
+
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("nativeQr", nativeQr);
+        call.resolve(result);
+    }
+
+    /**
+     * Vaciar el caché de imágenes (p.ej. al cambiar el logo del negocio)
+     */
+    @PluginMethod
+    public void clearImageCache(PluginCall call) {
+        dispatcher.execute(LANE_IMAGES, () -> {
+            RasterCache.get(getContext()).clear();
+
+            JSObject result = new JSObject();
+            result.put("success", true);
+            call.resolve(result);
+        });
+    }
+
+    /**
+     * Reimprimir un documento guardado en ReprintCache (printDirect/printTemplate/printBatch
+     * con documentId): los bytes van del archivo mapeado directo al socket, sin JS ni bridge.
+     * @param call - Parámetros: documentId (String), ip / port (opcionales, default la impresora
+     *             donde se imprimió), copies (int, opcional)
+     * Rechaza con código NOT_CACHED si el documento ya no está: JS debe armarlo de nuevo.
+     */
+    @PluginMethod
+    public void reprint(PluginCall call) {
+        String documentId = call.getString("documentId");
+        int copies = call.getInt("copies", 1);
+
+        if (documentId == null || documentId.isEmpty()) {
+            call.reject("Document ID is required");
+            return;
+        }
+
+        ReprintCache cache;
+        try {
+            cache = ReprintCache.get(getContext());
+        } catch (IOException e) {
+            call.reject("Reprint cache unavailable: " + e.getMessage());
+            return;
+        }
+        ReprintCache.Entry entry = cache.acquire(documentId);
+        if (entry == null) {
+            call.reject("Document not in reprint cache", "NOT_CACHED");
+            return;
+        }
+
+        String ip = call.getString("ip");
+        int port = call.getInt("port", DEFAULT_PORT);
+        if (ip == null || ip.isEmpty()) {
+            if (entry.port == 0) {
+                // Se imprimió por la impresora interna: no hay IP a la que volver
+                cache.release(entry);
+                call.reject("IP address is required");
+                return;
+            }
+            ip = entry.host;
+            port = call.getInt("port", entry.port);
+        }
+
+        final String targetIp = ip;
+        final int targetPort = port;
+        // Reimpresión: clase de fondo, no retrasa la boleta de caja que llegue detrás
+        dispatcher.execute(PrinterConnectionPool.key(targetIp, targetPort), PrintPriorityQueue.CLASS_BACKGROUND, () -> {
+            try {
+                String key = PrinterConnectionPool.key(targetIp, targetPort);
+                // La impresora solo acepta 1 conexión
+                disconnectIfConnectedTo(key);
+                pool.evict(key);
+                evictNio(key);
+
+                JSObject result = sendBuffer(targetIp, targetPort, entry.data, copies, "reprint");
+                result.put("documentId", documentId);
+                result.put("printedAt", entry.createdAt);
                 call.resolve(result);
 
+            } catch (PrinterStatus.PrinterStatusException e) {
+                call.reject(e.getMessage(), e.code);
             } catch (IOException e) {
-                Log.e(TAG, "printDirect failed: " + e.getMessage());
-                call.reject("Failed to print: " + e.getMessage());
+                Log.e(TAG, "reprint failed: " + e.getMessage());
+                call.reject("Failed to reprint: " + e.getMessage());
             } finally {
-                // Asegurar que el socket temporal se cierre
-                if (tempSocket != null) {
-                    try { tempSocket.close(); } catch (IOException ignored) {}
-                }
+                cache.release(entry);
             }
         });
     }
 
     /**
-     * Obtener bytes de comando ESC/POS
+     * Imprimir un archivo binario ESC/POS sin pasar los bytes por el bridge.
+     * JS escribe el buffer en un archivo temporal (Filesystem, Directory.Cache o Data)
+     * y envía solo la ruta. El archivo se mapea en memoria y se escribe directo al
+     * SocketChannel: sin String base64, sin byte[] decodificado en el heap.
+     * @param call - Parámetros: ip (String), port (int, opcional), path (String, ruta o file:// URI),
+     *             copies (int, opcional), deleteAfter (boolean, opcional, default false),
+     *             idempotencyKey (String, opcional, como printDirect)
      */
-    private byte[] getEscPosCommand(String command) {
-        switch (command) {
-            case "INIT":
-            case "RESET":
-                return new byte[]{0x1B, 0x40}; // ESC @
-            case "CUT":
-            case "CUT_PAPER":
-                return new byte[]{0x1D, 0x56, 0x00}; // GS V 0
-            case "CUT_PARTIAL":
-                return new byte[]{0x1D, 0x56, 0x01}; // GS V 1
-            case "ALIGN_LEFT":
-                return new byte[]{0x1B, 0x61, 0x00}; // ESC a 0
-            case "ALIGN_CENTER":
-                return new byte[]{0x1B, 0x61, 0x01}; // ESC a 1
-            case "ALIGN_RIGHT":
-                return new byte[]{0x1B, 0x61, 0x02}; // ESC a 2
-            case "BOLD_ON":
-                return new byte[]{0x1B, 0x45, 0x01}; // ESC E 1
-            case "BOLD_OFF":
-                return new byte[]{0x1B, 0x45, 0x00}; // ESC E 0
-            case "UNDERLINE_ON":
-                return new byte[]{0x1B, 0x2D, 0x01}; // ESC - 1
-            case "UNDERLINE_OFF":
-                return new byte[]{0x1B, 0x2D, 0x00}; // ESC - 0
-            case "DOUBLE_WIDTH_ON":
-                return new byte[]{0x1B, 0x21, 0x20}; // ESC ! 32
-            case "DOUBLE_WIDTH_OFF":
-                return new byte[]{0x1B, 0x21, 0x00}; // ESC ! 0
-            case "DOUBLE_HEIGHT_ON":
-                return new byte[]{0x1B, 0x21, 0x10}; // ESC ! 16
-            case "DOUBLE_HEIGHT_OFF":
-                return new byte[]{0x1B, 0x21, 0x00}; // ESC ! 0
-            case "FEED_LINE":
-                return new byte[]{0x0A}; // LF
-            case "FEED_3_LINES":
-                return new byte[]{0x1B, 0x64, 0x03}; // ESC d 3
-            default:
+    @PluginMethod
+    public void printFile(PluginCall call) {
+        String ip = call.getString("ip");
+        int port = call.getInt("port", DEFAULT_PORT);
+        String path = call.getString("path");
+        int copies = call.getInt("copies", 1);
+        boolean deleteAfter = call.getBoolean("deleteAfter", false);
+
+        if (ip == null || ip.isEmpty()) {
+            call.reject("IP address is required");
+            return;
+        }
+        if (path == null || path.isEmpty()) {
+            call.reject("File path is required");
+            return;
+        }
+
+        File file = resolveJobFile(getContext(), path);
+        if (file == null) {
+            call.reject("File must be inside the app files or cache directory");
+            return;
+        }
+
+        if (!idempotency.begin(call)) {
+            return;
+        }
+
+        long queuedAt = System.currentTimeMillis();
+        dispatcher.execute(PrinterConnectionPool.key(ip, port), priority(call), idempotency.guard(call, () -> {
+            try {
+                long start = System.currentTimeMillis();
+                JSObject result = sendFile(ip, port, file, copies);
+                result.put("queuedMs", start - queuedAt);
+                idempotency.resolve(call, result);
+
+            } catch (IOException e) {
+                Log.e(TAG, "printFile failed: " + e.getMessage());
+                rejectJob(call, e);
+            } finally {
+                if (deleteAfter && !file.delete()) {
+                    Log.w(TAG, "printFile: could not delete " + file.getName());
+                }
+            }
+        }));
+    }
+
+    /**
+     * Resolver la ruta enviada por JS, aceptando solo archivos dentro de los
+     * directorios privados de la app (files/cache).
+     */
+    static File resolveJobFile(Context context, String path) {
+        String filePath = path.startsWith("file://") ? path.substring("file://".length()) : path;
+        try {
+            File file = new File(filePath).getCanonicalFile();
+            String canonical = file.getPath();
+            String filesDir = context.getFilesDir().getCanonicalPath() + File.separator;
+            String cacheDir = context.getCacheDir().getCanonicalPath() + File.separator;
+            if (!canonical.startsWith(filesDir) && !canonical.startsWith(cacheDir)) {
                 return null;
+            }
+            return file;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Enviar un archivo mapeado en memoria por un SocketChannel propio (no usa el pool:
+     * un archivo grande amortiza el handshake). Los canales bloqueantes no tienen
+     * timeout de escritura, así que un watchdog cierra el canal si no avanza en
+     * el timeout de la impresora (PrinterLinkStats).
+     */
+    private JSObject sendFile(String ip, int port, File file, int copies) throws IOException {
+        String key = PrinterConnectionPool.key(ip, port);
+        // La impresora solo acepta 1 conexión
+        disconnectIfConnectedTo(key);
+        pool.evict(key);
+        evictNio(key);
+
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel fileChannel = input.getChannel();
+            long size = fileChannel.size();
+            if (size == 0) {
+                throw new IOException("File is empty");
+            }
+            MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return sendBuffer(ip, port, mapped, copies, "printFile");
+        } finally {
+            try { input.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Escribir un buffer (archivo o caché de reimpresión mapeados) directo al
+     * SocketChannel, sin copiarlo al heap
+     */
+    private JSObject sendBuffer(String ip, int port, ByteBuffer data, int copies, String label) throws IOException {
+        String key = PrinterConnectionPool.key(ip, port);
+        breaker.check(key);
+        int count = Math.max(1, Math.min(copies, MAX_COPIES));
+        long size = data.remaining();
+        long start = System.currentTimeMillis();
+        SocketChannel channel = SocketChannel.open();
+        ScheduledFuture<?> watchdog = null;
+        boolean wrote = false; // desde el primer byte escrito un error puede dejar el ticket impreso (SentException)
+        try {
+            channel.socket().connect(links.address(ip, port), links.connectTimeout(key));
+            links.recordConnect(key, System.currentTimeMillis() - start);
+            PrinterLinkStats.configure(channel.socket());
+            long writeStart = System.currentTimeMillis();
+
+            final int stallTimeout = links.socketTimeout(key);
+            final AtomicLong lastProgress = new AtomicLong(System.currentTimeMillis());
+            watchdog = timers.scheduleWithFixedDelay(() -> {
+                if (System.currentTimeMillis() - lastProgress.get() > stallTimeout) {
+                    Log.w(TAG, label + ": no progress writing to " + key + ", closing channel");
+                    try { channel.close(); } catch (IOException ignored) {}
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+
+            for (int i = 0; i < count; i++) {
+                ByteBuffer view = data.duplicate();
+                while (view.hasRemaining()) {
+                    if (channel.write(view) > 0) {
+                        wrote = true;
+                        lastProgress.set(System.currentTimeMillis());
+                    }
+                }
+            }
+
+            links.recordSuccess(key, System.currentTimeMillis() - writeStart);
+            Log.d(TAG, label + ": sent " + size * count + " bytes to " + key);
+
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("bytesWritten", size * count);
+            result.put("copies", count);
+            result.put("durationMs", System.currentTimeMillis() - start);
+            return result;
+
+        } catch (ClosedChannelException e) {
+            SocketTimeoutException timeout = new SocketTimeoutException("Write timed out");
+            links.recordFailure(key, timeout);
+            throw wrote ? new PrintBackend.SentException(timeout) : timeout;
+        } catch (IOException e) {
+            links.recordFailure(key, e);
+            throw wrote ? new PrintBackend.SentException(e) : e;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Ejecutar un trabajo, pasando por el spool si se pidió. Sin spool los errores
+     * se propagan; con spool un fallo queda programado para reintento.
+     */
+    private JSObject runJob(String ip, int port, EscPosCopies copies, boolean keepAlive, boolean useSpool,
+                            boolean check, PacedWriter writer) throws IOException {
+        PrintSpool currentSpool = spool;
+        if (!useSpool || currentSpool == null) {
+            return sendDirect(ip, port, copies, keepAlive, check, writer);
+        }
+
+        // El spool guarda un arreglo y un contador: copias distintas (marcador) van ya desplegadas
+        String key = PrinterConnectionPool.key(ip, port);
+        PrintSpool.Job job = copies.uniform()
+            ? currentSpool.enqueue(key, copies.first, copies.count)
+            : currentSpool.enqueue(key, copies.flatten(), 1);
+        return attemptSpooled(job, keepAlive, check, writer, false);
+    }
+
+    /**
+     * Intentar imprimir un trabajo del spool (en el carril de su impresora).
+     * Si la impresora reporta sin papel o tapa abierta, el trabajo se difiere igual
+     * que ante un error de red.
+     * @param writer envío por tramos; null en segundo plano usa el ritmo aprendido de la impresora
+     * @param background true si nadie espera el resultado (reintento o recuperación)
+     */
+    private JSObject attemptSpooled(PrintSpool.Job job, boolean keepAlive, boolean check, PacedWriter writer,
+                                    boolean background) {
+        if (background && !spool.isPending(job.id)) {
+            // Ya lo imprimió otro intento (reintento programado + reanudación del circuito)
+            return new JSObject();
+        }
+        if (!breaker.allows(job.target)) {
+            // Impresora caída: no gastar intentos; resumeSpooled lo retoma al cerrarse el circuito
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("spooled", true);
+            result.put("jobId", job.id);
+            result.put("code", PrinterCircuitBreaker.CODE_OFFLINE);
+            result.put("error", "Printer " + job.target + " is offline");
+            return result;
+        }
+        int separator = job.target.lastIndexOf(':');
+        String ip = job.target.substring(0, separator);
+        int port = Integer.parseInt(job.target.substring(separator + 1));
+        if (writer == null && background && drainRates.containsKey(job.target)) {
+            writer = pacedWriter(job.target, PacedWriter.DEFAULT_CHUNK_SIZE, false, null);
+        }
+
+        try {
+            JSObject result = sendDirect(ip, port, copies(job.data, job.copies, null, null), keepAlive, check, writer);
+            spool.markDone(job);
+            result.put("jobId", job.id);
+
+            if (background) {
+                JSObject event = new JSObject();
+                event.put("jobId", job.id);
+                event.put("printer", job.target);
+                event.put("attempts", job.attempts + 1);
+                notifyListeners("spoolJobDone", event);
+            }
+            return result;
+
+        } catch (IOException e) {
+            // Si ya salieron bytes no se reintenta: el ticket pudo imprimirse
+            boolean sent = e instanceof PrintBackend.SentException;
+            boolean willRetry = false;
+            if (sent) {
+                spool.markSent(job, e.getMessage());
+            } else {
+                willRetry = spool.scheduleRetry(job, e.getMessage());
+            }
+            Log.w(TAG, "Spooled job " + job.id + " to " + job.target + " failed (attempt " + job.attempts + "): " + e.getMessage());
+
+            JSObject event = new JSObject();
+            event.put("jobId", job.id);
+            event.put("printer", job.target);
+            event.put("attempts", job.attempts);
+            event.put("error", e.getMessage());
+            if (e instanceof PrinterStatus.PrinterStatusException) {
+                event.put("code", ((PrinterStatus.PrinterStatusException) e).code);
+            } else if (sent) {
+                event.put("code", ((PrintBackend.SentException) e).code);
+            }
+            event.put("sent", sent);
+            event.put("willRetry", willRetry);
+            if (willRetry) {
+                event.put("retryInMs", Math.max(0, job.nextAttemptAt - System.currentTimeMillis()));
+            }
+            notifyListeners("spoolJobFailed", event);
+
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("spooled", willRetry);
+            result.put("sent", sent);
+            result.put("jobId", job.id);
+            result.put("error", e.getMessage());
+            return result;
+        }
+    }
+
+    /**
+     * Listar los trabajos pendientes del spool
+     */
+    @PluginMethod
+    public void getSpoolJobs(PluginCall call) {
+        call.resolve(spoolJobsResult(spool));
+    }
+
+    /**
+     * Cancelar un trabajo pendiente del spool
+     * @param call - Parámetros: jobId (String)
+     */
+    @PluginMethod
+    public void cancelSpoolJob(PluginCall call) {
+        String jobId = call.getString("jobId");
+        if (jobId == null || jobId.isEmpty()) {
+            call.reject("jobId is required");
+            return;
+        }
+
+        JSObject result = new JSObject();
+        result.put("success", spool != null && spool.cancel(jobId));
+        call.resolve(result);
+    }
+
+    static JSObject spoolJobsResult(PrintSpool spool) {
+        JSArray jobs = new JSArray();
+        if (spool != null) {
+            for (PrintSpool.Job job : spool.pendingJobs()) {
+                JSObject item = new JSObject();
+                item.put("jobId", job.id);
+                item.put("printer", job.target);
+                item.put("bytes", job.data.length);
+                item.put("copies", job.copies);
+                item.put("attempts", job.attempts);
+                item.put("createdAt", job.createdAt);
+                if (job.lastError != null) {
+                    item.put("lastError", job.lastError);
+                }
+                if (job.nextAttemptAt > 0) {
+                    item.put("nextAttemptAt", job.nextAttemptAt);
+                }
+                jobs.put(item);
+            }
+        }
+
+        JSObject result = new JSObject();
+        result.put("jobs", jobs);
+        return result;
+    }
+
+    /**
+     * Enviar un trabajo completo a una impresora usando el pool de conexiones.
+     * Se ejecuta dentro del carril de la impresora.
+     * @param check consultar el estado (DLE EOT) antes de enviar: sin papel, tapa
+     *              abierta o error fallan al instante con PrinterStatusException
+     * @param writer envío por tramos con ritmo adaptativo (null = un solo write)
+     */
+    private JSObject sendDirect(String ip, int port, EscPosCopies copies, boolean keepAlive, boolean check,
+                                PacedWriter writer) throws IOException {
+        String key = PrinterConnectionPool.key(ip, port);
+        breaker.check(key);
+        // Cerrar conexión persistente si es a esta impresora (solo acepta 1 conexión)
+        disconnectIfConnectedTo(key);
+        evictNio(key);
+
+        long start = System.currentTimeMillis();
+        PrinterConnectionPool.Connection connection;
+        try {
+            connection = pool.acquire(ip, port);
+        } catch (IOException e) {
+            links.recordFailure(key, e);
+            throw e;
+        }
+        PrinterStatus status;
+        long writeMs;
+        boolean writing = false; // desde acá un error puede dejar el ticket impreso (SentException)
+        try {
+            try {
+                status = checkReady(key, connection, check);
+            } catch (PrinterStatus.PrinterStatusException e) {
+                throw e;
+            } catch (IOException e) {
+                if (!connection.reused) {
+                    throw e;
+                }
+                // La conexión reutilizada murió entre trabajos (acquire ya la sondeó, pero pudo
+                // cerrarse después): todavía no salió ningún byte del ticket, reintentar con una nueva
+                Log.w(TAG, "printDirect: reused connection to " + ip + ":" + port + " failed, reconnecting");
+                pool.discard(connection);
+                connection = pool.acquire(ip, port);
+                status = checkReady(key, connection, check);
+            }
+            // Desde el primer write no se reintenta: parte del ticket pudo salir (SentException)
+            long writeStart = System.currentTimeMillis();
+            writing = true;
+            writeJob(connection, copies, writer);
+            writeMs = System.currentTimeMillis() - writeStart;
+            links.recordSuccess(key, writeMs);
+            if (writer != null && writer.getDrainRate() > 0) {
+                drainRates.put(key, writer.getDrainRate());
+            }
+            boolean reused = connection.reused;
+
+            // Estado durante el trabajo (p.ej. papel por acabarse): solo se informa.
+            // Los bytes ya salieron: si la consulta falla el ticket está impreso igual y
+            // no debe contar como fallo (reintento, spool o failover lo imprimirían dos veces).
+            if (status != null && status.responded) {
+                try {
+                    status = PrinterStatus.query(connection.socket, STATUS_TIMEOUT, links.socketTimeout(key));
+                    recordStatus(key, status);
+                } catch (IOException e) {
+                    Log.w(TAG, "printDirect: status after job to " + ip + ":" + port + " failed: " + e.getMessage());
+                    status = null;
+                    keepAlive = false;
+                }
+            }
+
+            Log.d(TAG, "printDirect: sent " + copies.totalLength() + " bytes to " + ip + ":" + port
+                + (reused ? " (reused connection)" : " (new connection)"));
+
+            if (keepAlive) {
+                pool.release(connection);
+            } else {
+                pool.discard(connection);
+            }
+            connection = null;
+
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("bytesWritten", copies.totalLength());
+            result.put("copies", copies.count);
+            result.put("reused", reused);
+            result.put("durationMs", System.currentTimeMillis() - start);
+            if (status != null) {
+                result.put("status", status.toJSObject());
+            }
+            return result;
+        } catch (PrinterStatus.PrinterStatusException e) {
+            // Impresora sin papel / tapa abierta: el enlace está bien
+            throw writing ? new PrintBackend.SentException(e) : e;
+        } catch (IOException e) {
+            links.recordFailure(key, e);
+            throw writing ? new PrintBackend.SentException(e) : e;
+        } finally {
+            // Asegurar que un socket que falló no vuelva al pool
+            if (connection != null) {
+                pool.discard(connection);
+            }
+        }
+    }
+
+    /**
+     * Guardar los bytes del trabajo para reprint (si trae documentId). Un fallo del
+     * caché nunca frena la impresión.
+     */
+    private void rememberJob(String documentId, String ip, int port, byte[] data) {
+        if (documentId == null || documentId.isEmpty()) {
+            return;
+        }
+        try {
+            if (!ReprintCache.get(getContext()).put(documentId, ip, port, data)) {
+                Log.d(TAG, "Job " + documentId + " not kept for reprint");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache job for reprint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Consultar el estado antes de enviar el trabajo. Devuelve null si no se
+     * consultó (desactivado o impresora sin soporte para DLE EOT).
+     */
+    private PrinterStatus checkReady(String key, PrinterConnectionPool.Connection connection, boolean check) throws IOException {
+        if (!check) {
+            return null;
+        }
+        Long unsupportedUntil = statusUnsupportedUntil.get(key);
+        if (unsupportedUntil != null && unsupportedUntil > System.currentTimeMillis()) {
+            return null;
+        }
+
+        PrinterStatus status = PrinterStatus.query(connection.socket, STATUS_TIMEOUT, links.socketTimeout(key));
+        recordStatus(key, status);
+        status.throwIfNotReady();
+        return status;
+    }
+
+    /**
+     * ¿La impresora imprime QR nativo? Se sondea una vez (GS ( k fn 82) y se guarda:
+     * el sí para siempre, el no (no respondió) por QR_NEGATIVE_TTL, y mientras tanto
+     * el QR va como raster. Si no se pudo sondear (sin conexión) no se sabe: null, se
+     * usa QR nativo y no se reintenta por QR_UNKNOWN_TTL.
+     * setPrinterCapabilities fija el valor a mano (p. ej. una impresora que imprime
+     * GS ( k sin atender fn 82).
+     */
+    private Boolean resolveQrSupport(String ip, int port) {
+        String key = PrinterConnectionPool.key(ip, port);
+        PrinterCapabilities capabilities = PrinterCapabilities.get(getContext());
+        Boolean known = capabilities.nativeQr(key);
+        if (known != null) {
+            return known;
+        }
+        Long unknownUntil = qrUnknownUntil.get(key);
+        if (unknownUntil != null && unknownUntil > System.currentTimeMillis()) {
+            return null;
+        }
+
+        try {
+            PrinterConnectionPool.Connection connection = pool.acquire(ip, port);
+            try {
+                boolean answered = EscPosQr.probe(connection.socket, STATUS_TIMEOUT, links.socketTimeout(key));
+                pool.release(connection);
+                qrUnknownUntil.remove(key);
+                if (answered) {
+                    capabilities.setNativeQr(key, true);
+                    Log.d(TAG, "Printer " + key + " supports native QR");
+                } else {
+                    capabilities.setNoNativeQr(key, QR_NEGATIVE_TTL);
+                    Log.d(TAG, "Printer " + key + " did not answer the QR probe, using raster QR");
+                }
+                return answered;
+            } catch (IOException e) {
+                pool.discard(connection);
+                throw e;
+            }
+        } catch (IOException e) {
+            qrUnknownUntil.put(key, System.currentTimeMillis() + QR_UNKNOWN_TTL);
+            Log.w(TAG, "Could not probe QR support for " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void onCircuitChange(String key, String state, String previous, int failureStreak, String error) {
+        JSObject event = new JSObject();
+        event.put("printer", key);
+        event.put("state", state);
+        event.put("previous", previous);
+        event.put("failureStreak", failureStreak);
+        if (error != null) {
+            event.put("error", error);
+        }
+        notifyListeners("printerCircuitChange", event);
+
+        if (PrinterCircuitBreaker.STATE_CLOSED.equals(state)) {
+            resumeSpooled(key);
+        }
+    }
+
+    /**
+     * La impresora volvió: enviar en orden los trabajos del spool que esperaban por ella
+     */
+    private void resumeSpooled(String key) {
+        PrintSpool currentSpool = spool;
+        if (currentSpool == null) {
+            return;
+        }
+        for (PrintSpool.Job job : currentSpool.pendingJobs()) {
+            if (key.equals(job.target)) {
+                dispatcher.execute(key, PrintPriorityQueue.CLASS_BACKGROUND,
+                    () -> attemptSpooled(job, true, checkStatus, null, true));
+            }
+        }
+    }
+
+    private void recordStatus(String key, PrinterStatus status) {
+        if (status.responded) {
+            lastStatus.put(key, status);
+            statusUnsupportedUntil.remove(key);
+            if (status.paperNearEnd) {
+                Log.w(TAG, "Printer " + key + " is near paper end");
+            }
+        } else {
+            Log.d(TAG, "Printer " + key + " does not answer DLE EOT, skipping status checks");
+            statusUnsupportedUntil.put(key, System.currentTimeMillis() + STATUS_UNSUPPORTED_TTL);
+        }
+    }
+
+    private void writeJob(PrinterConnectionPool.Connection connection, EscPosCopies copies, PacedWriter writer) throws IOException {
+        if (writer != null) {
+            writer.write(connection.socket, copies);
+            return;
+        }
+        for (int i = 0; i < copies.count; i++) {
+            connection.outputStream.write(copies.copy(i));
+        }
+        connection.outputStream.flush();
+    }
+
+    /**
+     * Copias pedidas en la llamada (copies, copyMarker, copyLabel)
+     */
+    private static EscPosCopies copies(PluginCall call, byte[] data) {
+        return copies(data, call.getInt("copies", 1), call.getString("copyMarker"), call.getString("copyLabel"));
+    }
+
+    /**
+     * Clase de prioridad del trabajo según su documentType (ver PrintPriorityQueue)
+     */
+    private static int priority(PluginCall call) {
+        return PrintPriorityQueue.classOf(call.getString("documentType"));
+    }
+
+    /**
+     * Rechazar un trabajo fallido con el código de estado si lo hay. Si ya habían
+     * salido bytes (SentException) la clave de idempotencia se conserva y el
+     * reintento de JS con la misma clave no reimprime
+     */
+    private void rejectJob(PluginCall call, IOException e) {
+        if (e instanceof PrinterStatus.PrinterStatusException) {
+            idempotency.reject(call, e.getMessage(), ((PrinterStatus.PrinterStatusException) e).code);
+        } else if (e instanceof PrintBackend.SentException) {
+            idempotency.reject(call, "Failed to print: " + e.getMessage(), ((PrintBackend.SentException) e).code, true);
+        } else {
+            idempotency.reject(call, "Failed to print: " + e.getMessage());
+        }
+    }
+
+    private static EscPosCopies copies(byte[] data, int count, String marker, String label) {
+        return EscPosCopies.of(data, Math.max(1, Math.min(count, MAX_COPIES)), marker, label);
+    }
+
+    /**
+     * Escritor por tramos según las opciones de la llamada (null si chunkSize no se pidió)
+     */
+    private PacedWriter pacedWriter(PluginCall call, String key) {
+        int chunkSize = call.getInt("chunkSize", 0);
+        if (chunkSize <= 0) {
+            return null;
+        }
+        return pacedWriter(key, chunkSize, call.getBoolean("statusSync", false), call.getString("tag"));
+    }
+
+    /**
+     * Escritor por tramos que parte de la velocidad aprendida de la impresora y
+     * emite eventos printProgress
+     */
+    private PacedWriter pacedWriter(String key, int chunkSize, boolean statusSync, String tag) {
+        Double learned = drainRates.get(key);
+        return new PacedWriter(chunkSize, learned != null ? learned : 0, statusSync, STATUS_TIMEOUT, links.socketTimeout(key),
+            (bytesSent, totalBytes, etaMs, bytesPerSecond) -> {
+                JSObject event = new JSObject();
+                event.put("printer", key);
+                if (tag != null) {
+                    event.put("tag", tag);
+                }
+                event.put("bytesSent", bytesSent);
+                event.put("totalBytes", totalBytes);
+                event.put("percent", (int) (bytesSent * 100 / Math.max(1, totalBytes)));
+                event.put("etaMs", etaMs);
+                event.put("bytesPerSecond", (long) bytesPerSecond);
+                notifyListeners("printProgress", event);
+            });
+    }
+
+    /**
+     * Resultado de un trabajo del transporte NIO (en el hilo del selector)
+     */
+    private interface NioResult {
+        void onResult(JSObject result);
+        void onError(IOException e);
+    }
+
+    /**
+     * Enviar un trabajo por el motor NIO, sin ocupar un hilo del dispatcher.
+     * Se llama desde el carril de la impresora (executeAsync), que queda ocupado
+     * hasta el callback: no se cruza con los trabajos del transporte bloqueante.
+     * No consulta estado (DLE EOT) ni usa el spool: esos trabajos van por el transporte bloqueante.
+     */
+    private void submitNio(String ip, int port, EscPosCopies copies, boolean keepAlive, long queuedAt, NioResult callback) {
+        NioPrinterEngine engine;
+        try {
+            engine = nioEngine();
+        } catch (IOException e) {
+            callback.onError(e);
+            return;
+        }
+
+        String key = PrinterConnectionPool.key(ip, port);
+        try {
+            breaker.check(key);
+        } catch (PrinterStatus.PrinterStatusException e) {
+            callback.onError(e);
+            return;
+        }
+        // La impresora solo acepta 1 conexión
+        disconnectIfConnectedTo(key);
+        pool.evict(key);
+
+        engine.submit(ip, port, copies, keepAlive, new NioPrinterEngine.Callback() {
+            @Override
+            public void onComplete(long bytesWritten, boolean reused, long durationMs) {
+                links.recordSuccess(key, durationMs);
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("bytesWritten", bytesWritten);
+                result.put("copies", copies.count);
+                result.put("reused", reused);
+                result.put("durationMs", durationMs);
+                result.put("queuedMs", Math.max(0, System.currentTimeMillis() - queuedAt - durationMs));
+                result.put("transport", TRANSPORT_NIO);
+                callback.onResult(result);
+            }
+
+            @Override
+            public void onError(IOException error) {
+                links.recordFailure(key, error);
+                callback.onError(error);
+            }
+        });
+    }
+
+    private synchronized NioPrinterEngine nioEngine() throws IOException {
+        if (nio == null || !nio.isRunning()) {
+            // Primera vez, o el hilo del selector terminó: sus trabajos ya fallaron
+            nio = new NioPrinterEngine(links, pool.getIdleTimeout());
+        }
+        return nio;
+    }
+
+    private synchronized void evictNio(String key) {
+        if (nio != null) {
+            nio.evict(key);
+        }
+    }
+
+    /**
+     * Buscar impresoras en la red local (ver PrinterDiscovery). Cada impresora
+     * encontrada se emite apenas responde con el evento printerFound; al terminar
+     * se resuelve con la lista completa.
+     * @param call - Parámetros: cidr (String, opcional, default la red del dispositivo en /24),
+     *             ports (Array de int, opcional, default [9100]), timeoutMs (int, opcional, default 400),
+     *             concurrency (int, opcional, default 64), identify (boolean, opcional, default true)
+     */
+    @PluginMethod
+    public void discover(PluginCall call) {
+        String cidr = call.getString("cidr");
+        int timeoutMs = Math.max(50, call.getInt("timeoutMs", PrinterDiscovery.DEFAULT_TIMEOUT));
+        int concurrency = Math.max(1, Math.min(call.getInt("concurrency", PrinterDiscovery.DEFAULT_CONCURRENCY), 256));
+        boolean identify = call.getBoolean("identify", true);
+
+        int[] ports;
+        JSArray portList = call.getArray("ports");
+        if (portList != null && portList.length() > 0) {
+            ports = new int[portList.length()];
+            for (int i = 0; i < ports.length; i++) {
+                ports[i] = portList.optInt(i, DEFAULT_PORT);
+            }
+        } else {
+            ports = new int[]{DEFAULT_PORT};
+        }
+
+        dispatcher.execute(LANE_DISCOVER, () -> {
+            try {
+                String range = cidr != null && !cidr.isEmpty() ? cidr : PrinterDiscovery.localCidr();
+                if (range == null) {
+                    call.reject("Not connected to a local network");
+                    return;
+                }
+
+                long start = System.currentTimeMillis();
+                List<String> hosts = PrinterDiscovery.hosts(range);
+                Log.d(TAG, "discover: scanning " + hosts.size() + " hosts in " + range);
+
+                List<PrinterDiscovery.Result> found = PrinterDiscovery.scan(hosts, ports, concurrency, timeoutMs,
+                    identify, printer -> notifyListeners("printerFound", discoveryResult(printer)));
+
+                JSArray printers = new JSArray();
+                for (PrinterDiscovery.Result printer : found) {
+                    printers.put(discoveryResult(printer));
+                }
+
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("cidr", range);
+                result.put("scanned", hosts.size() * ports.length);
+                result.put("durationMs", System.currentTimeMillis() - start);
+                result.put("printers", printers);
+                call.resolve(result);
+
+            } catch (IllegalArgumentException e) {
+                call.reject(e.getMessage());
+            } catch (IOException e) {
+                Log.e(TAG, "discover failed: " + e.getMessage());
+                call.reject("Failed to discover printers: " + e.getMessage());
+            }
+        });
+    }
+
+    private static JSObject discoveryResult(PrinterDiscovery.Result printer) {
+        JSObject item = new JSObject();
+        item.put("ip", printer.ip);
+        item.put("port", printer.port);
+        item.put("latencyMs", printer.latencyMs);
+        if (printer.manufacturer != null) {
+            item.put("manufacturer", printer.manufacturer);
+        }
+        if (printer.model != null) {
+            item.put("model", printer.model);
+        }
+        return item;
+    }
+
+    /**
+     * Configurar el pool de conexiones de printDirect
+     * @param call - Parámetros: idleTimeoutMs (int, 0 = cerrar tras cada trabajo)
+     */
+    @PluginMethod
+    public void setPoolOptions(PluginCall call) {
+        Integer idleTimeoutMs = call.getInt("idleTimeoutMs");
+        if (idleTimeoutMs != null) {
+            pool.setIdleTimeout(idleTimeoutMs);
+            synchronized (this) {
+                if (nio != null) {
+                    nio.setIdleTimeout(idleTimeoutMs);
+                }
+            }
+        }
+
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("idleTimeoutMs", pool.getIdleTimeout());
+        call.resolve(result);
+    }
+
+    /**
+     * Configurar el circuit breaker por impresora (ver PrinterCircuitBreaker)
+     * @param call - Parámetros: enabled (boolean), threshold (int: fallos seguidos para abrir),
+     *             probeIntervalMs (int: primer sondeo; luego se duplica hasta 30 s)
+     */
+    @PluginMethod
+    public void setCircuitOptions(PluginCall call) {
+        Integer probeIntervalMs = call.getInt("probeIntervalMs");
+        breaker.configure(call.getBoolean("enabled"), call.getInt("threshold"),
+            probeIntervalMs != null ? Long.valueOf(probeIntervalMs) : null);
+
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("enabled", breaker.isEnabled());
+        result.put("threshold", breaker.getThreshold());
+        result.put("probeIntervalMs", breaker.getProbeInterval());
+        call.resolve(result);
+    }
+
+    /**
+     * Estadísticas del pool de conexiones y de enlace por impresora (latencias
+     * promedio, racha de fallos: ver PrinterLinkStats)
+     */
+    @PluginMethod
+    public void getPoolStats(PluginCall call) {
+        JSObject result = new JSObject();
+        result.put("idleTimeoutMs", pool.getIdleTimeout());
+        result.put("idleConnections", pool.idleCount());
+        result.put("reused", pool.getHits());
+        result.put("opened", pool.getMisses());
+        JSArray printers = new JSArray();
+        for (JSObject link : links.snapshot()) {
+            breaker.describe(link.getString("printer"), link);
+            printers.put(link);
+        }
+        result.put("printers", printers);
+        call.resolve(result);
+    }
+
+    /**
+     * Configurar el despacho por impresora
+     * @param call - Parámetros: maxThreads (int, hilos totales para todas las impresoras),
+     *             transport ("blocking" | "nio": transporte por defecto de printDirect/printBatch),
+     *             optimize (boolean: pasar los streams por EscPosOptimizer por defecto),
+     *             idempotencyTtlMs / idempotencyMaxEntries (int: tabla de PrintIdempotency),
+     *             agingMs (int: cada cuánto un trabajo en espera sube una clase de prioridad)
+     */
+    @PluginMethod
+    public void setDispatchOptions(PluginCall call) {
+        Integer maxThreads = call.getInt("maxThreads");
+        String transportName = call.getString("transport");
+        if (transportName != null && !TRANSPORT_BLOCKING.equals(transportName) && !TRANSPORT_NIO.equals(transportName)) {
+            call.reject("Unknown transport: " + transportName);
+            return;
+        }
+        if (maxThreads != null) {
+            dispatcher.setMaxThreads(maxThreads);
+        }
+        if (transportName != null) {
+            transport = transportName;
+        }
+        Boolean optimize = call.getBoolean("optimize");
+        if (optimize != null) {
+            optimizeStreams = optimize;
+        }
+        Integer idempotencyTtlMs = call.getInt("idempotencyTtlMs");
+        idempotency.configure(idempotencyTtlMs != null ? Long.valueOf(idempotencyTtlMs) : null,
+            call.getInt("idempotencyMaxEntries"));
+        Integer agingMs = call.getInt("agingMs");
+        dispatcher.getWaitStats().setAging(agingMs != null ? Long.valueOf(agingMs) : null);
+
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("maxThreads", dispatcher.getMaxThreads());
+        result.put("transport", transport);
+        result.put("optimize", optimizeStreams);
+        result.put("idempotencyTtlMs", idempotency.getTtl());
+        result.put("idempotencyMaxEntries", idempotency.getMaxEntries());
+        result.put("agingMs", dispatcher.getWaitStats().getAging());
+        call.resolve(result);
+    }
+
+    /**
+     * Estado de las colas: trabajos pendientes por impresora
+     */
+    @PluginMethod
+    public void getQueueStats(PluginCall call) {
+        JSArray lanes = new JSArray();
+        for (PrinterLaneDispatcher.LaneStats lane : dispatcher.snapshot()) {
+            JSObject item = new JSObject();
+            item.put("printer", lane.key);
+            item.put("queued", lane.queued);
+            item.put("running", lane.running);
+            item.put("completed", lane.completed);
+            item.put("queuedByPriority", lane.queuedByPriority);
+            lanes.put(item);
+        }
+
+        JSObject result = new JSObject();
+        result.put("maxThreads", dispatcher.getMaxThreads());
+        result.put("activeThreads", dispatcher.getActiveThreads());
+        result.put("lanes", lanes);
+        result.put("priorities", dispatcher.getWaitStats().toJSONArray());
+        result.put("agingMs", dispatcher.getWaitStats().getAging());
+        result.put("transport", transport);
+        synchronized (this) {
+            if (nio != null) {
+                JSObject nioStats = new JSObject();
+                nioStats.put("openChannels", nio.getOpenChannels());
+                nioStats.put("activeJobs", nio.getActiveJobs());
+                nioStats.put("directBuffers", nio.getAllocatedBuffers());
+                nioStats.put("completed", nio.getCompletedJobs());
+                nioStats.put("failed", nio.getFailedJobs());
+                result.put("nio", nioStats);
+            }
+        }
+        call.resolve(result);
+    }
+
+    /**
+     * Obtener bytes de comando ESC/POS (constantes compartidas, sin asignar memoria)
+     */
+    private byte[] getEscPosCommand(String command) {
+        return EscPos.command(command);
+    }
+
+    /**
+     * Backend "tcp" de PrintRouter: cada trabajo va al carril de su impresora por
+     * el transporte bloqueante (pool, DLE EOT, circuit breaker, spool)
+     */
+    private final class RouterBackend implements PrintBackend {
+
+        @Override
+        public String getName() {
+            return BACKEND_TCP;
+        }
+
+        @Override
+        public boolean isAvailable(PrintRouter.Target target) {
+            return breaker.allows(target.key);
+        }
+
+        @Override
+        public void submit(PrintRouter.Job job, PrintRouter.Target target, boolean useSpool, Callback callback) {
+            dispatcher.execute(target.key, job.priority, () -> {
+                try {
+                    byte[] data = job.data();
+                    rememberJob(job.documentId, target.ip, target.port, data);
+                    long start = System.currentTimeMillis();
+                    JSObject result = runJob(target.ip, target.port, copies(data, job.copies, job.copyMarker, job.copyLabel),
+                        true, useSpool, checkStatus, null);
+                    result.put("queuedMs", start - job.createdAt);
+                    callback.onResult(result);
+
+                } catch (PrinterStatus.PrinterStatusException e) {
+                    // Circuito abierto o impresora no lista antes de enviar: el respaldo puede imprimirlo
+                    Log.w(TAG, "Routed job: printer " + target.key + " not ready: " + e.getMessage());
+                    callback.onError(e.getMessage(), e.code, true);
+                } catch (PrintBackend.SentException e) {
+                    Log.e(TAG, "Routed job to " + target.key + " failed while sending: " + e.getMessage());
+                    callback.onError(e.getMessage(), e.code, false);
+                } catch (IOException e) {
+                    // No conectó
+                    Log.e(TAG, "Routed job to " + target.key + " failed: " + e.getMessage());
+                    callback.onError(e.getMessage(), null, true);
+                } catch (PrintRouter.InvalidJobException e) {
+                    callback.onInvalid(e.getMessage());
+                } catch (RuntimeException e) {
+                    callback.onError(e.getMessage(), null, false);
+                }
+            });
         }
     }
 
     @Override
     protected void handleOnDestroy() {
+        PrintRouter.get().unregister(routerBackend);
         disconnect();
-        executor.shutdown();
+        dispatcher.shutdown();
+        pool.shutdown();
+        breaker.shutdown();
+        timers.shutdownNow();
+        synchronized (this) {
+            if (nio != null) {
+                nio.shutdown();
+            }
+        }
+        if (spool != null) {
+            spool.shutdown();
+        }
         super.handleOnDestroy();
     }
 }
@@ -0,0 +1,71 @@
+package com.cobrify.app.plugins;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class EscPosOptimizerTest {
+
+    private static final byte ESC = 0x1B;
+    private static final byte LF = 0x0A;
+
+    // doubleHeight(true), texto, doubleHeight(false).bold(true).doubleHeight(true), texto
+    @Test
+    public void keepsModeAfterBold() throws Exception {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        in.write(new byte[] {ESC, 0x21, 0x10});
+        in.write("RESTAURANTE".getBytes(StandardCharsets.US_ASCII));
+        in.write(LF);
+        in.write(new byte[] {ESC, 0x21, 0x00, ESC, 0x45, 0x01, ESC, 0x21, 0x10});
+        in.write("PRECUENTA DIVIDIDA".getBytes(StandardCharsets.US_ASCII));
+        in.write(LF);
+
+        byte[] out = EscPosOptimizer.optimize(in.toByteArray());
+
+        // ESC ! 0x10 apaga la negrita en impresoras tipo Epson: no se puede descartar
+        int title = indexOf(out, "PRECUENTA".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(title >= 6);
+        assertArrayEquals(new byte[] {ESC, 0x45, 0x01, ESC, 0x21, 0x10}, slice(out, title - 6, title));
+    }
+
+    @Test
+    public void dropsRepeatedMode() throws Exception {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        in.write(new byte[] {ESC, 0x21, 0x10});
+        in.write('A');
+        in.write(new byte[] {ESC, 0x21, 0x10});
+        in.write('B');
+
+        assertArrayEquals(new byte[] {ESC, 0x21, 0x10, 'A', 'B'}, EscPosOptimizer.optimize(in.toByteArray()));
+    }
+
+    // ESC @ vuelve a la tabla configurada en la impresora: el ESC t 0 (CP437) que sigue no sobra
+    @Test
+    public void keepsCodepageAfterInit() {
+        byte[] in = {ESC, 0x40, ESC, 0x74, 0x00, 'A', LF};
+
+        assertArrayEquals(in, EscPosOptimizer.optimize(in));
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] slice(byte[] data, int from, int to) {
+        byte[] part = new byte[to - from];
+        System.arraycopy(data, from, part, 0, part.length);
+        return part;
+    }
+}
@@ -0,0 +1,67 @@
+package com.cobrify.app.plugins;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+public class PrintSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversPendingJobsFromJournal() throws Exception {
+        File dir = folder.newFolder();
+        PrintSpool first = spool(dir);
+        PrintSpool.Job kept = first.enqueue("192.168.1.50:9100", new byte[] {0x1B, 0x40, 'A', 0x0A}, 2);
+        PrintSpool.Job printed = first.enqueue("192.168.1.50:9100", new byte[] {'B'}, 1);
+        first.markDone(printed);
+        first.shutdown();
+
+        PrintSpool second = spool(dir);
+        List<PrintSpool.Job> recovered = second.recover();
+        second.shutdown();
+
+        assertEquals(1, recovered.size());
+        PrintSpool.Job job = recovered.get(0);
+        assertEquals(kept.id, job.id);
+        assertEquals(kept.target, job.target);
+        assertEquals(kept.copies, job.copies);
+        assertEquals(kept.createdAt, job.createdAt);
+        assertArrayEquals(kept.data, job.data);
+    }
+
+    // Un trabajo anotado antes de que corra recover no se pierde ni se devuelve dos veces
+    @Test
+    public void keepsJobsEnqueuedBeforeRecover() throws Exception {
+        File dir = folder.newFolder();
+        PrintSpool first = spool(dir);
+        PrintSpool.Job old = first.enqueue("internal", new byte[] {'A'}, 1);
+        first.shutdown();
+
+        PrintSpool second = spool(dir);
+        PrintSpool.Job live = second.enqueue("internal", new byte[] {'B'}, 1);
+        List<PrintSpool.Job> recovered = second.recover();
+
+        assertEquals(1, recovered.size());
+        assertEquals(old.id, recovered.get(0).id);
+        assertTrue(second.isPending(live.id));
+        assertTrue(second.scheduleRetry(live, "offline"));
+        second.shutdown();
+
+        PrintSpool third = spool(dir);
+        List<PrintSpool.Job> all = third.recover();
+        third.shutdown();
+
+        assertEquals(2, all.size());
+    }
+
+    private static PrintSpool spool(File dir) {
+        return new PrintSpool(dir, "test", PrintSpool.DEFAULT_MAX_ATTEMPTS, job -> {});
+    }
+}
@@ -26,11 +26,16 @@ const TcpPrinter = registerPlugin('TcpPrinter');
 // Plugin para impresora interna iMin
 const IminPrinter = registerPlugin('IminPrinter');
 
+// Enrutador nativo: elige la impresora por tipo de documento, con failover entre WiFi e interna
+const PrintRouter = registerPlugin('PrintRouter');
+
 // Estado de la impresora
 let isPrinterConnected = false;
 let connectedPrinterAddress = null;
 let connectionType = 'bluetooth'; // 'bluetooth', 'wifi' o 'internal'
 let useAlternativeBLE = false; // Usar servicio alternativo BLE (iOS o Android con impresoras solo-BLE)
+let printRoutesConfigured = false; // configurePrintRoutes: sendEscPosData pasa por PrintRouter
+let optimizeEscPos = false; // setEscPosOptimization: pasar los tickets por EscPosOptimizer (opt-in)
 
 // Tope de ancho de imagen con el que arranca el plugin de Bluetooth Clásico
 // (begin() -> clearFormatting() -> setBimtapLimitWidth(48*8)). Tras subirlo para
@@ -313,6 +318,9 @@ const detectConnectionType = (address) => {
   return 'bluetooth';
 };
 
+// ~16 KB de ESC/POS: a partir de ahí printDirect envía por tramos (chunkSize)
+const LARGE_JOB_BASE64_LENGTH = 22000;
+
 /**
  * Parsear dirección IP y puerto
  * @param {string} address - Dirección IP con o sin puerto
@@ -326,19 +334,88 @@ const parseIpAddress = (address) => {
   return { ip: address, port: 9100 }; // Puerto por defecto para impresoras térmicas
 };
 
+/**
+ * Tipo de documento para PrintRouter a partir del ID de caché de reimpresión
+ * @param {string} [documentId] - p. ej. `ticket:${id}`, `prebill:${id}` o `kitchen:${id}`
+ */
+const documentTypeFromId = (documentId) => {
+  if (documentId?.startsWith('ticket:')) return 'receipt';
+  if (documentId?.startsWith('prebill:')) return 'prebill';
+  if (documentId?.startsWith('kitchen:')) return 'kitchen';
+  return 'other';
+};
+
+/**
+ * Clave de idempotencia de un envío: la misma en el reintento, distinta en cada impresión
+ * @param {string} [documentId]
+ */
+const newIdempotencyKey = (documentId) =>
+  `${documentId || 'print'}:${Date.now().toString(36)}:${Math.random().toString(36).slice(2, 8)}`;
+
+/**
+ * Llamar a un método de impresión nativo con clave de idempotencia. Se reintenta
+ * una vez con la misma clave solo si el plugin informa que no salió nada
+ * (data.sent === false, p. ej. no conectó). Un rechazo con código (PAPER_OUT,
+ * PRINTER_OFFLINE, ...) o sin ese dato (pudo salir parte del ticket a mitad del
+ * envío) no se reintenta: reimprimir daría un ticket duplicado.
+ * @param {(options: Object) => Promise<Object>} print
+ * @param {Object} options
+ */
+const printIdempotent = async (print, options) => {
+  const request = { ...options, idempotencyKey: newIdempotencyKey(options.documentId) };
+  try {
+    return await print(request);
+  } catch (error) {
+    if (error?.code || error?.data?.sent !== false) throw error;
+    console.warn('⏳ Reintentando impresión con la misma clave:', error?.message);
+    return await print(request);
+  }
+};
+
+/**
+ * Activar el optimizador nativo de ESC/POS (quita comandos de estilo redundantes)
+ * en los tickets que envía sendEscPosData. Apagado por defecto, como en los plugins.
+ * @param {boolean} enabled
+ */
+export const setEscPosOptimization = (enabled) => {
+  optimizeEscPos = !!enabled;
+};
+
+// Solo se manda optimize si se activó: si no, rige el default del plugin (setDispatchOptions en TcpPrinter)
+const optimizeOption = () => (optimizeEscPos ? { optimize: true } : {});
+
 /**
  * Enviar datos ESC/POS al plugin correspondiente (WiFi o interno)
  * @param {string} base64Data - Datos en base64
+ * @param {string} [documentId] - ID del documento: el plugin guarda los bytes para reimprimir
+ * @param {number} [copies] - Copias: el plugin las imprime seguidas con un solo envío
+ * @param {string} [documentType] - Tipo para PrintRouter; por defecto se deduce del documentId
  * @returns {Promise<Object>}
  */
-const sendEscPosData = async (base64Data) => {
+const sendEscPosData = async (base64Data, documentId, copies = 1, documentType) => {
+  if (printRoutesConfigured) {
+    return await printIdempotent((options) => PrintRouter.print(options), {
+      data: base64Data,
+      documentType: documentType || documentTypeFromId(documentId),
+      ...optimizeOption(),
+      documentId,
+      copies,
+    });
+  }
   if (connectionType === 'internal') {
-    return await IminPrinter.print({ data: base64Data });
+    return await printIdempotent((options) => IminPrinter.print(options),
+      { data: base64Data, ...optimizeOption(), documentId, copies });
   }
   // WiFi: usar printDirect (connect→print→disconnect atómico)
   // Esto permite que múltiples dispositivos compartan la misma impresora
   const { ip, port } = parseIpAddress(connectedPrinterAddress);
-  return await TcpPrinter.printDirect({ ip, port, data: base64Data });
+  // Tickets grandes (logo en raster): enviar por tramos al ritmo que drena la impresora
+  const chunkSize = base64Data.length > LARGE_JOB_BASE64_LENGTH ? 4096 : 0;
+  return await printIdempotent((options) => TcpPrinter.printDirect(options), {
+    ip, port, data: base64Data, chunkSize, ...optimizeOption(), documentId, copies,
+    // Prioridad en la cola nativa de la impresora: la boleta pasa delante de reportes y reimpresiones
+    documentType: documentType || documentTypeFromId(documentId),
+  });
 };
 
 /**
@@ -417,8 +494,8 @@ export const connectPrinter = async (address) => {
         isPrinterConnected = true;
         connectedPrinterAddress = 'internal';
         connectionType = 'internal';
-        console.log('✅ Impresora interna conectada');
-        return { success: true, address: 'internal', type: 'internal' };
+        console.log('✅ Impresora interna conectada', result.bindMs != null ? `(servicio vinculado en ${result.bindMs} ms${result.prewarmed ? ', precalentado' : ''})` : '');
+        return { success: true, address: 'internal', type: 'internal', bindMs: result.bindMs, prewarmed: result.prewarmed };
       } else {
         console.error('❌ Conexión interna falló');
         return { success: false, error: 'No se pudo conectar a la impresora interna' };
@@ -673,11 +750,16 @@ export const getDocumentPrinterConfig = () => {
  * @param {string} ip - Dirección IP de la impresora
  * @param {number} port - Puerto (por defecto 9100)
  * @param {string} base64Data - Datos ESC/POS en base64
+ * @param {string} [documentId] - ID del documento: el plugin guarda los bytes para reimprimir
+ * @param {number} [copies] - Copias: una sola conexión, con corte entre copias
  */
-const sendToIp = async (ip, port, base64Data) => {
+const sendToIp = async (ip, port, base64Data, documentId, copies = 1, documentType) => {
   // Usar printDirect para impresión atómica (connect→print→disconnect)
   // No necesita reconectar la impresora principal porque no toca su socket
-  const printResult = await TcpPrinter.printDirect({ ip, port, data: base64Data });
+  const printResult = await printIdempotent((options) => TcpPrinter.printDirect(options), {
+    ip, port, data: base64Data, documentId, copies,
+    documentType: documentType || documentTypeFromId(documentId),
+  });
 
   if (printResult?.success) {
     return { success: true };
@@ -685,6 +767,108 @@ const sendToIp = async (ip, port, base64Data) => {
   return { success: false, error: `Error al imprimir en ${ip}:${port}` };
 };
 
+/**
+ * ID con el que se guarda un ticket en la caché de reimpresión del plugin
+ * @param {Object} invoice - Comprobante
+ */
+const ticketDocumentId = (invoice) => (invoice?.id ? `ticket:${invoice.id}` : undefined);
+
+/**
+ * Escuchar los cambios de estado de las impresoras de red (circuit breaker del
+ * plugin): 'open' = caída, los trabajos se rechazan al instante con código
+ * PRINTER_OFFLINE; 'halfOpen' = sondeando; 'closed' = volvió.
+ * @param {(event: {printer: string, state: string, previous: string, failureStreak: number, error?: string}) => void} callback
+ * @returns {Promise<{remove: Function}|null>}
+ */
+export const onPrinterCircuitChange = async (callback) => {
+  if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
+    return null;
+  }
+  return await TcpPrinter.addListener('printerCircuitChange', callback);
+};
+
+/**
+ * Escuchar cuando la impresora interna iMin (SDK V2) queda vinculada en segundo
+ * plano al cargar el plugin, antes del primer connect.
+ * @param {(event: {sdkVersion: string, bindMs: number, prewarmed: boolean}) => void} callback
+ * @returns {Promise<{remove: Function}|null>}
+ */
+export const onIminPrinterReady = async (callback) => {
+  if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
+    return null;
+  }
+  return await IminPrinter.addListener('printerReady', callback);
+};
+
+/**
+ * Configurar las rutas del enrutador nativo (solo Android). Es opcional: mientras
+ * nadie la llame sendEscPosData imprime por el plugin de la conexión actual, como
+ * siempre. Desde ese momento manda cada documento con una sola llamada a
+ * PrintRouter, que elige la impresora por tipo y pasa al respaldo si la de red está caída.
+ * @param {Object<string, Array<{type: 'tcp'|'internal', ip?: string, port?: number}>>} routes -
+ *   p. ej. { receipt: [{ type: 'tcp', ip: '192.168.1.50' }, { type: 'internal' }], other: [...] }
+ * @param {boolean} [failover] - Probar los destinos siguientes si el primero falla
+ */
+export const configurePrintRoutes = async (routes, failover = true) => {
+  if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
+    return { success: false, error: 'Solo disponible en Android' };
+  }
+  const result = await PrintRouter.setRoutes({ routes, failover });
+  printRoutesConfigured = Object.keys(routes || {}).length > 0;
+  return result;
+};
+
+/**
+ * Imprimir un documento por PrintRouter (una sola llamada, con failover nativo)
+ * @param {string} documentType - receipt | kitchen | prebill | report | reprint | other
+ * @param {string} base64Data - ESC/POS en base64
+ * @param {{documentId?: string, copies?: number, printers?: Array<Object>, idempotencyKey?: string}} [options]
+ */
+export const printDocument = async (documentType, base64Data, options = {}) => {
+  return await PrintRouter.print({ data: base64Data, documentType, ...options });
+};
+
+/**
+ * Escuchar el ciclo de vida de los trabajos de la impresora interna iMin:
+ * queued → printing → done | error (con code: PAPER_OUT, COVER_OPEN, ...).
+ * print devuelve printJobId; con waitForCompletion: true la promesa se resuelve
+ * recién cuando la impresora terminó el trabajo.
+ * @param {(event: {printJobId: number, state: string, documentId?: string, elapsedMs?: number, code?: string, error?: string}) => void} callback
+ * @returns {Promise<{remove: Function}|null>}
+ */
+export const onIminPrintJob = async (callback) => {
+  if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
+    return null;
+  }
+  return await IminPrinter.addListener('printJob', callback);
+};
+
+/**
+ * Reimprimir un documento con los bytes que el plugin guardó al imprimirlo
+ * (sin volver a armar el ticket). Si ya no está en caché devuelve cached: false
+ * y el llamador debe armarlo e imprimirlo de nuevo.
+ * @param {string} documentId - p. ej. `ticket:${invoice.id}` o `prebill:${order.id}`
+ * @param {{ip: string, port?: number}} [target] - Impresora; por defecto la del trabajo original
+ * @param {number} [copies] - Copias
+ */
+export const reprintCachedDocument = async (documentId, target, copies = 1) => {
+  if (!Capacitor.isNativePlatform() || !documentId) {
+    return { success: false, cached: false };
+  }
+  try {
+    if (!target && connectionType === 'internal') {
+      return await IminPrinter.reprint({ documentId, copies });
+    }
+    return await TcpPrinter.reprint({ documentId, ip: target?.ip, port: target?.port, copies });
+  } catch (error) {
+    if (error?.code === 'NOT_CACHED') {
+      return { success: false, cached: false };
+    }
+    console.error('Error reprinting cached document:', error);
+    return { success: false, cached: true, error: error.message };
+  }
+};
+
 /**
  * Convertir texto con tildes a formato ASCII simple (sin acentos)
  * Ya que el plugin no soporta setCodePage en Android
@@ -745,8 +929,9 @@ export const printInvoiceTicket = async (invoice, business, paperWidth = 58, sho
       try {
         console.log(`📄 Usando impresora de documentos (${docPrinter.ip}) para ticket...`);
         const docPaperWidth = docPrinter.paperWidth || paperWidth;
-        const base64Data = await buildTicketEscPos(invoice, business, docPaperWidth);
-        return await sendToIp(docPrinter.ip, docPrinter.port || 9100, base64Data);
+        const docTarget = { ip: docPrinter.ip, port: docPrinter.port || 9100 };
+        const base64Data = await buildTicketEscPos(invoice, business, docPaperWidth, docTarget);
+        return await sendToIp(docPrinter.ip, docPrinter.port || 9100, base64Data, ticketDocumentId(invoice));
       } catch (error) {
         console.error('Error printing to document printer:', error);
         return { success: false, error: error.message };
@@ -1687,7 +1872,7 @@ export const printPreBill = async (order, table, business, taxConfig = { igvRate
         console.log(`📄 Usando impresora de documentos (${docPrinter.ip}) para precuenta...`);
         const docPaperWidth = docPrinter.paperWidth || paperWidth;
         const base64Data = buildPreBillEscPos(order, table, business, taxConfig, docPaperWidth, recargoConsumoConfig);
-        return await sendToIp(docPrinter.ip, docPrinter.port || 9100, base64Data);
+        return await sendToIp(docPrinter.ip, docPrinter.port || 9100, base64Data, order?.id ? `prebill:${order.id}` : undefined);
       } catch (error) {
         console.error('Error printing pre-bill to document printer:', error);
         return { success: false, error: error.message };
@@ -2435,6 +2620,13 @@ class EscPosBuilder {
     return this;
   }
 
+  // Bytes ESC/POS ya armados (p.ej. el QR que devuelve TcpPrinter.renderQr)
+  raw(bytes) {
+    if (!bytes) return this;
+    for (let i = 0; i < bytes.length; i++) this.commands.push(bytes[i]);
+    return this;
+  }
+
   // Obtener bytes para enviar
   // Imagen raster (GS v 0, modo normal). data = filas de bits empaquetados,
   // widthBytes por fila, MSB primero, bit 1 = punto negro. Es lo que permite
@@ -2467,14 +2659,100 @@ class EscPosBuilder {
   }
 }
 
+/**
+ * Raster del logo para ESC/POS. En Android lo convierte el plugin nativo, que
+ * guarda el resultado en caché (memoria + disco) y no vuelve a decodificar ni
+ * aplicar dithering en cada ticket; si falla, se usa la conversión en JS.
+ * @returns {Promise<{ready: boolean, width: number, height: number, widthBytes: number, data: Uint8Array|null}>}
+ */
+const prepareLogoRaster = async (logoUrl, paperWidth, scale) => {
+  if (Capacitor.isNativePlatform() && Capacitor.getPlatform() === 'android') {
+    try {
+      const raster = await TcpPrinter.rasterizeImage({ url: logoUrl, paperWidth, scale: scale || 100 });
+      const binary = atob(raster.data);
+      const data = new Uint8Array(binary.length);
+      for (let i = 0; i < binary.length; i++) data[i] = binary.charCodeAt(i);
+      return { ready: true, width: raster.width, height: raster.height, widthBytes: raster.widthBytes, data };
+    } catch (e) {
+      console.warn('⚠️ Raster nativo del logo falló, usando conversión JS:', e?.message);
+    }
+  }
+  return prepareLogoRasterForEscPos(logoUrl, paperWidth, scale);
+};
+
+// ¿QR nativo (GS ( k) por impresora "ip:puerto"? Lo resuelve el plugin una vez; acá
+// se guarda para no cruzar el bridge en cada ticket. Solo se guardan respuestas sabidas.
+const qrNativeByPrinter = new Map();
+
+/**
+ * ¿La impresora destino imprime QR nativo? La interna siempre; una de red según
+ * TcpPrinter.getPrinterCapabilities (sondeo nativo, guardado por impresora).
+ * @param {Object} target - { ip, port } o { internal: true }
+ * @returns {Promise<boolean>}
+ */
+const resolveQrNative = async (target) => {
+  if (!target.ip) return true;
+  const key = `${target.ip}:${target.port || 9100}`;
+  if (qrNativeByPrinter.has(key)) return qrNativeByPrinter.get(key);
+  const result = await TcpPrinter.getPrinterCapabilities({ ip: target.ip, port: target.port || 9100 });
+  if (result.known) qrNativeByPrinter.set(key, result.nativeQr);
+  return result.nativeQr;
+};
+
+/**
+ * Agregar un QR armado en nativo (Android) cuando hace falta: si la impresora
+ * destino no tiene QR nativo se manda como raster; con image/url en vez de data,
+ * el QR subido como imagen se decodifica y se reemite como QR nativo. Un QR de
+ * texto para una impresora con GS ( k no necesita el plugin: devuelve false y el
+ * llamador usa builder.qr() como antes.
+ * @param {EscPosBuilder} builder
+ * @param {Object} qr - { data } o { url } / { image }, más size y ec opcionales
+ * @param {Object|null} target - { ip, port } de la impresora, { internal: true } o null
+ * @returns {Promise<boolean>} false si no se agregó (web/iOS, QR nativo o error): usar el camino JS
+ */
+const appendNativeQr = async (builder, qr, target, paperWidth) => {
+  if (!target || !Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
+    return false;
+  }
+  try {
+    if (qr.data && (await resolveQrNative(target))) {
+      return false;
+    }
+    const params = { ...qr, paperWidth };
+    if (target.ip) {
+      params.ip = target.ip;
+      params.port = target.port || 9100;
+    }
+    const result = await TcpPrinter.renderQr(params);
+    const binary = atob(result.data);
+    const bytes = new Uint8Array(binary.length);
+    for (let i = 0; i < binary.length; i++) bytes[i] = binary.charCodeAt(i);
+    builder.raw(bytes);
+    return true;
+  } catch (e) {
+    console.warn('⚠️ QR nativo falló, usando comandos JS:', e?.message);
+    return false;
+  }
+};
+
+/**
+ * Destino del ticket para elegir QR nativo o raster
+ */
+const currentQrTarget = () => {
+  if (connectionType === 'internal') return { internal: true };
+  if (connectionType === 'wifi' && connectedPrinterAddress) return parseIpAddress(connectedPrinterAddress);
+  return null;
+};
+
 /**
  * Construir datos ESC/POS para ticket de comprobante (Factura/Boleta)
  * @param {Object} invoice - Datos del comprobante
  * @param {Object} business - Datos del negocio
  * @param {number} paperWidth - Ancho de papel (58 o 80mm)
+ * @param {Object|null} target - Impresora destino ({ ip, port } o { internal: true }), para los QR
  * @returns {string} Datos en base64
  */
-const buildTicketEscPos = async (invoice, business, paperWidth = 58) => {
+const buildTicketEscPos = async (invoice, business, paperWidth = 58, target = null) => {
     const format = getFormat(paperWidth);
     const builder = new EscPosBuilder();
     const currencySymbol = invoice?.currency === 'USD' ? '$' : 'S/';
@@ -2493,7 +2771,7 @@ const buildTicketEscPos = async (invoice, business, paperWidth = 58) => {
     const headerLogoUrl = invoice.branchLogoUrl || business.logoUrl;
     if (headerLogoUrl) {
       try {
-        const raster = await prepareLogoRasterForEscPos(headerLogoUrl, paperWidth, business.logoPrintScale);
+        const raster = await prepareLogoRaster(headerLogoUrl, paperWidth, business.logoPrintScale);
         if (raster.ready) {
           builder.rasterImage(raster.widthBytes, raster.height, raster.data).newLine();
         } else {
@@ -2747,7 +3025,9 @@ const buildTicketEscPos = async (invoice, business, paperWidth = 58) => {
         const numDocCliente = invoice.customer?.documentNumber || '';
         const qrData = `${business.ruc}|${tipoDoc}|${invoice.series}|${invoice.correlativeNumber || invoice.number}|${(invoice.tax || 0).toFixed(2)}|${(invoice.total || 0).toFixed(2)}|${fecha}|${docCliente}|${numDocCliente}`;
 
-        builder.qr(qrData);
+        if (!(await appendNativeQr(builder, { data: qrData, size: 6, ec: 'L' }, target, paperWidth))) {
+          builder.qr(qrData);
+        }
       }
 
       builder.text('Consulte su comprobante en:').newLine()
@@ -2788,7 +3068,8 @@ const buildTicketEscPos = async (invoice, business, paperWidth = 58) => {
     }
 
     // QR personalizado al pie (configurado por el usuario).
-    // Modo 'image': imprime una imagen subida con dithering (ej. QR Yape/Plin).
+    // Modo 'image': imagen subida (ej. QR Yape/Plin). En Android se decodifica y se
+    // imprime como QR nativo; si no, va como raster.
     // Modo 'auto' (default): genera el QR a partir del contenido con .qr() nativo.
     if (business.ticketQrEnabled) {
       const qrMode = business.ticketQrMode === 'image' ? 'image' : 'auto'
@@ -2796,13 +3077,15 @@ const buildTicketEscPos = async (invoice, business, paperWidth = 58) => {
 
       if (qrMode === 'image' && business.ticketQrImageUrl) {
         try {
-          const qrConfig = await prepareLogoForPrinting(business.ticketQrImageUrl, ticketPaperWidth)
           builder.newLine().alignCenter()
-          if (qrConfig.ready && qrConfig.base64) {
-            const dataUrl = `data:image/png;base64,${qrConfig.base64}`
-            builder.image(dataUrl, qrConfig.width)
-          } else if (qrConfig.ready && qrConfig.url) {
-            builder.image(qrConfig.url, qrConfig.width)
+          const qrSize = ticketPaperWidth === 58 ? 5 : 7
+          const qrImage = { url: business.ticketQrImageUrl, size: qrSize, ec: 'M' }
+          if (!(await appendNativeQr(builder, qrImage, target, ticketPaperWidth))) {
+            // EscPosBuilder no tiene image(): la imagen va como raster GS v 0
+            const raster = await prepareLogoRaster(business.ticketQrImageUrl, ticketPaperWidth)
+            if (raster.ready) {
+              builder.rasterImage(raster.widthBytes, raster.height, raster.data).newLine()
+            }
           }
           if (business.ticketQrCaption && business.ticketQrCaption.trim()) {
             builder.text(business.ticketQrCaption.trim()).newLine()
@@ -2811,7 +3094,12 @@ const buildTicketEscPos = async (invoice, business, paperWidth = 58) => {
           console.error('Error al imprimir QR (imagen):', qrError)
         }
       } else if (business.ticketQrContent && business.ticketQrContent.trim()) {
-        builder.newLine().alignCenter().qr(business.ticketQrContent.trim(), ticketPaperWidth === 58 ? 5 : 7)
+        const qrContent = business.ticketQrContent.trim()
+        const qrSize = ticketPaperWidth === 58 ? 5 : 7
+        builder.newLine().alignCenter()
+        if (!(await appendNativeQr(builder, { data: qrContent, size: qrSize, ec: 'L' }, target, ticketPaperWidth))) {
+          builder.qr(qrContent, qrSize)
+        }
         if (business.ticketQrCaption && business.ticketQrCaption.trim()) {
           builder.text(business.ticketQrCaption.trim()).newLine()
         }
@@ -2835,8 +3123,8 @@ export const printWifiTicket = async (invoice, business, paperWidth = 58) => {
   }
 
   try {
-    const base64Data = await buildTicketEscPos(invoice, business, paperWidth);
-    const result = await sendEscPosData(base64Data);
+    const base64Data = await buildTicketEscPos(invoice, business, paperWidth, currentQrTarget());
+    const result = await sendEscPosData(base64Data, ticketDocumentId(invoice));
 
     if (result && result.success) {
       return { success: true };
@@ -2868,7 +3156,7 @@ const printWifiKitchenOrder = async (order, table = null, paperWidth = 58, stati
       .cut();
 
     const base64Data = builder.toBase64();
-    const result = await sendEscPosData(base64Data);
+    const result = await sendEscPosData(base64Data, undefined, 1, 'kitchen');
 
     if (result && result.success) {
       return { success: true };
@@ -2881,6 +3169,34 @@ const printWifiKitchenOrder = async (order, table = null, paperWidth = 58, stati
   }
 };
 
+/**
+ * Construir datos ESC/POS de la comanda de una estación
+ * @param {Object} order - Datos de la orden
+ * @param {Object} station - Datos de la estación
+ * @param {Array} items - Items filtrados para esta estación
+ * @param {number} paperWidth - Ancho de papel (58 o 80mm)
+ * @returns {string} Datos en base64
+ */
+const buildStationTicketEscPos = (order, station, items, paperWidth = 58) => {
+  const format = getFormat(paperWidth);
+  EscPosBuilder.baseSizeScale = ticketSizeScaleFromConfig();
+  const builder = new EscPosBuilder();
+  builder.init();
+
+  // Formato ÚNICO de comanda (mismo que Bluetooth / WiFi / BLE / HTML).
+  // La estación recibe sus items filtrados aparte → se los inyectamos a la orden.
+  const stationOrder = { ...order, items };
+  const stationTable = order.tableNumber
+    ? { number: order.tableNumber, waiter: order.waiterName || order.waiter || '' }
+    : null;
+  const lines = buildKitchenLines(stationOrder, stationTable, paperWidth, station.name || 'ESTACION');
+  renderKitchenLinesEscPos(builder, lines, format);
+
+  builder.feed(getCutFeedLines()).cut();
+
+  return builder.toBase64();
+};
+
 /**
  * Imprimir comanda de estación a una impresora WiFi específica
  * @param {string} printerIp - Dirección IP de la impresora
@@ -2895,23 +3211,7 @@ export const printStationTicket = async (printerIp, order, station, items, paper
   }
 
   try {
-    const format = getFormat(paperWidth);
-    EscPosBuilder.baseSizeScale = ticketSizeScaleFromConfig();
-    const builder = new EscPosBuilder();
-    builder.init();
-
-    // Formato ÚNICO de comanda (mismo que Bluetooth / WiFi / BLE / HTML).
-    // La estación recibe sus items filtrados aparte → se los inyectamos a la orden.
-    const stationOrder = { ...order, items };
-    const stationTable = order.tableNumber
-      ? { number: order.tableNumber, waiter: order.waiterName || order.waiter || '' }
-      : null;
-    const lines = buildKitchenLines(stationOrder, stationTable, paperWidth, station.name || 'ESTACION');
-    renderKitchenLinesEscPos(builder, lines, format);
-
-    builder.feed(getCutFeedLines()).cut();
-
-    const base64Data = builder.toBase64();
+    const base64Data = buildStationTicketEscPos(order, station, items, paperWidth);
 
     // Si la estación usa impresora integrada (iMin), imprimir por IminPrinter
     if (station.useBuiltInPrinter) {
@@ -2930,7 +3230,7 @@ export const printStationTicket = async (printerIp, order, station, items, paper
     console.log(`📤 Imprimiendo a estación ${station.name} (${printerIp}:${port})...`);
 
     // Usar printDirect para impresión atómica (connect→print→disconnect)
-    const printResult = await TcpPrinter.printDirect({ ip: printerIp, port, data: base64Data });
+    const printResult = await TcpPrinter.printDirect({ ip: printerIp, port, data: base64Data, documentType: 'kitchen' });
 
     if (printResult?.success) {
       console.log(`✅ Ticket impreso en estación ${station.name}`);
@@ -2949,9 +3249,14 @@ export const printStationTicket = async (printerIp, order, station, items, paper
  * @param {Object} order - Datos de la orden
  * @param {Array} kitchenStations - Lista de estaciones de cocina con sus categorías e impresoras
  * @param {number} paperWidth - Ancho de papel
+ * @param {Object} [options]
+ * @param {boolean} [options.spool=false] - Si una impresora WiFi no responde, dejar la comanda
+ *   en la cola persistente del plugin para que se reintente sola (puede salir bastante después
+ *   del pedido). Sin spool el fallo se informa en el resultado, como siempre.
  */
-export const printToAllStations = async (order, kitchenStations, paperWidth = 58) => {
+export const printToAllStations = async (order, kitchenStations, paperWidth = 58, { spool = false } = {}) => {
   const results = [];
+  const pending = [];
 
   // Ruteo por sede: una comanda solo sale por las impresoras de SU local. Sin
   // esto, un negocio con dos sedes imprimia el pedido de una en la cocina de la
@@ -2982,7 +3287,55 @@ export const printToAllStations = async (order, kitchenStations, paperWidth = 58
     }
 
     if (stationItems.length > 0) {
-      const result = await printStationTicket(station.printerIp, order, station, stationItems, paperWidth);
+      pending.push({ station, items: stationItems });
+    }
+  }
+
+  // Estaciones con impresora integrada (iMin): van por su propio plugin
+  const wifiJobs = [];
+  for (const { station, items } of pending) {
+    if (station.useBuiltInPrinter) {
+      const result = await printStationTicket(station.printerIp, order, station, items, paperWidth);
+      results.push({ station: station.name, ...result });
+    } else {
+      wifiJobs.push({ station, items });
+    }
+  }
+
+  if (wifiJobs.length === 0) {
+    return results;
+  }
+
+  // Estaciones WiFi: un solo printBatch. El plugin imprime en paralelo en
+  // impresoras distintas, así que cocina + bar + caja tardan lo que la más lenta.
+  try {
+    const port = 9100;
+    const batch = await TcpPrinter.printBatch({
+      spool,
+      jobs: wifiJobs.map(({ station, items }) => ({
+        ip: station.printerIp,
+        port,
+        data: buildStationTicketEscPos(order, station, items, paperWidth),
+      })),
+    });
+    wifiJobs.forEach(({ station }, index) => {
+      const job = batch?.jobs?.[index];
+      if (job?.success) {
+        console.log(`✅ Ticket impreso en estación ${station.name} (${job.durationMs} ms)`);
+        results.push({ station: station.name, success: true });
+      } else if (job?.spooled) {
+        console.warn(`⏳ Estación ${station.name} no responde, comanda en cola de reintento:`, job.error);
+        results.push({ station: station.name, success: false, spooled: true, error: 'Impresora sin respuesta: la comanda se reintentará automáticamente' });
+      } else {
+        console.error(`Error imprimiendo en estación ${station.name}:`, job?.error);
+        results.push({ station: station.name, success: false, error: job?.error || 'Error al imprimir en la estación' });
+      }
+    });
+  } catch (error) {
+    // App nativa sin printBatch (versión anterior): una estación a la vez
+    console.warn('printBatch no disponible, imprimiendo estación por estación:', error?.message);
+    for (const { station, items } of wifiJobs) {
+      const result = await printStationTicket(station.printerIp, order, station, items, paperWidth);
       results.push({ station: station.name, ...result });
     }
   }
@@ -3161,7 +3514,7 @@ const buildPreBillEscPos = (order, table, business, taxConfig = { igvRate: 18, i
 const printWifiPreBill = async (order, table, business, taxConfig = { igvRate: 18, igvExempt: false }, paperWidth = 58, recargoConsumoConfig = { enabled: false, rate: 10 }) => {
   try {
     const base64Data = buildPreBillEscPos(order, table, business, taxConfig, paperWidth, recargoConsumoConfig);
-    const result = await sendEscPosData(base64Data);
+    const result = await sendEscPosData(base64Data, order?.id ? `prebill:${order.id}` : undefined);
 
     if (result && result.success) {
       return { success: true };
@@ -3272,14 +3625,14 @@ export const printSplitPreBillThermal = async (order, table, business, taxConfig
     if (isNative) {
       const docPrinter = getDocumentPrinterConfig();
       if (docPrinter?.enabled && docPrinter?.ip) {
-        await sendToIp(docPrinter.ip, docPrinter.port || 9100, base64Data);
+        await sendToIp(docPrinter.ip, docPrinter.port || 9100, base64Data, undefined, 1, 'prebill');
         continue;
       }
     }
 
     // WiFi o interna
     if (connectionType === 'wifi' || connectionType === 'internal') {
-      await sendEscPosData(base64Data);
+      await sendEscPosData(base64Data, undefined, 1, 'prebill');
       continue;
     }
 
@@ -3869,7 +4222,7 @@ const printWifiCashClosure = async (sessionData, movements, business, paperWidth
       .cut();
 
     const base64Data = builder.toBase64();
-    const result = await sendEscPosData(base64Data);
+    const result = await sendEscPosData(base64Data, undefined, 1, 'report');
 
     if (result && result.success) {
       return { success: true };